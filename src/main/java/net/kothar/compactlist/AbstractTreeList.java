@@ -0,0 +1,185 @@
+package net.kothar.compactlist;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+import net.kothar.compactlist.internal.LongCursor;
+import net.kothar.compactlist.internal.Tree;
+import net.kothar.compactlist.internal.TreeIterator;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+
+/**
+ * A list of Longs with the same storage as {@link CompactList}, whose segments are organised by an
+ * alternative {@link Tree} layout
+ */
+abstract class AbstractTreeList extends AbstractList<Long> implements LongList, Serializable {
+
+	private static final long serialVersionUID = 4475063012872918340L;
+
+	long	operation	= 0;
+	Tree	root;
+
+	/** Chooses how each segment is stored, or null to use the default policy */
+	transient CompactionPolicy compactionPolicy;
+
+	AbstractTreeList(Tree root) {
+		this.root = root;
+	}
+
+	private void maintain() {
+		if (++operation % root.getConfiguration().getMaintenanceCycle() == 0) {
+			root.maintain(getCompactionPolicy());
+		}
+	}
+
+	@Override
+	public void add(int index, Long element) {
+		addLong(index, element);
+	}
+
+	@Override
+	public void addLong(int index, long element) {
+		if (index > size() || index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		root.addLong(index, element);
+		maintain();
+	}
+
+	@Override
+	public Long remove(int index) {
+		return removeLong(index);
+	}
+
+	@Override
+	public long removeLong(int index) {
+		if (index >= size() || index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		long result = root.removeLong(index);
+		maintain();
+		return result;
+	}
+
+	@Override
+	public Long get(int index) {
+		return getLong(index);
+	}
+
+	@Override
+	public long getLong(int index) {
+		if (index >= size() || index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		long result = root.getLong(index);
+		maintain();
+		return result;
+	}
+
+	@Override
+	public Long set(int index, Long element) {
+		return setLong(index, element);
+	}
+
+	@Override
+	public long setLong(int index, long element) {
+		if (index >= size() || index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		long result = root.setLong(index, element);
+		maintain();
+		return result;
+	}
+
+	@Override
+	public int size() {
+		return root.size();
+	}
+
+	/**
+	 * Tries to find more efficient in-memory representations for each list segment
+	 */
+	public void compact() {
+		root.compact(getCompactionPolicy());
+	}
+
+	/**
+	 * Compacts the list with the given policy, such as {@link CompactionPolicy#MINIMUM_SIZE} for a
+	 * list which is not expected to be written again
+	 */
+	public void compact(CompactionPolicy policy) {
+		root.compact(policy);
+	}
+
+	/**
+	 * @return the policy used to choose how each list segment is stored when compacting
+	 */
+	public CompactionPolicy getCompactionPolicy() {
+		return compactionPolicy != null ? compactionPolicy : CompactionPolicy.getDefault();
+	}
+
+	/**
+	 * Sets the policy used to choose how each list segment is stored when compacting
+	 * 
+	 * @param compactionPolicy
+	 *            The policy for this list, or null to use the default policy
+	 */
+	public void setCompactionPolicy(CompactionPolicy compactionPolicy) {
+		this.compactionPolicy = compactionPolicy;
+	}
+
+	/**
+	 * Compacts the list for archival, compressing each list segment where this saves space.
+	 * 
+	 * @see CompactList#archive()
+	 */
+	public void archive() {
+		root.archive(compactionPolicy != null ? compactionPolicy : CompactionPolicy.MINIMUM_SIZE);
+	}
+
+	@Override
+	public Iterator<Long> iterator() {
+		return new TreeIterator(root);
+	}
+
+	/**
+	 * @return an iterator which reads each list segment in turn, without boxing
+	 */
+	@Override
+	public PrimitiveIterator.OfLong longIterator() {
+		return new TreeIterator(root);
+	}
+
+	/**
+	 * @return a reusable cursor over the elements, positioned before the first
+	 */
+	public LongCursor cursor() {
+		return root.cursor();
+	}
+
+	/**
+	 * Passes each element to the given action in order, reading each list segment directly rather
+	 * than looking up each index.
+	 */
+	@Override
+	public void forEachLong(LongConsumer action) {
+		root.walk(store -> store.forEachLong(action));
+	}
+
+	/**
+	 * Performs a search in the list to locate the index of the given value.
+	 * <p>
+	 * Assumes that the values are in ascending order.
+	 * 
+	 * @param value
+	 *            The value to search for
+	 * @return The index of the value. If not found, returns -1 minus the index at which it should
+	 *         be inserted.
+	 */
+	public long search(long value) {
+		return root.searchLong(value);
+	}
+}
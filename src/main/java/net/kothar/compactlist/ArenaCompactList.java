@@ -0,0 +1,25 @@
+package net.kothar.compactlist;
+
+import net.kothar.compactlist.internal.ArenaTree;
+import net.kothar.compactlist.internal.TreeConfiguration;
+
+/**
+ * A list of Longs with the same storage and tree shape as {@link CompactList}, whose tree nodes are
+ * held in primitive arrays rather than as an object per node. This reduces the heap used by lists
+ * with many segments, and the number of objects the garbage collector must trace.
+ */
+public class ArenaCompactList extends AbstractTreeList {
+
+	private static final long serialVersionUID = 6931620471953428746L;
+
+	public ArenaCompactList() {
+		super(new ArenaTree());
+	}
+
+	/**
+	 * Creates a list whose segment sizes and maintenance cycle are set by the given configuration
+	 */
+	public ArenaCompactList(TreeConfiguration configuration) {
+		super(new ArenaTree(configuration));
+	}
+}
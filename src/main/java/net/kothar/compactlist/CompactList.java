@@ -3,25 +3,60 @@ package net.kothar.compactlist;
 import java.io.Serializable;
 import java.util.AbstractList;
 import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
 
+import net.kothar.compactlist.internal.Finger;
+import net.kothar.compactlist.internal.LongCursor;
 import net.kothar.compactlist.internal.Node;
+import net.kothar.compactlist.internal.TreeConfiguration;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
 
 public class CompactList extends AbstractList<Long> implements LongList, Serializable {
 
 	private static final long serialVersionUID = -3558458042495888205L;
 
-	private static final long MAINTENANCE_CYCLE = 1 << 18;
-
 	long	operation	= 0;
 	Node	root;
 
+	/** Operations since the tree was last adapted to the mix of inserts and reads */
+	transient long inserts, reads;
+
+	/** Chooses how each segment is stored, or null to use the default policy */
+	transient CompactionPolicy compactionPolicy;
+
+	/** The segment last accessed by index */
+	transient Finger finger;
+
 	public CompactList() {
 		root = new Node();
 	}
 
+	/**
+	 * Creates a list whose segment sizes and maintenance cycle are set by the given configuration
+	 */
+	public CompactList(TreeConfiguration configuration) {
+		root = new Node(configuration);
+	}
+
+	CompactList(Node root) {
+		this.root = root;
+	}
+
+	private Finger finger() {
+		if (finger == null) {
+			finger = new Finger(root);
+		}
+		return finger;
+	}
+
 	private void maintain() {
-		if (++operation % MAINTENANCE_CYCLE == 0) {
-			root.maintain();
+		if (++operation % root.getConfiguration().getMaintenanceCycle() == 0) {
+			root.adapt(inserts, reads);
+			inserts = 0;
+			reads = 0;
+			root.maintain(getCompactionPolicy());
 		}
 	}
 
@@ -36,6 +71,7 @@ public class CompactList extends AbstractList<Long> implements LongList, Seriali
 			throw new ArrayIndexOutOfBoundsException(index);
 		}
 		root.addLong(index, element);
+		inserts++;
 		maintain();
 	}
 
@@ -59,12 +95,17 @@ public class CompactList extends AbstractList<Long> implements LongList, Seriali
 		return getLong(index);
 	}
 
+	/**
+	 * Reads in or next to the list segment last accessed by index are resolved without searching
+	 * from the top of the tree, so loops over indices are nearly as fast as an iterator.
+	 */
 	@Override
 	public long getLong(int index) {
 		if (index >= size() || index < 0) {
 			throw new ArrayIndexOutOfBoundsException(index);
 		}
-		long result = root.getLong(index);
+		long result = finger().getLong(index);
+		reads++;
 		maintain();
 		return result;
 	}
@@ -79,7 +120,7 @@ public class CompactList extends AbstractList<Long> implements LongList, Seriali
 		if (index >= size() || index < 0) {
 			throw new ArrayIndexOutOfBoundsException(index);
 		}
-		long result = root.setLong(index, element);
+		long result = finger().setLong(index, element);
 		maintain();
 		return result;
 	}
@@ -89,11 +130,121 @@ public class CompactList extends AbstractList<Long> implements LongList, Seriali
 		return root.size();
 	}
 
+	/**
+	 * Splits the list in two, moving the elements from the given index onwards to a new list. The
+	 * existing list segments are divided between the lists without copying their elements.
+	 * 
+	 * @param index
+	 *            The index of the first element to move
+	 * @return A list holding the elements from the index onwards, with the same compaction policy
+	 *         as this list
+	 */
+	public CompactList splitAt(int index) {
+		if (index > size() || index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+
+		Node[] parts = root.cut(index);
+		root = parts[0];
+		finger = null;
+
+		CompactList tail = new CompactList(parts[1]);
+		tail.compactionPolicy = compactionPolicy;
+		return tail;
+	}
+
+	/**
+	 * Moves the elements of another list to the end of this list. The segments of the other list
+	 * are joined to this list without copying their elements, and the other list is left empty.
+	 * 
+	 * @param other
+	 *            The list whose elements will be appended
+	 */
+	public void concat(CompactList other) {
+		if (other == this) {
+			throw new IllegalArgumentException("A list cannot be concatenated with itself");
+		}
+
+		root = Node.join(root, other.root);
+		finger = null;
+
+		other.root = new Node(other.root.getConfiguration());
+		other.finger = null;
+	}
+
+	/**
+	 * Takes an immutable snapshot of the list without copying its elements. The snapshot shares the
+	 * segments of this list; each later write copies the segment it touches and the path to it
+	 * from the top of the tree, leaving the snapshot unchanged. A list held in a single segment is
+	 * copied immediately.
+	 * 
+	 * @return A view of the elements of the list as they are now
+	 */
+	public CompactListSnapshot snapshot() {
+		return new CompactListSnapshot(root.snapshot());
+	}
+
 	/**
 	 * Tries to find more efficient in-memory representations for each list segment
 	 */
 	public void compact() {
-		root.compact();
+		root.compact(getCompactionPolicy());
+	}
+
+	/**
+	 * Compacts the list with the given policy, such as {@link CompactionPolicy#MINIMUM_SIZE} for a
+	 * list which is not expected to be written again
+	 */
+	public void compact(CompactionPolicy policy) {
+		root.compact(policy);
+	}
+
+	/**
+	 * Rebuilds the list as a balanced tree of evenly filled segments, and compacts them. Removals
+	 * already merge small segments with their neighbours, so this is only needed to restore a
+	 * list to its most compact shape, for example before archiving it.
+	 */
+	public void defragment() {
+		root.defragment(getCompactionPolicy());
+	}
+
+	/**
+	 * Reports memory held by the list which does not hold any of its elements, such as spare
+	 * capacity, and parts of arrays shared with segments that have since been removed. Compacting
+	 * the list copies segments out of arrays they barely use, so that the arrays can be collected.
+	 * 
+	 * @return the number of bytes held but unused
+	 */
+	public long unusedBytes() {
+		return root.unusedBytes();
+	}
+
+	/**
+	 * @return the policy used to choose how each list segment is stored when compacting
+	 */
+	public CompactionPolicy getCompactionPolicy() {
+		return compactionPolicy != null ? compactionPolicy : CompactionPolicy.getDefault();
+	}
+
+	/**
+	 * Sets the policy used to choose how each list segment is stored when compacting
+	 * 
+	 * @param compactionPolicy
+	 *            The policy for this list, or null to use the default policy
+	 */
+	public void setCompactionPolicy(CompactionPolicy compactionPolicy) {
+		this.compactionPolicy = compactionPolicy;
+	}
+
+	/**
+	 * Compacts the list for archival, compressing each list segment where this saves space. Reading
+	 * a compressed segment decompresses it into a cache shared by all lists, and writing to it
+	 * expands it until it is next compacted.
+	 * <p>
+	 * Archiving uses {@link CompactionPolicy#MINIMUM_SIZE} unless the list has its own policy.
+	 */
+	public void archive() {
+		root.archive(compactionPolicy != null ? compactionPolicy : CompactionPolicy.MINIMUM_SIZE);
 	}
 
 	/**
@@ -105,6 +256,43 @@ public class CompactList extends AbstractList<Long> implements LongList, Seriali
 		return root.iterator();
 	}
 
+	/**
+	 * Iterates over the elements without boxing them, moving directly from each list segment to the
+	 * next.
+	 */
+	@Override
+	public PrimitiveIterator.OfLong longIterator() {
+		return root.longIterator();
+	}
+
+	/**
+	 * Passes each element to the given action in order, reading each list segment directly rather
+	 * than looking up each index.
+	 */
+	@Override
+	public void forEachLong(LongConsumer action) {
+		root.forEachLong(action);
+	}
+
+	/**
+	 * @return a reusable cursor over the elements, positioned before the first
+	 */
+	public LongCursor cursor() {
+		return root.cursor();
+	}
+
+	/**
+	 * List iterators, including those of sub lists, move directly from each list segment to the
+	 * next or previous one.
+	 */
+	@Override
+	public ListIterator<Long> listIterator(int index) {
+		if (index > size() || index < 0) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		return root.listIterator(index);
+	}
+
 	/**
 	 * Performs a search in the list to locate the index of the given value.
 	 * <p>
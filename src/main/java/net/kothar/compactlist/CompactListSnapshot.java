@@ -0,0 +1,94 @@
+package net.kothar.compactlist;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+import net.kothar.compactlist.internal.LongCursor;
+import net.kothar.compactlist.internal.Node;
+
+/**
+ * An immutable view of the elements of a {@link CompactList} at the time the snapshot was taken.
+ * The snapshot shares the segments of the list, which the list copies before it next writes to
+ * them.
+ */
+public class CompactListSnapshot extends AbstractList<Long> implements LongList {
+
+	final Node root;
+
+	CompactListSnapshot(Node root) {
+		this.root = root;
+	}
+
+	@Override
+	public Long get(int index) {
+		return getLong(index);
+	}
+
+	@Override
+	public long getLong(int index) {
+		if (index >= size() || index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return root.getLong(index);
+	}
+
+	@Override
+	public long setLong(int index, long element) {
+		throw new UnsupportedOperationException("Snapshots cannot be modified");
+	}
+
+	@Override
+	public void addLong(int index, long element) {
+		throw new UnsupportedOperationException("Snapshots cannot be modified");
+	}
+
+	@Override
+	public long removeLong(int index) {
+		throw new UnsupportedOperationException("Snapshots cannot be modified");
+	}
+
+	@Override
+	public int size() {
+		return root.size();
+	}
+
+	@Override
+	public Iterator<Long> iterator() {
+		return root.iterator();
+	}
+
+	@Override
+	public PrimitiveIterator.OfLong longIterator() {
+		return root.longIterator();
+	}
+
+	@Override
+	public void forEachLong(LongConsumer action) {
+		root.forEachLong(action);
+	}
+
+	/**
+	 * @see CompactList#cursor()
+	 */
+	public LongCursor cursor() {
+		return root.cursor();
+	}
+
+	@Override
+	public ListIterator<Long> listIterator(int index) {
+		if (index > size() || index < 0) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		return root.listIterator(index);
+	}
+
+	/**
+	 * @see CompactList#search(long)
+	 */
+	public long search(long value) {
+		return root.searchLong(value);
+	}
+}
@@ -4,9 +4,14 @@ import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.function.LongConsumer;
 
+import net.kothar.compactlist.internal.LongCursor;
 import net.kothar.compactlist.internal.Node;
+import net.kothar.compactlist.internal.TreeConfiguration;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
 
 public class CompactMap extends AbstractMap<Long, Long> {
 
@@ -17,6 +22,14 @@ public class CompactMap extends AbstractMap<Long, Long> {
 		values = new Node();
 	}
 
+	/**
+	 * Creates a map whose segment sizes are set by the given configuration
+	 */
+	public CompactMap(TreeConfiguration configuration) {
+		keys = new Node(configuration);
+		values = new Node(configuration);
+	}
+
 	@Override
 	public int size() {
 		return keys.size();
@@ -29,9 +42,8 @@ public class CompactMap extends AbstractMap<Long, Long> {
 		}
 		long match = ((Number) value).longValue();
 
-		// TODO implement a primitive long valued iterator
-		for (Iterator<Long> i = values.iterator(); i.hasNext();) {
-			if (i.next().equals(match)) {
+		for (LongCursor cursor = values.cursor(); cursor.next();) {
+			if (cursor.value() == match) {
 				return true;
 			}
 		}
@@ -84,8 +96,70 @@ public class CompactMap extends AbstractMap<Long, Long> {
 
 	@Override
 	public void clear() {
-		keys = new Node();
-		values = new Node();
+		keys = new Node(keys.getConfiguration());
+		values = new Node(values.getConfiguration());
+	}
+
+	/**
+	 * @return an iterator over the keys in ascending order, which does not box them
+	 */
+	public PrimitiveIterator.OfLong keyIterator() {
+		return keys.longIterator();
+	}
+
+	/**
+	 * @return an iterator over the values in the order of their keys, which does not box them
+	 */
+	public PrimitiveIterator.OfLong valueIterator() {
+		return values.longIterator();
+	}
+
+	/**
+	 * Passes each key to the given action in ascending order, without boxing
+	 */
+	public void forEachKey(LongConsumer action) {
+		keys.forEachLong(action);
+	}
+
+	/**
+	 * Passes each value to the given action in the order of their keys, without boxing
+	 */
+	public void forEachValue(LongConsumer action) {
+		values.forEachLong(action);
+	}
+
+	/**
+	 * @return a reusable cursor over the keys in ascending order, positioned before the first. The
+	 *         index of each key is the index of its value in {@link #valueCursor()}.
+	 */
+	public LongCursor keyCursor() {
+		return keys.cursor();
+	}
+
+	/**
+	 * @return a reusable cursor over the values in the order of their keys, positioned before the
+	 *         first
+	 */
+	public LongCursor valueCursor() {
+		return values.cursor();
+	}
+
+	/**
+	 * Tries to find more efficient in-memory representations for each segment of the keys and
+	 * values
+	 */
+	public void compact() {
+		keys.compact();
+		values.compact();
+	}
+
+	/**
+	 * Compacts the keys and values with the given policy, such as
+	 * {@link CompactionPolicy#MINIMUM_SIZE} for a map which is not expected to be written again
+	 */
+	public void compact(CompactionPolicy policy) {
+		keys.compact(policy);
+		values.compact(policy);
 	}
 
 	@Override
@@ -96,8 +170,8 @@ public class CompactMap extends AbstractMap<Long, Long> {
 			public Iterator<Map.Entry<Long, Long>> iterator() {
 				return new Iterator<Map.Entry<Long, Long>>() {
 
-					Iterator<Long>	keyIterator		= keys.iterator();
-					Iterator<Long>	valueIterator	= values.iterator();
+					PrimitiveIterator.OfLong	keyIterator		= keys.longIterator();
+					PrimitiveIterator.OfLong	valueIterator	= values.longIterator();
 
 					@Override
 					public boolean hasNext() {
@@ -108,8 +182,8 @@ public class CompactMap extends AbstractMap<Long, Long> {
 					public Map.Entry<Long, Long> next() {
 						return new Entry<Long, Long>() {
 
-							long	key		= keyIterator.next();
-							long	value	= valueIterator.next();
+							long	key		= keyIterator.nextLong();
+							long	value	= valueIterator.nextLong();
 
 							@Override
 							public Long getKey() {
@@ -2,8 +2,13 @@ package net.kothar.compactlist;
 
 import java.util.AbstractSet;
 import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
 
+import net.kothar.compactlist.internal.LongCursor;
 import net.kothar.compactlist.internal.Node;
+import net.kothar.compactlist.internal.TreeConfiguration;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
 
 public class CompactSet extends AbstractSet<Long> {
 
@@ -13,11 +18,40 @@ public class CompactSet extends AbstractSet<Long> {
 		root = new Node();
 	}
 
+	/**
+	 * Creates a set whose segment sizes are set by the given configuration
+	 */
+	public CompactSet(TreeConfiguration configuration) {
+		root = new Node(configuration);
+	}
+
 	@Override
 	public Iterator<Long> iterator() {
 		return root.iterator();
 	}
 
+	/**
+	 * @return an iterator over the values in ascending order, which does not box them
+	 */
+	public PrimitiveIterator.OfLong longIterator() {
+		return root.longIterator();
+	}
+
+	/**
+	 * Passes each value to the given action in ascending order, without boxing
+	 */
+	public void forEachLong(LongConsumer action) {
+		root.forEachLong(action);
+	}
+
+	/**
+	 * @return a reusable cursor over the values in ascending order, positioned before the first.
+	 *         The cursor does not see values added after the set is cleared.
+	 */
+	public LongCursor cursor() {
+		return root.cursor();
+	}
+
 	@Override
 	public int size() {
 		return root.size();
@@ -59,7 +93,22 @@ public class CompactSet extends AbstractSet<Long> {
 
 	@Override
 	public void clear() {
-		root = new Node();
+		root = new Node(root.getConfiguration());
+	}
+
+	/**
+	 * Tries to find more efficient in-memory representations for each set segment
+	 */
+	public void compact() {
+		root.compact();
+	}
+
+	/**
+	 * Compacts the set with the given policy, such as {@link CompactionPolicy#MINIMUM_SIZE} for a
+	 * set which is not expected to be written again
+	 */
+	public void compact(CompactionPolicy policy) {
+		root.compact(policy);
 	}
 
 }
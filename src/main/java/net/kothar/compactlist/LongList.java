@@ -1,5 +1,9 @@
 package net.kothar.compactlist;
 
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
 public interface LongList {
 
 	int size();
@@ -15,4 +19,36 @@ public interface LongList {
 	default void addLong(long element) {
 		addLong(size(), element);
 	}
+
+	/**
+	 * Passes each element to the given action in order, without boxing
+	 */
+	default void forEachLong(LongConsumer action) {
+		for (int i = 0, size = size(); i < size; i++) {
+			action.accept(getLong(i));
+		}
+	}
+
+	/**
+	 * @return an iterator over the elements which does not box them
+	 */
+	default PrimitiveIterator.OfLong longIterator() {
+		return new PrimitiveIterator.OfLong() {
+
+			int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size();
+			}
+
+			@Override
+			public long nextLong() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getLong(index++);
+			}
+		};
+	}
 }
@@ -3,8 +3,13 @@ package net.kothar.compactlist;
 import java.io.Serializable;
 import java.util.AbstractList;
 import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
 
+import net.kothar.compactlist.internal.LongCursor;
 import net.kothar.compactlist.internal.Node;
+import net.kothar.compactlist.internal.TreeConfiguration;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
 
 /**
  * A sorted list of Longs. Values are sorted on insertion; as such, adding or setting a value at a
@@ -18,10 +23,20 @@ public class SortedCompactList extends AbstractList<Long> implements LongList, S
 
 	Node root;
 
+	/** Chooses how each segment is stored, or null to use the default policy */
+	transient CompactionPolicy compactionPolicy;
+
 	public SortedCompactList() {
 		root = new Node();
 	}
 
+	/**
+	 * Creates a list whose segment sizes are set by the given configuration
+	 */
+	public SortedCompactList(TreeConfiguration configuration) {
+		root = new Node(configuration);
+	}
+
 	@Override
 	public boolean add(Long e) {
 		addLong(e);
@@ -97,7 +112,32 @@ public class SortedCompactList extends AbstractList<Long> implements LongList, S
 	 * Tries to find more efficient in-memory representations for each list segment
 	 */
 	public void compact() {
-		root.compact();
+		root.compact(getCompactionPolicy());
+	}
+
+	/**
+	 * Compacts the list with the given policy, such as {@link CompactionPolicy#MINIMUM_SIZE} for a
+	 * list which is not expected to be written again
+	 */
+	public void compact(CompactionPolicy policy) {
+		root.compact(policy);
+	}
+
+	/**
+	 * @return the policy used to choose how each list segment is stored when compacting
+	 */
+	public CompactionPolicy getCompactionPolicy() {
+		return compactionPolicy != null ? compactionPolicy : CompactionPolicy.getDefault();
+	}
+
+	/**
+	 * Sets the policy used to choose how each list segment is stored when compacting
+	 * 
+	 * @param compactionPolicy
+	 *            The policy for this list, or null to use the default policy
+	 */
+	public void setCompactionPolicy(CompactionPolicy compactionPolicy) {
+		this.compactionPolicy = compactionPolicy;
 	}
 
 	/**
@@ -109,6 +149,31 @@ public class SortedCompactList extends AbstractList<Long> implements LongList, S
 		return root.iterator();
 	}
 
+	/**
+	 * Iterates over the elements without boxing them, moving directly from each list segment to the
+	 * next.
+	 */
+	@Override
+	public PrimitiveIterator.OfLong longIterator() {
+		return root.longIterator();
+	}
+
+	/**
+	 * Passes each element to the given action in order, reading each list segment directly rather
+	 * than looking up each index.
+	 */
+	@Override
+	public void forEachLong(LongConsumer action) {
+		root.forEachLong(action);
+	}
+
+	/**
+	 * @return a reusable cursor over the elements, positioned before the first
+	 */
+	public LongCursor cursor() {
+		return root.cursor();
+	}
+
 	/**
 	 * Locates the index of the given value.
 	 * 
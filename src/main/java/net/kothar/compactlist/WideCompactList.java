@@ -0,0 +1,26 @@
+package net.kothar.compactlist;
+
+import net.kothar.compactlist.internal.TreeConfiguration;
+import net.kothar.compactlist.internal.WideTree;
+
+/**
+ * A list of Longs with the same storage as {@link CompactList}, organised as a B+-tree with up to
+ * {@link WideTree#MAX_FANOUT} children per node. Random access to large lists passes through far
+ * fewer nodes than the binary tree used by {@link CompactList}. Compacting the list also merges
+ * runs of small adjacent segments.
+ */
+public class WideCompactList extends AbstractTreeList {
+
+	private static final long serialVersionUID = -1520978234120650293L;
+
+	public WideCompactList() {
+		super(new WideTree());
+	}
+
+	/**
+	 * Creates a list whose segment sizes and maintenance cycle are set by the given configuration
+	 */
+	public WideCompactList(TreeConfiguration configuration) {
+		super(new WideTree(configuration));
+	}
+}
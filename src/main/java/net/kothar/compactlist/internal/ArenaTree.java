@@ -0,0 +1,661 @@
+package net.kothar.compactlist.internal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.compaction.StorageAnalysis;
+import net.kothar.compactlist.internal.storage.ArrayStore;
+import net.kothar.compactlist.internal.storage.ConcatenatedStore;
+import net.kothar.compactlist.internal.storage.ConstantStore;
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A balanced binary tree with the same shape as a tree of {@link Node}s, whose node metadata is
+ * held in parallel arrays indexed by node id rather than in an object per node. The state of each
+ * leaf, including its place in the list of modified leaves, is held in the same arrays, so the
+ * only object per leaf is its store. The slots of nodes removed by merges are recycled through a
+ * free list threaded through the left child array.
+ * <p>
+ * Leaves do not keep running statistics, so each compaction analyses the leaf in full, and a
+ * leaf promoted to a wider store is scanned for its range.
+ */
+public class ArenaTree implements Tree, Serializable {
+
+	private static final long serialVersionUID = -4390187627561022793L;
+
+	/** Marks the absence of a child, or the end of the free list or list of modified leaves */
+	private static final int NONE = -1;
+
+	/** The root of the tree is always in the first slot */
+	private static final int ROOT = 0;
+
+	private static final int	ALLOCATION_BUFFER	= 16;
+	private static final float	EXPANSION_FACTOR	= 2;
+
+	private final TreeConfiguration	configuration;
+	private final int				targetLeafSize;
+	private final int				maxLeafSize;
+
+	int[]	sizes;
+	int[]	heights;
+	int[]	lefts;
+	int[]	rights;
+
+	/** The store of each leaf, or null for inner nodes and free slots */
+	Store[] stores;
+
+	/** The number of writes to each leaf since it was last compacted */
+	int[] modifications;
+
+	/** Set for leaves which are rarely read, and may be compressed */
+	boolean[] colds;
+
+	/** The policy each leaf was last compacted with, if it has not been replaced since */
+	transient CompactionPolicy[] compactedWith;
+
+	/** Links between the leaves modified since they were last compacted */
+	int[]	prevDirty;
+	int[]	nextDirty;
+
+	/** The least and most recently modified leaves, or {@link #NONE} */
+	int	dirtyHead	= NONE;
+	int	dirtyTail	= NONE;
+
+	/** The number of slots which have been used */
+	int	slots;
+	/** The first free slot, or {@link #NONE} */
+	int	free	= NONE;
+
+	/** Counts writes to the tree, so that cursors can tell when their leaf may have been replaced */
+	transient int version;
+
+	public ArenaTree() {
+		this(TreeConfiguration.DEFAULT);
+	}
+
+	ArenaTree(int targetLeafSize, int maxLeafSize) {
+		this(TreeConfiguration.DEFAULT.withLeafSizes(targetLeafSize, maxLeafSize));
+	}
+
+	/**
+	 * Creates a tree whose leaves are sized by the given configuration
+	 */
+	public ArenaTree(TreeConfiguration configuration) {
+		this.configuration = configuration;
+		this.targetLeafSize = configuration.getTargetLeafSize();
+		this.maxLeafSize = configuration.getMaxLeafSize();
+
+		sizes = new int[ALLOCATION_BUFFER];
+		heights = new int[ALLOCATION_BUFFER];
+		lefts = new int[ALLOCATION_BUFFER];
+		rights = new int[ALLOCATION_BUFFER];
+		stores = new Store[ALLOCATION_BUFFER];
+		modifications = new int[ALLOCATION_BUFFER];
+		colds = new boolean[ALLOCATION_BUFFER];
+		compactedWith = new CompactionPolicy[ALLOCATION_BUFFER];
+		prevDirty = new int[ALLOCATION_BUFFER];
+		nextDirty = new int[ALLOCATION_BUFFER];
+		markDirty(allocate(new LongArrayStore()));
+	}
+
+	/**
+	 * @return the id of a slot holding a new leaf node, which is not marked as modified
+	 */
+	private int allocate(Store store) {
+		int id;
+		if (free != NONE) {
+			id = free;
+			free = lefts[id];
+		} else {
+			if (slots == sizes.length) {
+				int capacity = (int) (slots * EXPANSION_FACTOR);
+				sizes = Arrays.copyOf(sizes, capacity);
+				heights = Arrays.copyOf(heights, capacity);
+				lefts = Arrays.copyOf(lefts, capacity);
+				rights = Arrays.copyOf(rights, capacity);
+				stores = Arrays.copyOf(stores, capacity);
+				modifications = Arrays.copyOf(modifications, capacity);
+				colds = Arrays.copyOf(colds, capacity);
+				compactedWith = Arrays.copyOf(compactedWith, capacity);
+				prevDirty = Arrays.copyOf(prevDirty, capacity);
+				nextDirty = Arrays.copyOf(nextDirty, capacity);
+			}
+			id = slots++;
+		}
+
+		sizes[id] = store.size();
+		heights[id] = 0;
+		lefts[id] = NONE;
+		rights[id] = NONE;
+		setLeaf(id, store);
+		prevDirty[id] = NONE;
+		nextDirty[id] = NONE;
+		return id;
+	}
+
+	/**
+	 * Makes a node a leaf holding the given store, which has not been compacted
+	 */
+	private void setLeaf(int id, Store store) {
+		stores[id] = store;
+		modifications[id] = 0;
+		colds[id] = false;
+		compactedWith[id] = null;
+	}
+
+	/**
+	 * Returns a slot to the free list
+	 */
+	private void free(int id) {
+		stores[id] = null;
+		compactedWith[id] = null;
+		rights[id] = NONE;
+		lefts[id] = free;
+		free = id;
+	}
+
+	/**
+	 * @return the number of slots holding nodes of the tree
+	 */
+	public int nodeCount() {
+		int count = slots;
+		for (int id = free; id != NONE; id = lefts[id]) {
+			count--;
+		}
+		return count;
+	}
+
+	private boolean isLeaf(int id) {
+		return lefts[id] == NONE;
+	}
+
+	private boolean isDirty(int id) {
+		return dirtyHead == id || prevDirty[id] != NONE;
+	}
+
+	/**
+	 * Moves a leaf to the end of the list of modified leaves
+	 */
+	private void markDirty(int id) {
+		removeDirty(id);
+		prevDirty[id] = dirtyTail;
+		if (dirtyTail != NONE) {
+			nextDirty[dirtyTail] = id;
+		} else {
+			dirtyHead = id;
+		}
+		dirtyTail = id;
+	}
+
+	private void removeDirty(int id) {
+		if (!isDirty(id)) {
+			return;
+		}
+		int prev = prevDirty[id], next = nextDirty[id];
+		if (prev != NONE) {
+			nextDirty[prev] = next;
+		} else {
+			dirtyHead = next;
+		}
+		if (next != NONE) {
+			prevDirty[next] = prev;
+		} else {
+			dirtyTail = prev;
+		}
+		prevDirty[id] = NONE;
+		nextDirty[id] = NONE;
+	}
+
+	@Override
+	public int version() {
+		return version;
+	}
+
+	@Override
+	public TreeConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	@Override
+	public int size() {
+		return sizes[ROOT];
+	}
+
+	@Override
+	public long getLong(int index) {
+		assert index < size() && index >= 0;
+
+		int id = ROOT;
+		while (!isLeaf(id)) {
+			int left = lefts[id];
+			if (index < sizes[left]) {
+				id = left;
+			} else {
+				index -= sizes[left];
+				id = rights[id];
+			}
+		}
+		return stores[id].getLong(index);
+	}
+
+	@Override
+	public long setLong(int index, long element) {
+		assert index < size() && index >= 0;
+		version++;
+
+		int id = ROOT;
+		while (!isLeaf(id)) {
+			int left = lefts[id];
+			if (index < sizes[left]) {
+				id = left;
+			} else {
+				index -= sizes[left];
+				id = rights[id];
+			}
+		}
+
+		if (!stores[id].inRange(index, element, true)) {
+			promote(id, element);
+		}
+		modifications[id]++;
+		return stores[id].setLong(index, element);
+	}
+
+	/**
+	 * Replaces the store of a leaf with a wider representation which can hold the given value
+	 */
+	private void promote(int id, long element) {
+		Store store = stores[id];
+		long[] range = { element, element };
+		store.forEachLong(value -> {
+			range[0] = Math.min(range[0], value);
+			range[1] = Math.max(range[1], value);
+		});
+
+		stores[id] = Segment.widen(store, range[0], range[1]);
+		store.release();
+		colds[id] = false;
+		markDirty(id);
+	}
+
+	@Override
+	public void addLong(int index, long element) {
+		assert index <= size() && index >= 0;
+
+		version++;
+		add(ROOT, index, element);
+	}
+
+	private void add(int id, int index, long element) {
+		if (isLeaf(id) && Segment.splitBefore(stores[id], index, element, targetLeafSize, maxLeafSize)) {
+			split(id, index);
+		}
+
+		if (isLeaf(id)) {
+			if (!stores[id].inRange(index, element, false)) {
+				promote(id, element);
+			}
+			stores[id].addLong(index, element);
+			modifications[id]++;
+			sizes[id]++;
+		} else {
+			int left = lefts[id], right = rights[id];
+			if (index > sizes[left] || (index == sizes[left] && sizes[right] == 0)) {
+				add(right, index - sizes[left], element);
+			} else {
+				add(left, index, element);
+			}
+			sizes[id]++;
+			balance(id);
+		}
+	}
+
+	@Override
+	public long removeLong(int index) {
+		assert index < size() && index >= 0;
+
+		version++;
+		return remove(ROOT, index);
+	}
+
+	private long remove(int id, int index) {
+		long oldValue;
+		if (isLeaf(id)) {
+			if (Segment.canRemove(stores[id], index)) {
+				oldValue = stores[id].removeLong(index);
+				modifications[id]++;
+			} else {
+				// Other leaves only support removal from either end
+				split(id, index + 1);
+				oldValue = remove(lefts[id], index);
+			}
+		} else if (index < sizes[lefts[id]]) {
+			oldValue = remove(lefts[id], index);
+		} else {
+			oldValue = remove(rights[id], index - sizes[lefts[id]]);
+		}
+
+		sizes[id]--;
+		if (!isLeaf(id) && sizes[id] == 0) {
+			releaseChildren(id);
+			setLeaf(id, new ConstantStore(0, 0));
+		} else {
+			balance(id);
+		}
+		return oldValue;
+	}
+
+	/**
+	 * Releases the nodes below an inner node, leaving it as an empty leaf slot
+	 */
+	private void releaseChildren(int id) {
+		descendants(id, child -> {
+			if (isLeaf(child)) {
+				stores[child].release();
+				removeDirty(child);
+			}
+			free(child);
+		});
+		lefts[id] = NONE;
+		rights[id] = NONE;
+		heights[id] = 0;
+	}
+
+	/**
+	 * Visits every node below the given node, children before their parents
+	 */
+	private void descendants(int id, IntConsumer consumer) {
+		if (!isLeaf(id)) {
+			int left = lefts[id], right = rights[id];
+			descendants(left, consumer);
+			consumer.accept(left);
+			descendants(right, consumer);
+			consumer.accept(right);
+		}
+	}
+
+	/**
+	 * Splits a leaf into two children. A child holding the whole store keeps the state of the
+	 * leaf, and a new empty child is marked as modified.
+	 */
+	private void split(int id, int pivot) {
+		Store store = stores[id];
+		int size = store.size();
+		Store left, right;
+		if (pivot == size) {
+			left = store;
+			right = new LongArrayStore();
+		} else if (pivot == 0) {
+			left = new LongArrayStore();
+			right = store;
+		} else {
+			Store[] split = store.split(pivot);
+			left = split[0];
+			right = split[1];
+		}
+
+		// Allocation may replace the arrays, so must happen before they are written
+		int leftId = allocate(left);
+		int rightId = allocate(right);
+		if (pivot == size) {
+			inherit(leftId, id);
+			markDirty(rightId);
+		} else if (pivot == 0) {
+			markDirty(leftId);
+			inherit(rightId, id);
+		} else {
+			colds[leftId] = colds[rightId] = colds[id];
+			if (isDirty(id)) {
+				markDirty(leftId);
+				markDirty(rightId);
+			}
+		}
+
+		removeDirty(id);
+		stores[id] = null;
+		compactedWith[id] = null;
+		lefts[id] = leftId;
+		rights[id] = rightId;
+		heights[id] = 1;
+	}
+
+	/**
+	 * Takes the state of a leaf whose store has been moved unchanged to another slot
+	 */
+	private void inherit(int id, int leaf) {
+		modifications[id] = modifications[leaf];
+		colds[id] = colds[leaf];
+		compactedWith[id] = compactedWith[leaf];
+		if (isDirty(leaf)) {
+			markDirty(id);
+		}
+	}
+
+	private void balance(int id) {
+		if (isLeaf(id)) {
+			return;
+		}
+
+		while (heights[rights[id]] - heights[lefts[id]] > 1) {
+			// Rotate left
+			int alpha = lefts[id], pivot = rights[id], beta = lefts[pivot], gamma = rights[pivot];
+			lefts[id] = pivot;
+			lefts[pivot] = alpha;
+			rights[pivot] = beta;
+			rights[id] = gamma;
+
+			update(pivot);
+		}
+
+		while (heights[lefts[id]] - heights[rights[id]] > 1) {
+			// Rotate right
+			int pivot = lefts[id], alpha = lefts[pivot], beta = rights[pivot], gamma = rights[id];
+			rights[id] = pivot;
+			lefts[id] = alpha;
+			lefts[pivot] = beta;
+			rights[pivot] = gamma;
+
+			update(pivot);
+		}
+
+		heights[id] = Math.max(heights[lefts[id]], heights[rights[id]]) + 1;
+		assert sizes[id] == sizes[lefts[id]] + sizes[rights[id]];
+	}
+
+	private void update(int id) {
+		heights[id] = Math.max(heights[lefts[id]], heights[rights[id]]) + 1;
+		sizes[id] = sizes[lefts[id]] + sizes[rights[id]];
+	}
+
+	@Override
+	public void maintain(CompactionPolicy policy) {
+		version++;
+		if (dirtyHead != NONE) {
+			compactLeaf(dirtyHead, policy.forMaintenance());
+		}
+	}
+
+	public void compact() {
+		compact(CompactionPolicy.getDefault());
+	}
+
+	@Override
+	public void compact(CompactionPolicy policy) {
+		version++;
+		compact(ROOT, policy);
+	}
+
+	private void compact(int id, CompactionPolicy policy) {
+		if (isLeaf(id)) {
+			compactLeaf(id, policy);
+		} else if (sizes[id] <= targetLeafSize) {
+			merge(id, policy);
+		} else {
+			compact(lefts[id], policy);
+			compact(rights[id], policy);
+			balance(id);
+		}
+	}
+
+	/**
+	 * Tries to find a more efficient in-memory representation for a leaf
+	 */
+	private void compactLeaf(int id, CompactionPolicy policy) {
+		removeDirty(id);
+
+		Store store = stores[id];
+		if (store.isEmpty()) {
+			// Edge case where all elements have been removed from a leaf
+			store.release();
+			stores[id] = new ConstantStore(0, 0);
+			return;
+		}
+		if (compactedWith[id] == policy && modifications[id] == 0 && !Segment.isRetaining(store)) {
+			// Unchanged since last compacted
+			return;
+		}
+
+		Store encoded = Segment.encode(store, new StorageAnalysis(store), policy, colds[id]);
+		if (encoded != store) {
+			store.release();
+			stores[id] = encoded;
+		}
+		if (Segment.isRetaining(encoded)) {
+			// No better encoding was found, but a much larger shared array can be freed
+			((ArrayStore<?>) encoded).trim();
+		}
+		modifications[id] = 0;
+		compactedWith[id] = policy;
+	}
+
+	/**
+	 * Merges the leaves below a node into a single leaf, analysing and encoding their values
+	 * directly from their existing stores
+	 */
+	private void merge(int id, CompactionPolicy policy) {
+		int[] count = new int[1];
+		walk(id, leaf -> count[0]++);
+		int[] leaves = new int[count[0]];
+		count[0] = 0;
+		walk(id, leaf -> leaves[count[0]++] = leaf);
+
+		Store[] parts = new Store[leaves.length];
+		boolean cold = true;
+		for (int i = 0; i < leaves.length; i++) {
+			parts[i] = stores[leaves[i]];
+			cold &= colds[leaves[i]];
+		}
+		Store merged = new ConcatenatedStore(parts);
+		Store encoded = merged.isEmpty() ? merged : Segment.encode(merged, new StorageAnalysis(merged), policy, cold);
+		encoded = Segment.merge(merged, encoded);
+
+		for (int leaf : leaves) {
+			stores[leaf].release();
+			removeDirty(leaf);
+		}
+		descendants(id, this::free);
+		lefts[id] = NONE;
+		rights[id] = NONE;
+		heights[id] = 0;
+		setLeaf(id, encoded);
+		colds[id] = cold;
+		compactedWith[id] = policy;
+	}
+
+	@Override
+	public void archive(CompactionPolicy policy) {
+		version++;
+		walk(ROOT, id -> {
+			if (!colds[id]) {
+				colds[id] = true;
+				compactedWith[id] = null;
+			}
+		});
+		compact(policy);
+	}
+
+	@Override
+	public void walk(Consumer<Store> leafConsumer) {
+		walk(ROOT, id -> leafConsumer.accept(stores[id]));
+	}
+
+	/**
+	 * Visits the id of each leaf below a node in list order
+	 */
+	private void walk(int id, IntConsumer leafConsumer) {
+		if (isLeaf(id)) {
+			leafConsumer.accept(id);
+		} else {
+			walk(lefts[id], leafConsumer);
+			walk(rights[id], leafConsumer);
+		}
+	}
+
+	@Override
+	public int searchLong(long value) {
+		return search(ROOT, value);
+	}
+
+	private int search(int id, long value) {
+		if (isLeaf(id)) {
+			return stores[id].searchLong(value);
+		}
+
+		int left = lefts[id], right = rights[id];
+		if (sizes[right] > 0 && first(right) <= value) {
+			int index = search(right, value);
+			index += index < 0 ? -sizes[left] : sizes[left];
+			return index;
+		} else if (sizes[left] > 0) {
+			return search(left, value);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the first value below a non-empty node
+	 */
+	private long first(int id) {
+		while (!isLeaf(id)) {
+			id = sizes[lefts[id]] > 0 ? lefts[id] : rights[id];
+		}
+		return stores[id].getLong(0);
+	}
+
+	@Override
+	public Store locate(int index, int[] start) {
+		int id = ROOT;
+		start[0] = index;
+		while (!isLeaf(id)) {
+			int left = lefts[id];
+			if (index < sizes[left]) {
+				id = left;
+			} else {
+				index -= sizes[left];
+				id = rights[id];
+			}
+		}
+		start[0] -= index;
+		return stores[id];
+	}
+
+	/**
+	 * Recreates the policies leaves were compacted with, which are not serialized, so that every
+	 * leaf is compacted again
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		compactedWith = new CompactionPolicy[sizes.length];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ArenaTree: height %d, size %d, %d nodes", heights[ROOT], size(), nodeCount());
+	}
+}
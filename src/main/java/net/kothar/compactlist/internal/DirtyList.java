@@ -1,8 +1,36 @@
 package net.kothar.compactlist.internal;
 
-public class DirtyList {
+import java.io.Serializable;
+
+public class DirtyList implements Serializable {
+
+	private static final long serialVersionUID = 2741203389510046337L;
 
 	public Node	tail;
 	public Node	head;
 
+	/**
+	 * Incremented whenever a leaf of the tree sharing this list is added, removed or resized, so
+	 * that cached leaf positions can be checked
+	 */
+	public int structureVersion;
+
+	/** The generation of the tree, which is replaced each time a snapshot of the tree is taken */
+	Node.Generation generation = new Node.Generation();
+
+	/** Sizes the leaves of the tree */
+	final TreeConfiguration configuration;
+
+	/** The current target leaf size, which may drift from the configured one in adaptive mode */
+	int targetLeafSize;
+
+	public DirtyList() {
+		this(TreeConfiguration.DEFAULT);
+	}
+
+	public DirtyList(TreeConfiguration configuration) {
+		this.configuration = configuration;
+		this.targetLeafSize = configuration.getTargetLeafSize();
+	}
+
 }
@@ -0,0 +1,76 @@
+package net.kothar.compactlist.internal;
+
+/**
+ * Remembers the leaf of a tree which was last accessed by index, and the index of its first
+ * element. Accesses within the same leaf or one of its neighbours are resolved without descending
+ * from the root. The finger is discarded whenever the leaves of the tree change.
+ */
+public class Finger {
+
+	private final Node root;
+
+	private Node	leaf;
+	private int		start;
+	private int		version;
+
+	public Finger(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * @return the leaf containing the given index, with {@link #start} set to the index of its
+	 *         first element
+	 */
+	private Node locate(int index) {
+		if (leaf != null && version == root.dirtyList.structureVersion) {
+			int offset = index - start;
+			if (offset >= 0) {
+				if (offset < leaf.size) {
+					return leaf;
+				}
+				Node next = leaf.nextLeaf;
+				if (next != null && offset < leaf.size + next.size) {
+					start += leaf.size;
+					leaf = next;
+					return leaf;
+				}
+			} else {
+				Node previous = leaf.prevLeaf;
+				if (previous != null && offset >= -previous.size) {
+					start -= previous.size;
+					leaf = previous;
+					return leaf;
+				}
+			}
+		}
+
+		// Descend from the root
+		Node node = root;
+		start = 0;
+		while (node.left != null) {
+			if (index - start < node.left.size) {
+				node = node.left;
+			} else {
+				start += node.left.size;
+				node = node.right;
+			}
+		}
+		leaf = node;
+		version = root.dirtyList.structureVersion;
+		return leaf;
+	}
+
+	public long getLong(int index) {
+		return locate(index).elements.getLong(index - start);
+	}
+
+	public long setLong(int index, long element) {
+		Node node = locate(index);
+		if (node.isShared()) {
+			// Copy the path to the leaf, which replaces it in the tree
+			leaf = null;
+			return root.setLong(index, element);
+		}
+		return node.setLong(index - start, element);
+	}
+}
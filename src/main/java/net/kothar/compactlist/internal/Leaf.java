@@ -0,0 +1,187 @@
+package net.kothar.compactlist.internal;
+
+import java.util.Set;
+
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.compaction.LeafStatistics;
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A segment of a list held in a single store, for a {@link WideTree}.
+ * Leaves which have been modified since they were last compacted are kept in a set shared by the
+ * tree, in the order they were modified.
+ */
+public class Leaf extends Segment {
+
+	private static final long serialVersionUID = -6012398534927810411L;
+
+	final Set<Leaf> dirtyLeaves;
+
+	Leaf(Set<Leaf> dirtyLeaves) {
+		this(dirtyLeaves, new LongArrayStore(), true);
+	}
+
+	Leaf(Set<Leaf> dirtyLeaves, Store elements, boolean dirty) {
+		this.dirtyLeaves = dirtyLeaves;
+		this.elements = elements;
+		this.statistics = new LeafStatistics(elements);
+		if (dirty) {
+			markDirty();
+		}
+	}
+
+	@Override
+	void markDirty() {
+		// Move to the end of the set
+		dirtyLeaves.remove(this);
+		dirtyLeaves.add(this);
+	}
+
+	@Override
+	void removeDirty() {
+		dirtyLeaves.remove(this);
+	}
+
+	boolean isDirty() {
+		return dirtyLeaves.contains(this);
+	}
+
+	public int size() {
+		return elements.size();
+	}
+
+	public Store getStorage() {
+		return elements;
+	}
+
+	long getLong(int index) {
+		return elements.getLong(index);
+	}
+
+	long setLong(int index, long element) {
+		return setElement(index, element);
+	}
+
+	void addLong(int index, long element) {
+		addElement(index, element);
+	}
+
+	/**
+	 * @return true if the value at the given index can be removed without splitting the leaf
+	 */
+	boolean canRemove(int index) {
+		return canRemove(elements, index);
+	}
+
+	long removeLong(int index) {
+		return removeElement(index);
+	}
+
+	/**
+	 * @return true if the leaf should be split before the value is inserted
+	 */
+	boolean splitBefore(int index, long element, int targetLeafSize, int maxLeafSize) {
+		return splitBefore(elements, index, element, targetLeafSize, maxLeafSize);
+	}
+
+	/**
+	 * Splits the leaf, keeping the elements before the pivot
+	 *
+	 * @return A new leaf holding the elements from the pivot onwards
+	 */
+	Leaf split(int pivot) {
+		boolean dirty = isDirty();
+		Leaf right;
+		if (pivot == size()) {
+			right = new Leaf(dirtyLeaves);
+		} else if (pivot == 0) {
+			right = new Leaf(dirtyLeaves, elements, dirty);
+			right.cold = cold;
+			right.statistics = statistics;
+			right.compactedWith = compactedWith;
+
+			elements = new LongArrayStore();
+			statistics = new LeafStatistics(elements);
+			cold = false;
+			compactedWith = null;
+			markDirty();
+		} else {
+			Store[] splitElements = elements.split(pivot);
+			elements = splitElements[0];
+			statistics = new LeafStatistics(elements);
+			compactedWith = null;
+
+			right = new Leaf(dirtyLeaves, splitElements[1], dirty);
+			right.cold = cold;
+		}
+		return right;
+	}
+
+	void release() {
+		elements.release();
+		removeDirty();
+	}
+
+	/**
+	 * Merges adjacent leaves into a single leaf. Their values are analysed and encoded directly
+	 * from their existing stores, and the merged leaves are released.
+	 *
+	 * @param leaves
+	 *            An array of leaves in list order
+	 * @param from
+	 *            The index of the first leaf to merge
+	 * @param to
+	 *            The index after the last leaf to merge
+	 * @param policy
+	 *            Chooses the representation for the merged leaf
+	 */
+	static Leaf merge(Object[] leaves, int from, int to, CompactionPolicy policy) {
+		Store[] parts = new Store[to - from];
+		boolean cold = true;
+		for (int i = from; i < to; i++) {
+			Leaf leaf = (Leaf) leaves[i];
+			parts[i - from] = leaf.elements;
+			cold &= leaf.cold;
+		}
+
+		Leaf first = (Leaf) leaves[from];
+		Leaf leaf = new Leaf(first.dirtyLeaves, new LongArrayStore(), false);
+		leaf.cold = cold;
+		leaf.mergeElements(parts, policy);
+
+		for (int i = from; i < to; i++) {
+			((Leaf) leaves[i]).release();
+		}
+		return leaf;
+	}
+
+	/**
+	 * Tries to find a more efficient in-memory representation for the leaf
+	 *
+	 * @param policy
+	 *            Chooses the representation for the leaf
+	 */
+	void compact(CompactionPolicy policy) {
+		try {
+			compactElements(policy);
+		} finally {
+			removeDirty();
+		}
+	}
+
+	/**
+	 * Marks the leaf as rarely read, so that it may be compressed when next compacted
+	 */
+	void archive() {
+		if (!cold) {
+			cold = true;
+			compactedWith = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Leaf: size %d, elements %s", size(), elements);
+	}
+}
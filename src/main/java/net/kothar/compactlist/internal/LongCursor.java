@@ -0,0 +1,79 @@
+package net.kothar.compactlist.internal;
+
+/**
+ * Steps through the elements of a tree without boxing them, in the style of
+ * <code>while (cursor.next()) { ... cursor.value() ... }</code>. The cursor remembers the leaf it
+ * last read, and finds the next leaf from there where the tree allows it. A cursor can be reused
+ * for further scans by moving it with {@link #seek(int)}.
+ * <p>
+ * The cursor reads the tree as it is when each element is visited, so elements inserted or
+ * removed before the cursor shift the elements it visits next.
+ */
+public abstract class LongCursor {
+
+	private int		index	= -1;
+	private long	value;
+
+	/**
+	 * @return the number of elements in the tree
+	 */
+	protected abstract int size();
+
+	/**
+	 * @return the element at the given index, which is within the tree
+	 */
+	protected abstract long read(int index);
+
+	/**
+	 * Moves to the next element
+	 *
+	 * @return true if there was a next element, false if the cursor has passed the last element
+	 */
+	public boolean next() {
+		int next = index + 1;
+		int size = size();
+		if (next >= size) {
+			index = size;
+			return false;
+		}
+
+		value = read(next);
+		index = next;
+		return true;
+	}
+
+	/**
+	 * @return the element the cursor is on
+	 */
+	public long value() {
+		if (index < 0 || index >= size()) {
+			throw new IllegalStateException("Cursor is not on an element: " + index);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the index of the element the cursor is on, -1 before the first element, or the size
+	 *         of the tree after the last
+	 */
+	public int index() {
+		return index;
+	}
+
+	/**
+	 * Positions the cursor so that the next call to {@link #next()} moves to the given index
+	 */
+	public void seek(int index) {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		this.index = index - 1;
+	}
+
+	/**
+	 * Positions the cursor before the first element
+	 */
+	public void reset() {
+		seek(0);
+	}
+}
@@ -1,48 +1,72 @@
 package net.kothar.compactlist.internal;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.kothar.compactlist.LongList;
-import net.kothar.compactlist.internal.compaction.StorageAnalysis;
-import net.kothar.compactlist.internal.storage.ByteArrayStore;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.compaction.LeafStatistics;
+import net.kothar.compactlist.internal.storage.ArrayStore;
+import net.kothar.compactlist.internal.storage.CompactStore;
+import net.kothar.compactlist.internal.storage.ConcatenatedStore;
 import net.kothar.compactlist.internal.storage.ConstantStore;
-import net.kothar.compactlist.internal.storage.IntArrayStore;
 import net.kothar.compactlist.internal.storage.LongArrayStore;
-import net.kothar.compactlist.internal.storage.ShortArrayStore;
 import net.kothar.compactlist.internal.storage.Store;
 
-public class Node implements Iterable<Long>, LongList, Serializable {
+public class Node extends Segment implements Iterable<Long>, LongList {
 
 	private static final long serialVersionUID = 3418582865627235043L;
 
 	private static final Logger		log		= LoggerFactory.getLogger(Node.class);
 	private static final boolean	trace	= log.isTraceEnabled();
 
-	private static final int	TARGET_LEAF_SIZE	= (1 << 16) - 1;
-	private static final int	MAX_LEAF_SIZE		= 1 << 20;
-
 	protected int	size;
-	protected Store	elements;
 	protected Node	left, right;
 	protected int	height;
 
+	/** The adjacent leaves in list order, which may belong to other subtrees */
+	transient Node prevLeaf, nextLeaf;
+
 	boolean		dirty;
 	DirtyList	dirtyList;
 	Node		prevDirty;
 	Node		nextDirty;
 
+	/**
+	 * The generation of the tree this node was created or copied in. Nodes from an earlier
+	 * generation may be shared with a snapshot, and are copied before they are written.
+	 */
+	Generation generation;
+
+	/**
+	 * Identifies a generation of a tree. Generations are compared by identity, so they are never
+	 * confused between trees.
+	 */
+	static final class Generation implements Serializable {
+		private static final long serialVersionUID = 5217032954846401923L;
+	}
+
 	public Node() {
 		this(new DirtyList());
 	}
 
+	public Node(TreeConfiguration configuration) {
+		this(new DirtyList(configuration));
+	}
+
 	protected Node(DirtyList dirtyList) {
 		this(dirtyList, new LongArrayStore());
 	}
@@ -51,16 +75,30 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 		this(dirtyList, elements, true);
 	}
 
+	/**
+	 * Creates an inner node joining two subtrees
+	 */
+	private Node(Node left, Node right) {
+		this.dirtyList = left.dirtyList;
+		this.generation = dirtyList.generation;
+		this.left = left;
+		this.right = right;
+		update();
+	}
+
 	public Node(DirtyList dirtyList, Store elements, boolean dirty) {
 		this.dirtyList = dirtyList;
+		this.generation = dirtyList.generation;
 		this.elements = elements;
 		this.size = elements.size();
+		this.statistics = new LeafStatistics(elements);
 		if (dirty) {
 			markDirty();
 		}
 	}
 
-	private void markDirty() {
+	@Override
+	void markDirty() {
 		// Remove if already in list
 		removeDirty();
 
@@ -73,7 +111,8 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 		dirty = true;
 	}
 
-	private void removeDirty() {
+	@Override
+	void removeDirty() {
 		if (!dirty) {
 			return;
 		}
@@ -92,16 +131,130 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 		dirty = false;
 	}
 
+	/**
+	 * Grows by the configured factor before the store has to reallocate
+	 */
+	@Override
+	void grow() {
+		elements.reserve(dirtyList.configuration.grownCapacity(size));
+	}
+
 	public void maintain() {
+		maintain(CompactionPolicy.getDefault());
+	}
+
+	/**
+	 * Compacts the least recently modified leaf, without using sealed strategies
+	 * 
+	 * @see CompactionPolicy#forMaintenance()
+	 */
+	public void maintain(CompactionPolicy policy) {
+		// Leaves shared with a snapshot are left until they are next written
+		while (dirtyList.head != null && dirtyList.head.isShared()) {
+			dirtyList.head.removeDirty();
+		}
 		if (dirtyList.head != null) {
-			dirtyList.head.compact();
+			dirtyList.head.compact(policy.forMaintenance());
 		}
 	}
 
+	/**
+	 * @return the configuration of the tree this node belongs to
+	 */
+	public TreeConfiguration getConfiguration() {
+		return dirtyList.configuration;
+	}
+
+	/**
+	 * Adjusts the target leaf size of the tree, if it is adaptive, to suit the operations seen since
+	 * it was last adjusted
+	 * 
+	 * @see TreeConfiguration#adaptTargetLeafSize(int, long, long)
+	 */
+	public void adapt(long inserts, long reads) {
+		dirtyList.targetLeafSize = dirtyList.configuration.adaptTargetLeafSize(dirtyList.targetLeafSize, inserts, reads);
+	}
+
+	/**
+	 * @return the leaf size currently targeted by the tree
+	 */
+	public int getTargetLeafSize() {
+		return dirtyList.targetLeafSize;
+	}
+
 	private boolean isLeaf() {
 		return left == null;
 	}
 
+	/**
+	 * @return true if this node may be shared with a snapshot, and must not be modified
+	 */
+	boolean isShared() {
+		return generation != dirtyList.generation;
+	}
+
+	/**
+	 * @return this node, or a copy of it owned by the current generation if it may be shared with
+	 *         a snapshot. A copied leaf takes the place of this one in the chain of leaves.
+	 */
+	private Node writable() {
+		if (!isShared()) {
+			return this;
+		}
+		if (!isLeaf()) {
+			return new Node(left, right);
+		}
+
+		Node copy = new Node(dirtyList, copyElements(), true);
+		copy.cold = cold;
+		copy.prevLeaf = prevLeaf;
+		copy.nextLeaf = nextLeaf;
+		if (prevLeaf != null) {
+			prevLeaf.nextLeaf = copy;
+		}
+		if (nextLeaf != null) {
+			nextLeaf.prevLeaf = copy;
+		}
+		removeDirty();
+		dirtyList.structureVersion++;
+		return copy;
+	}
+
+	/**
+	 * @return a writable copy of the elements of this leaf, in the narrowest array store which
+	 *         holds them
+	 */
+	private Store copyElements() {
+		if (elements.isEmpty()) {
+			return new LongArrayStore();
+		}
+		return CompactStore.promote(elements, statistics.min(elements), statistics.max(elements));
+	}
+
+	/**
+	 * Takes a snapshot of the tree below this node, which must be the root of its tree. The nodes
+	 * of the tree are shared with the snapshot, and are copied along the path to each write made
+	 * after this call. If the root is a leaf, its elements are copied immediately.
+	 * 
+	 * @return the root of a tree which must only be read
+	 */
+	public Node snapshot() {
+		Node snapshot;
+		if (isLeaf()) {
+			snapshot = new Node(dirtyList, elements, false);
+			snapshot.cold = cold;
+			elements = copyElements();
+			compactedWith = null;
+			markDirty();
+		} else {
+			snapshot = new Node(left, right);
+		}
+
+		dirtyList.generation = new Generation();
+		generation = dirtyList.generation;
+		return snapshot;
+	}
+
 	@Override
 	public int size() {
 		return size;
@@ -129,21 +282,16 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 	public long setLong(int index, long element) {
 		assert index < size && index >= 0;
 
-		// Replace with non-compact representation if out of range
-		// TODO evaluate storage range
-		if (isLeaf() && !elements.inRange(element)) {
-			elements = new LongArrayStore(elements);
-			markDirty();
-		}
-
-		// Leaf
 		if (isLeaf()) {
-			return elements.setLong(index, element);
+			// Leaf
+			return setElement(index, element);
 		} else if (index < left.size) {
 			// Left branch
+			left = left.writable();
 			return left.setLong(index, element);
 		} else {
 			// Right branch
+			right = right.writable();
 			return right.setLong(index - left.size, element);
 		}
 	}
@@ -158,31 +306,15 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 		}
 
 		// Split
-		if (isLeaf()
-			&& size >= TARGET_LEAF_SIZE
-			&& (index < size // Insert
-				|| size >= MAX_LEAF_SIZE // Too big
-				|| !elements.inRange(element) // Out of range
-				|| elements.capacity() == 0 // Allocation required
-			)) {
+		if (splitBefore(elements, index, element, dirtyList.targetLeafSize, dirtyList.configuration.getMaxLeafSize())) {
 			split(index);
 		}
 
 		if (isLeaf()) {
 			// Leaf
-			// Replace with non-compact representation if out of range
-			// TODO perform storage analysis
-			if (!elements.inRange(element)) {
-				LongArrayStore newElements = new LongArrayStore(size + 1);
-				newElements.copy(elements, 0, 0, index);
-				newElements.set(index, element);
-				newElements.copy(elements, index + 1, index, size - index);
-				elements = newElements;
-				markDirty();
-			} else {
-				elements.addLong(index, element);
-			}
+			addElement(index, element);
 			size++;
+			dirtyList.structureVersion++;
 		} else {
 			addChild(index, element);
 		}
@@ -191,9 +323,11 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 	private void addChild(int index, long element) {
 		if (index > left.size || (index == left.size && right.size == 0)) {
 			// Right branch
+			right = right.writable();
 			right.addLong(index - left.size, element);
 		} else {
 			// Left branch
+			left = left.writable();
 			left.addLong(index, element);
 		}
 		size++;
@@ -206,32 +340,259 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 
 		long oldValue;
 		if (isLeaf()) {
-			if (index == 0 || index == size - 1) {
-				oldValue = elements.removeLong(index);
+			if (canRemove(elements, index)) {
+				oldValue = removeElement(index);
+				dirtyList.structureVersion++;
 			} else {
 				split(index + 1);
 				oldValue = left.removeLong(index);
 			}
 		} else if (index < left.size) {
 			// Left branch
+			left = left.writable();
 			oldValue = left.removeLong(index);
 		} else {
 			// Right branch
+			right = right.writable();
 			oldValue = right.removeLong(index - left.size);
 		}
 
 		size--;
 		if (!isLeaf() && size == 0) {
+			replaceLeaves();
 			release();
 			elements = new ConstantStore(0, 0);
+			statistics = new LeafStatistics(elements);
 			height = 0;
 		} else {
+			underflow();
 			balance();
 		}
 		return oldValue;
 	}
 
+	/**
+	 * @return the size below which a leaf is merged with its neighbour
+	 */
+	private int minLeafSize() {
+		return dirtyList.configuration.minLeafSize(dirtyList.targetLeafSize);
+	}
+
+	/**
+	 * Merges a leaf child which has fallen below the minimum fill with its neighbour, or moves
+	 * elements from its neighbour into it if the two would not fit in one leaf
+	 * 
+	 * @return true if the tree below this node was changed
+	 */
+	private boolean underflow() {
+		if (isLeaf()) {
+			return false;
+		}
+		int min = minLeafSize();
+		boolean leftUnderflow = left.isLeaf() && left.size < min;
+		if (!leftUnderflow && !(right.isLeaf() && right.size < min)) {
+			return false;
+		}
+
+		Node leaf = leftUnderflow ? left : right;
+		Node sibling = leftUnderflow ? right : left;
+		if (leaf.size == 0) {
+			// Drop the empty leaf
+			leaf.unlink();
+			leaf.release();
+			become(sibling.writable());
+		} else if (sibling.isLeaf() && size <= dirtyList.targetLeafSize) {
+			// Merge both leaves into this node
+			Store merged = CompactStore.copyOf(new ConcatenatedStore(new Store[] { left.elements, right.elements }), 0, size);
+			replaceLeaves();
+			release();
+			elements = merged;
+			statistics = new LeafStatistics(merged);
+			height = 0;
+			cold = false;
+			compactedWith = null;
+			markDirty();
+			dirtyList.structureVersion++;
+		} else {
+			leaf = leaf.writable();
+			sibling = sibling.writable();
+			if (sibling.absorb(leaf, leftUnderflow)) {
+				leaf.unlink();
+				leaf.release();
+				become(sibling);
+			} else if (leftUnderflow) {
+				left = leaf;
+				right = sibling;
+			} else {
+				left = sibling;
+				right = leaf;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Combines a leaf adjacent to this subtree with the nearest leaf of the subtree. The two are
+	 * merged if they fit in a leaf of the target size, otherwise their elements are divided evenly
+	 * between them.
+	 * 
+	 * @param leaf
+	 *            The leaf to combine, which is not part of this subtree
+	 * @param before
+	 *            true if the leaf lies before this subtree
+	 * @return true if the leaf was merged into this subtree, and should be removed from the tree
+	 */
+	private boolean absorb(Node leaf, boolean before) {
+		if (!isLeaf()) {
+			Node child;
+			if (before) {
+				child = left = left.writable();
+			} else {
+				child = right = right.writable();
+			}
+			int childSize = child.size;
+			boolean merged = child.absorb(leaf, before);
+			size += child.size - childSize;
+			return merged;
+		}
+
+		Node first = before ? leaf : this, second = before ? this : leaf;
+		int total = first.size + second.size;
+		Store view = new ConcatenatedStore(new Store[] { first.elements, second.elements });
+		if (total <= dirtyList.targetLeafSize) {
+			replaceElements(CompactStore.copyOf(view, 0, total));
+			return true;
+		}
+
+		Store head = CompactStore.copyOf(view, 0, total / 2);
+		Store tail = CompactStore.copyOf(view, total / 2, total);
+		first.replaceElements(head);
+		second.replaceElements(tail);
+		return false;
+	}
+
+	/**
+	 * Replaces the elements of this leaf with a new store
+	 */
+	private void replaceElements(Store newElements) {
+		elements.release();
+		elements = newElements;
+		size = newElements.size();
+		statistics = new LeafStatistics(newElements);
+		cold = false;
+		compactedWith = null;
+		markDirty();
+		dirtyList.structureVersion++;
+	}
+
+	/**
+	 * Removes this leaf from the chain of leaves
+	 */
+	private void unlink() {
+		if (prevLeaf != null) {
+			prevLeaf.nextLeaf = nextLeaf;
+		}
+		if (nextLeaf != null) {
+			nextLeaf.prevLeaf = prevLeaf;
+		}
+		prevLeaf = null;
+		nextLeaf = null;
+		dirtyList.structureVersion++;
+	}
+
+	/**
+	 * Takes the place of another node, which must not be used afterwards
+	 */
+	private void become(Node node) {
+		left = node.left;
+		right = node.right;
+		size = node.size;
+		height = node.height;
+		elements = node.elements;
+		statistics = node.statistics;
+		cold = node.cold;
+		compactedWith = node.compactedWith;
+		if (node.isLeaf()) {
+			prevLeaf = node.prevLeaf;
+			nextLeaf = node.nextLeaf;
+			if (prevLeaf != null) {
+				prevLeaf.nextLeaf = this;
+			}
+			if (nextLeaf != null) {
+				nextLeaf.prevLeaf = this;
+			}
+			if (node.dirty) {
+				node.removeDirty();
+				markDirty();
+			}
+		}
+		dirtyList.structureVersion++;
+	}
+
+	public void defragment() {
+		defragment(CompactionPolicy.getDefault());
+	}
+
+	/**
+	 * Rebuilds the tree below this node, which must be the root of its tree, as a balanced tree of
+	 * evenly filled leaves no larger than the target leaf size. Each new leaf is compacted as it is
+	 * built, and the old leaves are released as soon as their elements have been copied.
+	 * 
+	 * @param policy
+	 *            Chooses the representation for each leaf
+	 */
+	public void defragment(CompactionPolicy policy) {
+		ArrayList<Node> oldLeaves = new ArrayList<>();
+		walk(oldLeaves::add);
+		Store[] parts = new Store[oldLeaves.size()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = oldLeaves.get(i).elements;
+		}
+		Store view = new ConcatenatedStore(parts);
+
+		int count = Math.max(1, (size + dirtyList.targetLeafSize - 1) / dirtyList.targetLeafSize);
+		Node[] leaves = new Node[count];
+		int released = 0, releasedEnd = 0;
+		for (int i = 0; i < count; i++) {
+			int from = (int) ((long) size * i / count);
+			int to = (int) ((long) size * (i + 1) / count);
+			leaves[i] = new Node(dirtyList, CompactStore.copyOf(view, from, to), true);
+			leaves[i].compact(policy);
+			if (i > 0) {
+				leaves[i - 1].nextLeaf = leaves[i];
+				leaves[i].prevLeaf = leaves[i - 1];
+			}
+
+			// Release the old leaves which have been copied
+			while (released < oldLeaves.size() && releasedEnd + parts[released].size() <= to) {
+				Node leaf = oldLeaves.get(released++);
+				releasedEnd += leaf.size;
+				if (!leaf.isShared()) {
+					leaf.elements.release();
+				}
+				leaf.removeDirty();
+			}
+		}
+
+		become(build(leaves, 0, count));
+	}
+
+	/**
+	 * @return the root of a balanced tree over a range of leaves
+	 */
+	private static Node build(Node[] leaves, int from, int to) {
+		if (to - from == 1) {
+			return leaves[from];
+		}
+		int mid = (from + to) >>> 1;
+		return new Node(build(leaves, from, mid), build(leaves, mid, to));
+	}
+
 	private void release() {
+		if (isShared()) {
+			// Still part of a snapshot
+			return;
+		}
 		if (!isLeaf()) {
 			left.release();
 			right.release();
@@ -251,59 +612,270 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 		if (isLeaf()) {
 			if (pivot == size) {
 				left = new Node(dirtyList, elements, dirty);
+				left.inherit(this);
 				right = new Node(dirtyList, new LongArrayStore());
 			} else if (pivot == 0) {
 				left = new Node(dirtyList, new LongArrayStore());
 				right = new Node(dirtyList, elements, dirty);
+				right.inherit(this);
 			} else {
 				Store[] splitElements = elements.split(pivot);
 				left = new Node(dirtyList, splitElements[0], dirty);
 				right = new Node(dirtyList, splitElements[1], dirty);
+				left.cold = right.cold = cold;
+			}
+
+			// Replace this leaf with its children in the chain of leaves
+			left.prevLeaf = prevLeaf;
+			left.nextLeaf = right;
+			right.prevLeaf = left;
+			right.nextLeaf = nextLeaf;
+			if (prevLeaf != null) {
+				prevLeaf.nextLeaf = left;
+			}
+			if (nextLeaf != null) {
+				nextLeaf.prevLeaf = right;
 			}
+			prevLeaf = null;
+			nextLeaf = null;
+			dirtyList.structureVersion++;
 
 			elements = null;
+			statistics = null;
+			compactedWith = null;
 			height = 1;
 			removeDirty();
 
 			assert left.size == pivot;
 			assert right.size == size - pivot;
 		} else if (pivot < left.size) {
+			left = left.writable();
 			left.split(pivot);
 			balance();
 		} else {
+			right = right.writable();
 			right.split(pivot - left.size);
 			balance();
 		}
 	}
 
-	protected void merge() {
-		if (trace)
-			log.trace("merge: {}", this);
+	/**
+	 * Splits the tree below this node into two trees, without copying any elements. This node must
+	 * not be used afterwards.
+	 * 
+	 * @param index
+	 *            The index of the first element of the second tree
+	 * @return The roots of the trees holding the elements before and from the index. The second
+	 *         tree has its own list of dirty leaves.
+	 */
+	public Node[] cut(int index) {
+		assert index <= size && index >= 0;
 
-		// TODO analyse elements to determine range required
-		LongArrayStore target = new LongArrayStore(size);
+		Node[] parts = cutTree(index);
+		parts[1].moveTo(new DirtyList(dirtyList.configuration));
+		return parts;
+	}
 
-		left.mergeElements(target, 0);
-		right.mergeElements(target, left.size);
+	private Node[] cutTree(int index) {
+		if (isLeaf()) {
+			if (index == 0) {
+				return new Node[] { new Node(dirtyList), this };
+			} else if (index == size) {
+				return new Node[] { this, new Node(dirtyList) };
+			}
+			split(index);
+		}
 
-		elements = target;
-		left = null;
-		right = null;
-		height = 0;
-		markDirty();
+		Node[] parts;
+		if (index < left.size) {
+			parts = left.writable().cutTree(index);
+			parts[1] = join(parts[1], right);
+		} else if (index == left.size) {
+			parts = new Node[] { left, right };
+		} else {
+			parts = right.writable().cutTree(index - left.size);
+			parts[0] = join(left, parts[0]);
+		}
+
+		// Unlink the leaves either side of the cut
+		Node last = parts[0].lastLeaf(), first = parts[1].firstLeaf();
+		if (last.nextLeaf == first) {
+			last.nextLeaf = null;
+			first.prevLeaf = null;
+		}
+		dirtyList.structureVersion++;
+		return parts;
 	}
 
-	protected void mergeElements(LongArrayStore target, int offset) {
+	/**
+	 * Joins two trees, without copying any elements. The roots of both trees must not be used
+	 * afterwards. Leaves of the right tree are moved to the dirty list of the left tree.
+	 * 
+	 * @return The root of a tree holding the elements of the left tree followed by those of the
+	 *         right tree
+	 */
+	public static Node join(Node left, Node right) {
+		right.moveTo(left.dirtyList);
+
+		if (right.size == 0) {
+			right.release();
+			return left;
+		}
+		if (left.size == 0) {
+			left.release();
+			return right;
+		}
+
+		Node last = left.lastLeaf(), first = right.firstLeaf();
+		last.nextLeaf = first;
+		first.prevLeaf = last;
+		left.dirtyList.structureVersion++;
+		return joinTrees(left, right);
+	}
+
+	private static Node joinTrees(Node left, Node right) {
+		if (left.height > right.height + 1) {
+			left = left.writable();
+			left.right = joinTrees(left.right, right);
+			left.updateSize();
+			left.balance();
+			return left;
+		}
+		if (right.height > left.height + 1) {
+			right = right.writable();
+			right.left = joinTrees(left, right.left);
+			right.updateSize();
+			right.balance();
+			return right;
+		}
+		return new Node(left, right);
+	}
+
+	/**
+	 * Moves the nodes below this one to another tree's list of dirty leaves. Nodes which may be
+	 * shared with a snapshot remain shared in the other tree.
+	 */
+	private void moveTo(DirtyList target) {
+		if (dirtyList == target) {
+			return;
+		}
+
+		if (!isShared()) {
+			generation = target.generation;
+		}
 		if (isLeaf()) {
-			if (size > 0) {
-				target.copy(elements, offset);
-			}
-			elements.release();
+			boolean wasDirty = dirty;
 			removeDirty();
+			dirtyList.structureVersion++;
+			dirtyList = target;
+			if (wasDirty) {
+				markDirty();
+			}
 		} else {
-			left.mergeElements(target, offset);
-			right.mergeElements(target, offset + left.size);
+			dirtyList = target;
+			left.moveTo(target);
+			right.moveTo(target);
+		}
+	}
+
+	/**
+	 * Takes the place of the leaves below this node in the chain of leaves, before this node
+	 * becomes a leaf
+	 */
+	private void replaceLeaves() {
+		prevLeaf = firstLeaf().prevLeaf;
+		nextLeaf = lastLeaf().nextLeaf;
+		if (prevLeaf != null) {
+			prevLeaf.nextLeaf = this;
 		}
+		if (nextLeaf != null) {
+			nextLeaf.prevLeaf = this;
+		}
+	}
+
+	/**
+	 * @return the leftmost leaf below this node
+	 */
+	private Node firstLeaf() {
+		Node leaf = this;
+		while (!leaf.isLeaf()) {
+			leaf = leaf.left;
+		}
+		return leaf;
+	}
+
+	/**
+	 * @return the rightmost leaf below this node
+	 */
+	private Node lastLeaf() {
+		Node leaf = this;
+		while (!leaf.isLeaf()) {
+			leaf = leaf.right;
+		}
+		return leaf;
+	}
+
+	/**
+	 * Links the leaves either side of the division between the two subtrees of this node, which
+	 * are not serialized
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (!isLeaf()) {
+			Node last = left.lastLeaf();
+			Node first = right.firstLeaf();
+			last.nextLeaf = first;
+			first.prevLeaf = last;
+		}
+	}
+
+	/**
+	 * Takes the state of a leaf whose elements have been moved unchanged to this node
+	 */
+	private void inherit(Node leaf) {
+		cold = leaf.cold;
+		statistics = leaf.statistics;
+		compactedWith = leaf.compactedWith;
+	}
+
+	protected void merge() {
+		merge(CompactionPolicy.getDefault());
+	}
+
+	/**
+	 * Merges the leaves below this node into a single leaf. Their values are analysed and encoded
+	 * directly from their existing stores, without an intermediate copy.
+	 * 
+	 * @param policy
+	 *            Chooses the representation for the merged leaf
+	 */
+	protected void merge(CompactionPolicy policy) {
+		if (trace)
+			log.trace("merge: {}", this);
+
+		ArrayList<Node> leaves = new ArrayList<>();
+		walk(leaves::add);
+
+		Store[] parts = new Store[leaves.size()];
+		cold = true;
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = leaves.get(i).elements;
+			cold &= leaves.get(i).cold;
+		}
+		mergeElements(parts, policy);
+
+		replaceLeaves();
+		dirtyList.structureVersion++;
+		for (Node leaf : leaves) {
+			if (!leaf.isShared()) {
+				leaf.elements.release();
+			}
+			leaf.removeDirty();
+		}
+
+		left = null;
+		right = null;
+		height = 0;
 	}
 
 	protected void balance() {
@@ -313,6 +885,7 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 
 		while (right.height - left.height > 1) {
 			// Rotate left
+			right = right.writable();
 			Node alpha = left, beta = right.left, gamma = right.right;
 			left = right;
 			left.left = alpha;
@@ -324,6 +897,7 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 
 		while (left.height - right.height > 1) {
 			// Rotate right
+			left = left.writable();
 			Node alpha = left.left, beta = left.right, gamma = right;
 			right = left;
 			left = alpha;
@@ -351,55 +925,114 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 	}
 
 	public void compact() {
+		compact(CompactionPolicy.getDefault());
+	}
+
+	/**
+	 * Tries to find more efficient in-memory representations for each leaf
+	 * 
+	 * @param policy
+	 *            Chooses the representation for each leaf
+	 */
+	public void compact(CompactionPolicy policy) {
 
 		if (trace)
 			log.trace("compact: {}", this);
 
 		if (!isLeaf()) {
-			if (size <= TARGET_LEAF_SIZE) {
-				merge();
+			if (size <= dirtyList.targetLeafSize) {
+				merge(policy);
 			} else {
-				left.compact();
-				right.compact();
+				if (!left.isCompacted(policy)) {
+					left = left.writable();
+					left.compact(policy);
+				}
+				if (!right.isCompacted(policy)) {
+					right = right.writable();
+					right.compact(policy);
+				}
+				if (underflow()) {
+					// Compact the merged leaves
+					compact(policy);
+					return;
+				}
 				balance();
-				return;
 			}
+			return;
 		}
 
 		try {
-			if (size == 0) {
-				// Edge case where all elements have been removed from a leaf
-				elements.release();
-				elements = new ConstantStore(0, 0);
-				return;
-			}
+			compactElements(policy);
+		} finally {
+			removeDirty();
+		}
+	}
 
-			// Analyse the values in this node
-			StorageAnalysis analysis = new StorageAnalysis(elements);
-			long range = analysis.max - analysis.min;
-
-			// Choose an appropriate storage strategy for the range of compact values
-			// observed
-			if (range >= 0) {
-				Store newElements = null;
-				if (range == 0) {
-					newElements = new ConstantStore(elements);
-				} else if (range < 1L << 8) {
-					newElements = new ByteArrayStore(analysis.min, elements);
-				} else if (range < 1L << 16) {
-					newElements = new ShortArrayStore(analysis.min, elements);
-				} else if (range < 1L << 32) {
-					newElements = new IntArrayStore(analysis.min, elements);
-				}
+	/**
+	 * @return true if this is a leaf which has not been modified since it was compacted with the
+	 *         given policy, and does not retain a mostly unused backing array
+	 */
+	@Override
+	boolean isCompacted(CompactionPolicy policy) {
+		return isLeaf() && super.isCompacted(policy);
+	}
 
-				if (newElements != null) {
-					elements.release();
-					elements = newElements;
-				}
+	/**
+	 * Reports the memory held by the backing arrays of the leaves below this node which does not
+	 * hold any of their elements. This includes spare capacity, gaps left by removals, and the
+	 * parts of shared arrays which belonged to stores that have since been released or moved to
+	 * another tree.
+	 * 
+	 * @return the number of bytes held but unused
+	 */
+	public long unusedBytes() {
+		// Stores split from the same array are counted against it once
+		Map<Object, long[]> arrays = new IdentityHashMap<>();
+		walk(leaf -> {
+			if (leaf.elements instanceof ArrayStore) {
+				ArrayStore<?> store = (ArrayStore<?>) leaf.elements;
+				long[] bits = arrays.computeIfAbsent(store.getArray(),
+					array -> new long[] { (long) store.arrayLength() * store.getWidth(), 0 });
+				bits[1] += (long) store.size() * store.getWidth();
 			}
-		} finally {
-			removeDirty();
+		});
+
+		long unused = 0;
+		for (long[] bits : arrays.values()) {
+			unused += bits[0] - bits[1];
 		}
+		return unused / Byte.SIZE;
+	}
+
+	/**
+	 * Marks every leaf as rarely read, and compacts them with
+	 * {@link CompactionPolicy#MINIMUM_SIZE}. Leaves will be compressed where this saves space,
+	 * until they are next written to.
+	 */
+	public void archive() {
+		archive(CompactionPolicy.MINIMUM_SIZE);
+	}
+
+	/**
+	 * @see #archive()
+	 */
+	public void archive(CompactionPolicy policy) {
+		if (!isLeaf() && size > dirtyList.targetLeafSize) {
+			left = left.writable();
+			left.archive(policy);
+			right = right.writable();
+			right.archive(policy);
+			balance();
+			return;
+		}
+
+		walk(leaf -> {
+			if (!leaf.cold) {
+				leaf.cold = true;
+				leaf.compactedWith = null;
+			}
+		});
+		compact(policy);
 	}
 
 	public void print(String prefix, String indent) {
@@ -423,18 +1056,82 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 
 	@Override
 	public Iterator<Long> iterator() {
-		return new NodeIterator();
+		return new NodeIterator(0);
+	}
+
+	@Override
+	public PrimitiveIterator.OfLong longIterator() {
+		return new NodeIterator(0);
+	}
+
+	/**
+	 * @return a cursor over the elements of this node, positioned before the first
+	 */
+	public LongCursor cursor() {
+		return new NodeCursor(this);
+	}
+
+	/**
+	 * Passes the elements of each leaf to the given action in turn, letting each store read its
+	 * elements directly
+	 */
+	@Override
+	public void forEachLong(LongConsumer action) {
+		walk(leaf -> leaf.elements.forEachLong(action));
+	}
+
+	/**
+	 * @param index
+	 *            The index of the first element to be returned by {@link ListIterator#next()}
+	 * @return an iterator over the elements of this node, starting at the given index
+	 */
+	public ListIterator<Long> listIterator(int index) {
+		return new NodeIterator(index);
 	}
 
-	public class NodeIterator implements Iterator<Long> {
+	/**
+	 * Iterates over the elements of each leaf in turn, following the links between adjacent leaves.
+	 * Writes through the iterator go through this node, after which the iterator locates its leaf
+	 * again.
+	 * <p>
+	 * The links between leaves always belong to the live tree, so iterators over a snapshot descend
+	 * from the root to find each leaf instead, and cannot write.
+	 */
+	public class NodeIterator implements ListIterator<Long>, PrimitiveIterator.OfLong {
+
+		private final boolean shared = isShared();
 
-		ArrayList<Node> stack = new ArrayList<>();
+		/** The index of the next element */
+		int pos;
+		/** The index of the element last returned, or -1 */
+		int lastReturned = -1;
 
-		int		pos, currentPos;
+		/** A leaf near the current position, and the index of its first element */
 		Node	current;
+		int		currentStart;
+
+		/** A reader for the store of the current leaf, and the store it reads */
+		private Store	reader;
+		private Store	readFrom;
 
-		public NodeIterator() {
+		public NodeIterator(int index) {
+			pos = index;
+		}
+
+		/**
+		 * Descends from the top of the tree to the leaf containing the given index
+		 */
+		private void seek(int index) {
 			current = Node.this;
+			currentStart = 0;
+			while (!current.isLeaf()) {
+				if (index - currentStart < current.left.size) {
+					current = current.left;
+				} else {
+					currentStart += current.left.size;
+					current = current.right;
+				}
+			}
 		}
 
 		@Override
@@ -444,57 +1141,154 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 
 		@Override
 		public Long next() {
+			return nextLong();
+		}
 
-			while (current != null) {
-				// Only true if we've depleted this node
-				if (currentPos >= current.size) {
-					// Move to the right sibling node
-					current = stack.remove(stack.size() - 1).right;
-					currentPos = 0;
-				}
+		@Override
+		public long nextLong() {
+			if (pos >= size) {
+				throw new NoSuchElementException();
+			}
+			locateNext();
+			lastReturned = pos;
+			return elements().getLong(pos++ - currentStart);
+		}
 
-				// Move to the leftmost child
-				while (!current.isLeaf()) {
-					stack.add(current);
-					current = current.left;
-				}
+		/**
+		 * Moves to the leaf containing the next element
+		 */
+		private void locateNext() {
+			if (current == null || shared && pos - currentStart >= current.size) {
+				seek(pos);
+			}
+			while (pos - currentStart >= current.size) {
+				// Move to the next leaf
+				currentStart += current.size;
+				current = current.nextLeaf;
+			}
+		}
 
-				// Iterate over current node
-				if (currentPos < current.size) {
-					long v = current.elements.getLong(currentPos++);
-					pos++;
-					return v;
-				}
+		/**
+		 * @return a reader for the elements of the current leaf, which is kept while the leaf holds
+		 *         the same store
+		 */
+		private Store elements() {
+			if (readFrom != current.elements) {
+				readFrom = current.elements;
+				reader = readFrom.reader();
 			}
-			throw new IllegalStateException();
+			return reader;
+		}
+
+		/**
+		 * Passes the rest of each leaf to the action in turn
+		 */
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			while (pos < size) {
+				locateNext();
+				current.elements.forEachLong(pos - currentStart, current.size, action);
+				pos = currentStart + current.size;
+				lastReturned = pos - 1;
+			}
+		}
 
+		@Override
+		public boolean hasPrevious() {
+			return pos > 0;
+		}
+
+		@Override
+		public Long previous() {
+			if (pos <= 0) {
+				throw new NoSuchElementException();
+			}
+			if (current == null || shared && pos - 1 < currentStart) {
+				seek(pos - 1);
+			}
+			while (pos - 1 < currentStart) {
+				// Move to the previous leaf
+				current = current.prevLeaf;
+				currentStart -= current.size;
+			}
+			lastReturned = --pos;
+			return elements().getLong(pos - currentStart);
+		}
+
+		@Override
+		public int nextIndex() {
+			return pos;
+		}
+
+		@Override
+		public int previousIndex() {
+			return pos - 1;
 		}
 
 		@Override
 		public void remove() {
-			pos--;
-			currentPos--;
-			current.removeLong(currentPos);
-			for (Node n : stack) {
-				n.size--;
+			checkWritable();
+			if (lastReturned < 0) {
+				throw new IllegalStateException();
+			}
+			Node.this.removeLong(lastReturned);
+			if (lastReturned < pos) {
+				pos--;
 			}
+			lastReturned = -1;
+			current = null;
 		}
-	}
 
-	public void walk(Consumer<Node> leafConsumer) {
-		ArrayList<Node> stack = new ArrayList<>();
-		stack.add(this);
+		@Override
+		public void set(Long e) {
+			checkWritable();
+			if (lastReturned < 0) {
+				throw new IllegalStateException();
+			}
+			Node.this.setLong(lastReturned, e);
+			// The leaf may have been copied, if it was shared with a snapshot
+			current = null;
+		}
 
-		while (!stack.isEmpty()) {
-			Node current = stack.remove(stack.size() - 1);
+		@Override
+		public void add(Long e) {
+			checkWritable();
+			Node.this.addLong(pos++, e);
+			lastReturned = -1;
+			current = null;
+		}
 
-			// Move to the leftmost child
-			while (!current.isLeaf()) {
-				stack.add(current.right);
-				current = current.left;
+		private void checkWritable() {
+			if (shared) {
+				throw new UnsupportedOperationException("Snapshots cannot be modified");
+			}
+		}
+	}
+
+	/**
+	 * Visits each leaf below this node in list order
+	 */
+	public void walk(Consumer<Node> leafConsumer) {
+		if (isShared()) {
+			// The links between leaves belong to the live tree
+			if (isLeaf()) {
+				leafConsumer.accept(this);
+			} else {
+				left.walk(leafConsumer);
+				right.walk(leafConsumer);
 			}
+			return;
+		}
 
-			leafConsumer.accept(current);
+		Node last = lastLeaf();
+		for (Node leaf = firstLeaf();;) {
+			// Read the link first, in case the consumer replaces the leaf
+			Node next = leaf.nextLeaf;
+			leafConsumer.accept(leaf);
+			if (leaf == last) {
+				return;
+			}
+			leaf = next;
 		}
 	}
 
@@ -514,7 +1308,7 @@ public class Node implements Iterable<Long>, LongList, Serializable {
 	 */
 	public int searchLong(long value) {
 		if (isLeaf()) {
-			return Collections.binarySearch(elements, value, Comparator.naturalOrder());
+			return elements.searchLong(value);
 		}
 
 		if (right.size > 0 && right.getLong(0) <= value) {
@@ -0,0 +1,77 @@
+package net.kothar.compactlist.internal;
+
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A cursor over a tree of {@link Node}s. Like a {@link Finger}, the cursor moves to the next leaf
+ * along the links between them, descending from the root again whenever the leaves of the tree
+ * change.
+ */
+class NodeCursor extends LongCursor {
+
+	private final Node root;
+
+	/** The links between leaves belong to the live tree, so snapshots always descend */
+	private final boolean shared;
+
+	private Node	leaf;
+	private int		start;
+	private int		version;
+
+	/** A reader for the store of the current leaf, and the store it reads */
+	private Store	reader;
+	private Store	readFrom;
+
+	NodeCursor(Node root) {
+		this.root = root;
+		this.shared = root.isShared();
+	}
+
+	@Override
+	protected int size() {
+		return root.size;
+	}
+
+	@Override
+	protected long read(int index) {
+		if (leaf == null || version != root.dirtyList.structureVersion
+			|| index < start || index - start >= leaf.size) {
+			locate(index);
+		}
+		if (readFrom != leaf.elements) {
+			readFrom = leaf.elements;
+			reader = readFrom.reader();
+		}
+		return reader.getLong(index - start);
+	}
+
+	/**
+	 * Finds the leaf containing the given index, following the link from the current leaf where
+	 * possible
+	 */
+	private void locate(int index) {
+		if (leaf != null && !shared && version == root.dirtyList.structureVersion && index >= start) {
+			while (index - start >= leaf.size && leaf.nextLeaf != null) {
+				start += leaf.size;
+				leaf = leaf.nextLeaf;
+			}
+			if (index - start < leaf.size) {
+				return;
+			}
+		}
+
+		// Descend from the root
+		Node node = root;
+		start = 0;
+		while (node.left != null) {
+			if (index - start < node.left.size) {
+				node = node.left;
+			} else {
+				start += node.left.size;
+				node = node.right;
+			}
+		}
+		leaf = node;
+		version = root.dirtyList.structureVersion;
+	}
+}
@@ -0,0 +1,248 @@
+package net.kothar.compactlist.internal;
+
+import java.io.Serializable;
+
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.compaction.CompactionStrategy;
+import net.kothar.compactlist.internal.compaction.LeafStatistics;
+import net.kothar.compactlist.internal.compaction.StorageAnalysis;
+import net.kothar.compactlist.internal.storage.ArrayStore;
+import net.kothar.compactlist.internal.storage.CompactStore;
+import net.kothar.compactlist.internal.storage.CompressedStore;
+import net.kothar.compactlist.internal.storage.ConcatenatedStore;
+import net.kothar.compactlist.internal.storage.ConstantStore;
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.SparseStore;
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A leaf of a tree, holding a run of the list in a single store. This handles the store of a
+ * {@link Node} or {@link Leaf}: widening it to hold new values, removing values, and encoding it
+ * when the leaf is compacted or merged. The parts which depend only on the store are static, so
+ * that trees which keep the state of their leaves in arrays can use them too.
+ */
+abstract class Segment implements Serializable {
+
+	private static final long serialVersionUID = 7465238823413964208L;
+
+	protected Store elements;
+
+	/** Set for leaves which are rarely read, and may be compressed */
+	boolean cold;
+
+	/** Running statistics for the values in a leaf */
+	LeafStatistics statistics;
+
+	/** The policy this leaf was last compacted with, if it has not been replaced since */
+	transient CompactionPolicy compactedWith;
+
+	/**
+	 * Moves the leaf to the end of the leaves modified since they were last compacted
+	 */
+	abstract void markDirty();
+
+	/**
+	 * Removes the leaf from the leaves modified since they were last compacted
+	 */
+	abstract void removeDirty();
+
+	/**
+	 * Called before a value is added to a full store which can hold it, so that the store can grow
+	 * ahead of reallocating
+	 */
+	void grow() {
+	}
+
+	long setElement(int index, long element) {
+		if (!elements.inRange(index, element, true)) {
+			promote(element);
+		}
+		long oldValue = elements.setLong(index, element);
+		statistics.replaced(elements, index, oldValue, element);
+		return oldValue;
+	}
+
+	void addElement(int index, long element) {
+		if (!elements.inRange(index, element, false)) {
+			promote(element);
+		} else if (elements.capacity() == elements.size()) {
+			grow();
+		}
+		statistics.adding(elements, index, element);
+		elements.addLong(index, element);
+	}
+
+	/**
+	 * Removes a value, which must be at either end of the leaf unless its store allows removal from
+	 * the middle
+	 */
+	long removeElement(int index) {
+		assert canRemove(elements, index);
+
+		long oldValue = elements.removeLong(index);
+		statistics.removed(oldValue);
+		return oldValue;
+	}
+
+	/**
+	 * Replaces the store with a wider representation which can hold the given value
+	 */
+	private void promote(long element) {
+		Store newElements = widen(elements, Math.min(element, statistics.min(elements)), Math.max(element, statistics.max(elements)));
+		elements.release();
+		elements = newElements;
+		cold = false;
+		markDirty();
+	}
+
+	/**
+	 * @return a writable store holding the given elements, wide enough for values in the given
+	 *         range
+	 */
+	static Store widen(Store elements, long min, long max) {
+		if (elements instanceof ConstantStore) {
+			return new SparseStore((ConstantStore) elements);
+		}
+		return CompactStore.promote(elements, min, max);
+	}
+
+	/**
+	 * @return true if the value at the given index can be removed without splitting the leaf
+	 */
+	static boolean canRemove(Store elements, int index) {
+		return index == 0 || index == elements.size() - 1 || elements.removesFromMiddle();
+	}
+
+	/**
+	 * @return true if a leaf holding the given elements should be split before the value is
+	 *         inserted
+	 */
+	static boolean splitBefore(Store elements, int index, long element, int targetLeafSize, int maxLeafSize) {
+		int size = elements.size();
+		return size >= targetLeafSize
+			&& (index < size // Insert
+				|| size >= maxLeafSize // Too big
+				|| !elements.inRange(index, element, false) // Out of range
+				|| elements.capacity() == 0 // Allocation required
+			);
+	}
+
+	/**
+	 * Tries to find a more efficient in-memory representation for the elements of the leaf. The
+	 * leaf is not removed from the modified leaves.
+	 *
+	 * @param policy
+	 *            Chooses the representation for the leaf
+	 */
+	void compactElements(CompactionPolicy policy) {
+		if (elements.isEmpty()) {
+			// Edge case where all elements have been removed from a leaf
+			elements.release();
+			elements = new ConstantStore(0, 0);
+			statistics = new LeafStatistics(elements);
+			return;
+		}
+		if (isCompacted(policy)) {
+			// Unchanged since last compacted
+			return;
+		}
+
+		Store newElements = encode(elements, policy);
+		if (newElements != elements) {
+			elements.release();
+			elements = newElements;
+		}
+		if (isRetaining(elements)) {
+			// No better encoding was found, but a much larger shared array can be freed
+			((ArrayStore<?>) elements).trim();
+		}
+		compactedWith = policy;
+	}
+
+	/**
+	 * @return true if the leaf has not been modified since it was compacted with the given policy,
+	 *         and does not retain a mostly unused backing array
+	 */
+	boolean isCompacted(CompactionPolicy policy) {
+		return compactedWith == policy && statistics.modifications() == 0 && !isRetaining(elements);
+	}
+
+	/**
+	 * @return true if the elements use a small fraction of a backing array, which may be shared with
+	 *         stores that have since been released
+	 */
+	static boolean isRetaining(Store elements) {
+		return elements instanceof ArrayStore && ((ArrayStore<?>) elements).isRetaining();
+	}
+
+	/**
+	 * Encodes the elements of adjacent leaves as the elements of this one, analysing them directly
+	 * from their existing stores. The stores are not released.
+	 *
+	 * @param parts
+	 *            The stores of the leaves, in list order
+	 * @param policy
+	 *            Chooses the representation for the merged leaf
+	 */
+	void mergeElements(Store[] parts, CompactionPolicy policy) {
+		Store merged = new ConcatenatedStore(parts);
+		statistics = new LeafStatistics(merged);
+		compactedWith = null;
+		elements = merge(merged, encode(merged, policy));
+		compactedWith = policy;
+	}
+
+	/**
+	 * @return the store to keep for merged elements which have been encoded, copying them if no
+	 *         strategy was allowed
+	 */
+	static Store merge(Store merged, Store encoded) {
+		if (merged.isEmpty()) {
+			return new ConstantStore(0, 0);
+		}
+		return encoded == merged ? new LongArrayStore(merged) : encoded;
+	}
+
+	/**
+	 * Analyses the values in a store, and encodes them using the cheapest strategy allowed by the
+	 * policy. The analysis is skipped if the leaf's statistics show that the store built from the
+	 * last analysis is still suitable.
+	 *
+	 * @return The encoded values, or the given store if no strategy is allowed
+	 */
+	private Store encode(Store source, CompactionPolicy policy) {
+		if (source.isEmpty()) {
+			return source;
+		}
+		if (compactedWith == policy && statistics.isSettled(source)) {
+			// Too few values have been written since the last analysis to change the choice
+			statistics.settled();
+			return source;
+		}
+
+		StorageAnalysis analysis = new StorageAnalysis(source);
+		Store encoded = encode(source, analysis, policy, cold);
+		statistics.analysed(analysis, encoded);
+		return encoded;
+	}
+
+	/**
+	 * Encodes analysed values using the cheapest strategy allowed by the policy, compressing them
+	 * instead if they are rarely read and this saves space
+	 *
+	 * @return The encoded values, or the given store if no strategy is allowed
+	 */
+	static Store encode(Store source, StorageAnalysis analysis, CompactionPolicy policy, boolean cold) {
+		CompactionStrategy strategy = policy.choose(analysis);
+		Store encoded = strategy != null ? strategy.build(analysis, source) : source;
+
+		if (cold && policy.allows(CompressedStore.ACCESS_COST)) {
+			// Compress rarely read segments if it saves space
+			Store compressed = new CompressedStore(source);
+			if (compressed.getWidth() < encoded.getWidth()) {
+				encoded = compressed;
+			}
+		}
+		return encoded;
+	}
+}
@@ -0,0 +1,81 @@
+package net.kothar.compactlist.internal;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import net.kothar.compactlist.LongList;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A tree of leaf segments holding the elements of a list
+ */
+public interface Tree extends LongList, Iterable<Long> {
+
+	/**
+	 * Compacts the least recently modified leaf, without using sealed strategies
+	 *
+	 * @see CompactionPolicy#forMaintenance()
+	 */
+	void maintain(CompactionPolicy policy);
+
+	/**
+	 * Tries to find more efficient in-memory representations for each leaf
+	 */
+	void compact(CompactionPolicy policy);
+
+	/**
+	 * Marks every leaf as rarely read, and compacts them. Leaves will be compressed where this
+	 * saves space, until they are next written to.
+	 */
+	void archive(CompactionPolicy policy);
+
+	/**
+	 * Performs a binary search in the tree to locate the index of the given value.
+	 * <p>
+	 * Assumes that the values are in ascending order.
+	 *
+	 * @param value
+	 *            The value to search for
+	 * @return The index of the value. If not found, returns -1 minus the index at which it should
+	 *         be inserted.
+	 */
+	int searchLong(long value);
+
+	/**
+	 * Finds the leaf containing the element at the given index
+	 *
+	 * @param start
+	 *            Receives the index of the first element of the leaf in its first entry
+	 * @return the store of the leaf
+	 */
+	Store locate(int index, int[] start);
+
+	/**
+	 * @return a count which changes whenever the tree is written, after which the stores returned
+	 *         by {@link #locate(int, int[])} may have been replaced
+	 */
+	int version();
+
+	@Override
+	default Iterator<Long> iterator() {
+		return new TreeIterator(this);
+	}
+
+	/**
+	 * @return a cursor over the elements of the tree, positioned before the first
+	 */
+	default LongCursor cursor() {
+		return new TreeCursor(this);
+	}
+
+	/**
+	 * @return the configuration which sizes the leaves of the tree
+	 */
+	TreeConfiguration getConfiguration();
+
+	/**
+	 * Visits the store of each leaf in list order
+	 */
+	void walk(Consumer<Store> leafConsumer);
+}
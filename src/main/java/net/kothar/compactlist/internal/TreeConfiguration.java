@@ -0,0 +1,175 @@
+package net.kothar.compactlist.internal;
+
+import java.io.Serializable;
+
+import net.kothar.compactlist.internal.storage.AbstractStore;
+
+/**
+ * Sizes the leaves of a tree, and sets how often a list built on the tree is maintained.
+ * Configurations are immutable; each <code>with</code> method returns a modified copy.
+ * <p>
+ * In adaptive mode, the target leaf size of each tree drifts at every maintenance cycle towards
+ * the size which suits the mix of inserts and reads seen since the last cycle. An insert moves
+ * half a leaf of elements on average, so inserts favour small leaves, while a read descends
+ * further through a tree of small leaves.
+ */
+public class TreeConfiguration implements Serializable {
+
+	private static final long serialVersionUID = -2287364718425369185L;
+
+	public static final TreeConfiguration DEFAULT = new TreeConfiguration((1 << 16) - 1, 1 << 20, 2, 1 << 18, false);
+
+	/** The default fraction of the target leaf size below which a leaf is merged with its neighbour */
+	public static final double DEFAULT_MIN_FILL = 0.25;
+
+	/** The smallest target leaf size chosen in adaptive mode, unless the configured target is smaller */
+	public static final int MIN_ADAPTIVE_LEAF_SIZE = 1 << 10;
+
+	/** The cost of descending one level of the tree, relative to moving one element within a leaf */
+	static final double DESCENT_COST = 64;
+
+	private final int		targetLeafSize;
+	private final int		maxLeafSize;
+	private final double	growthFactor;
+	private final long		maintenanceCycle;
+	private final boolean	adaptive;
+	private final double	minFill;
+
+	/**
+	 * Creates a configuration with the {@link #DEFAULT_MIN_FILL default minimum fill}
+	 */
+	public TreeConfiguration(int targetLeafSize, int maxLeafSize, double growthFactor, long maintenanceCycle,
+			boolean adaptive) {
+		this(targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, adaptive, DEFAULT_MIN_FILL);
+	}
+
+	/**
+	 * @param targetLeafSize
+	 *            The size at which leaves are split before an insert, and below which subtrees are
+	 *            merged into a single leaf when compacted
+	 * @param maxLeafSize
+	 *            The size at which leaves are always split, which must be larger than the target
+	 * @param growthFactor
+	 *            The factor by which the capacity of a full leaf grows, which must be at least 1
+	 * @param maintenanceCycle
+	 *            The number of operations between compactions of the least recently modified leaf
+	 * @param adaptive
+	 *            true if the target leaf size should adapt to the mix of operations
+	 * @param minFill
+	 *            The fraction of the target leaf size below which a leaf is merged with its
+	 *            neighbour, or shares the elements of its neighbour, which must be less than half
+	 */
+	public TreeConfiguration(int targetLeafSize, int maxLeafSize, double growthFactor, long maintenanceCycle,
+			boolean adaptive, double minFill) {
+		if (targetLeafSize < 1 || maxLeafSize <= targetLeafSize) {
+			throw new IllegalArgumentException(
+				String.format("Invalid leaf sizes: target %d, max %d", targetLeafSize, maxLeafSize));
+		}
+		if (!(growthFactor >= 1)) {
+			throw new IllegalArgumentException("Growth factor must be at least 1: " + growthFactor);
+		}
+		if (maintenanceCycle < 1) {
+			throw new IllegalArgumentException("Maintenance cycle must be positive: " + maintenanceCycle);
+		}
+		if (!(minFill >= 0 && minFill < 0.5)) {
+			throw new IllegalArgumentException("Minimum fill must be at least 0 and less than 0.5: " + minFill);
+		}
+
+		this.targetLeafSize = targetLeafSize;
+		this.maxLeafSize = maxLeafSize;
+		this.growthFactor = growthFactor;
+		this.maintenanceCycle = maintenanceCycle;
+		this.adaptive = adaptive;
+		this.minFill = minFill;
+	}
+
+	public int getTargetLeafSize() {
+		return targetLeafSize;
+	}
+
+	public int getMaxLeafSize() {
+		return maxLeafSize;
+	}
+
+	public double getGrowthFactor() {
+		return growthFactor;
+	}
+
+	public long getMaintenanceCycle() {
+		return maintenanceCycle;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public double getMinFill() {
+		return minFill;
+	}
+
+	public TreeConfiguration withLeafSizes(int targetLeafSize, int maxLeafSize) {
+		return new TreeConfiguration(targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, adaptive, minFill);
+	}
+
+	public TreeConfiguration withGrowthFactor(double growthFactor) {
+		return new TreeConfiguration(targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, adaptive, minFill);
+	}
+
+	public TreeConfiguration withMaintenanceCycle(long maintenanceCycle) {
+		return new TreeConfiguration(targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, adaptive, minFill);
+	}
+
+	public TreeConfiguration withAdaptive(boolean adaptive) {
+		return new TreeConfiguration(targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, adaptive, minFill);
+	}
+
+	public TreeConfiguration withMinFill(double minFill) {
+		return new TreeConfiguration(targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, adaptive, minFill);
+	}
+
+	/**
+	 * @return the size below which a leaf with the given target size is merged with its neighbour
+	 */
+	int minLeafSize(int targetLeafSize) {
+		return (int) (targetLeafSize * minFill);
+	}
+
+	/**
+	 * @return the capacity to give a full leaf holding the given number of elements
+	 */
+	int grownCapacity(int size) {
+		return (int) Math.min(size * growthFactor + AbstractStore.ALLOCATION_BUFFER, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param current
+	 *            The target leaf size currently used by the tree
+	 * @param inserts
+	 *            The number of inserts since the target was last adapted
+	 * @param reads
+	 *            The number of reads since the target was last adapted
+	 * @return the target leaf size to use until the next cycle. In adaptive mode this moves halfway,
+	 *         by ratio, towards the size with the lowest modelled cost, staying between
+	 *         {@link #MIN_ADAPTIVE_LEAF_SIZE} and half the maximum leaf size.
+	 */
+	public int adaptTargetLeafSize(int current, long inserts, long reads) {
+		if (!adaptive || inserts + reads == 0) {
+			return current;
+		}
+
+		// Minimises inserts * size / 2 + reads * DESCENT_COST * log2(elements / size)
+		double lower = Math.min(targetLeafSize, MIN_ADAPTIVE_LEAF_SIZE);
+		double upper = Math.max(targetLeafSize, maxLeafSize / 2);
+		double ideal = inserts == 0 ? upper : 2 * DESCENT_COST * reads / (inserts * Math.log(2));
+		ideal = Math.max(lower, Math.min(upper, ideal));
+
+		double next = Math.sqrt(current * ideal);
+		return (int) (ideal > current ? Math.ceil(next) : Math.floor(next));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TreeConfiguration: target %d, max %d, growth %s, maintenance %d, min fill %s%s",
+			targetLeafSize, maxLeafSize, growthFactor, maintenanceCycle, minFill, adaptive ? ", adaptive" : "");
+	}
+}
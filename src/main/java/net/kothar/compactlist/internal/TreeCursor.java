@@ -0,0 +1,37 @@
+package net.kothar.compactlist.internal;
+
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A cursor over a {@link Tree}, which reads the store of its current leaf until it passes the end
+ * of the leaf or the tree is written, and then locates the next leaf from the root. The store is
+ * read through its {@link Store#reader() reader}.
+ */
+class TreeCursor extends LongCursor {
+
+	private final Tree tree;
+
+	private Store		store;
+	private final int[]	start	= new int[1];
+	private int			end;
+	private int			version;
+
+	TreeCursor(Tree tree) {
+		this.tree = tree;
+	}
+
+	@Override
+	protected int size() {
+		return tree.size();
+	}
+
+	@Override
+	protected long read(int index) {
+		if (store == null || version != tree.version() || index < start[0] || index >= end) {
+			store = tree.locate(index, start).reader();
+			end = start[0] + store.size();
+			version = tree.version();
+		}
+		return store.getLong(index - start[0]);
+	}
+}
@@ -0,0 +1,83 @@
+package net.kothar.compactlist.internal;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * Iterates over the elements of each leaf of a {@link Tree} in turn, descending from the root to
+ * find the next leaf. Removals go through the tree, after which the iterator locates its leaf
+ * again.
+ */
+public class TreeIterator implements PrimitiveIterator.OfLong {
+
+	private final Tree tree;
+
+	/** The index of the next element */
+	private int pos;
+
+	/**
+	 * A reader for the store of the leaf last located, and the indices of its first and last
+	 * elements
+	 */
+	private Store		store;
+	private final int[]	start	= new int[1];
+	private int			end;
+
+	/** Set by {@link #next()}, and cleared once the element it returned is removed */
+	private boolean canRemove;
+
+	public TreeIterator(Tree tree) {
+		this.tree = tree;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pos < tree.size();
+	}
+
+	@Override
+	public long nextLong() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		locate();
+		canRemove = true;
+		return store.getLong(pos++ - start[0]);
+	}
+
+	/**
+	 * Passes the rest of each leaf to the action in turn
+	 */
+	@Override
+	public void forEachRemaining(LongConsumer action) {
+		while (hasNext()) {
+			locate();
+			store.forEachLong(pos - start[0], store.size(), action);
+			pos = end;
+			canRemove = true;
+		}
+	}
+
+	/**
+	 * Moves to the leaf containing the next element
+	 */
+	private void locate() {
+		if (store == null || pos >= end) {
+			store = tree.locate(pos, start).reader();
+			end = start[0] + store.size();
+		}
+	}
+
+	@Override
+	public void remove() {
+		if (!canRemove) {
+			throw new IllegalStateException();
+		}
+		tree.removeLong(--pos);
+		store = null;
+		canRemove = false;
+	}
+}
@@ -0,0 +1,586 @@
+package net.kothar.compactlist.internal;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A B+-tree of {@link Leaf} segments, as an alternative to the binary tree of {@link Node}s. Each
+ * inner node holds up to {@link #MAX_FANOUT} children, and the cumulative sizes of its children in
+ * a primitive array, so that an index is routed to its leaf through a few short binary searches
+ * rather than a long chain of pointers.
+ */
+public class WideTree implements Tree, Serializable {
+
+	private static final long serialVersionUID = 1873562099458230162L;
+
+	/** The largest number of children of an inner node */
+	public static final int MAX_FANOUT = 1 << 6;
+
+	/** Inner nodes with fewer children than this are merged with or take children from a sibling */
+	public static final int MIN_FANOUT = MAX_FANOUT / 4;
+
+	static final class Inner implements Serializable {
+
+		private static final long serialVersionUID = -8813652049526370184L;
+
+		/** True if the children of this node are {@link Leaf}s, otherwise they are inner nodes */
+		final boolean leaves;
+
+		int count;
+
+		/** The number of elements in each child and all children before it */
+		final int[] ends;
+
+		final Object[] children;
+
+		Inner(boolean leaves, int maxFanout) {
+			this.leaves = leaves;
+			// Leave room for one extra child before the node is split
+			ends = new int[maxFanout + 1];
+			children = new Object[maxFanout + 1];
+		}
+
+		int size() {
+			return count == 0 ? 0 : ends[count - 1];
+		}
+
+		int start(int c) {
+			return c == 0 ? 0 : ends[c - 1];
+		}
+
+		int childSize(int c) {
+			return ends[c] - start(c);
+		}
+
+		/**
+		 * @return the child containing the element at the given index
+		 */
+		int find(int index) {
+			int low = 0, high = count - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (ends[mid] > index) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @return the child into which an element should be inserted at the given index, preferring
+		 *         to append to a child rather than prepend to the next
+		 */
+		int findInsert(int index) {
+			int low = 0, high = count - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (ends[mid] >= index) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Recalculates the cumulative sizes from the given child onwards
+		 */
+		void updateEnds(int from) {
+			for (int c = from; c < count; c++) {
+				Object child = children[c];
+				int size = leaves ? ((Leaf) child).size() : ((Inner) child).size();
+				ends[c] = start(c) + size;
+			}
+		}
+
+		void adjustEnds(int from, int delta) {
+			for (int c = from; c < count; c++) {
+				ends[c] += delta;
+			}
+		}
+
+		/**
+		 * Inserts a child, leaving the cumulative sizes to be updated by the caller
+		 */
+		void insertChild(int c, Object child) {
+			System.arraycopy(children, c, children, c + 1, count - c);
+			System.arraycopy(ends, c, ends, c + 1, count - c);
+			children[c] = child;
+			count++;
+		}
+
+		void removeChild(int c) {
+			System.arraycopy(children, c + 1, children, c, count - c - 1);
+			System.arraycopy(ends, c + 1, ends, c, count - c - 1);
+			children[--count] = null;
+			updateEnds(c);
+		}
+
+		/**
+		 * Moves the upper half of the children of this node to a new sibling
+		 */
+		Inner split(int maxFanout) {
+			Inner that = new Inner(leaves, maxFanout);
+			int keep = count / 2;
+			that.count = count - keep;
+			System.arraycopy(children, keep, that.children, 0, that.count);
+			for (int c = keep; c < count; c++) {
+				children[c] = null;
+			}
+			count = keep;
+			that.updateEnds(0);
+			return that;
+		}
+
+		/**
+		 * Moves children from the start of a sibling to the end of this node
+		 */
+		void takeFirst(Inner that, int n) {
+			System.arraycopy(that.children, 0, children, count, n);
+			count += n;
+			updateEnds(count - n);
+
+			System.arraycopy(that.children, n, that.children, 0, that.count - n);
+			for (int c = that.count - n; c < that.count; c++) {
+				that.children[c] = null;
+			}
+			that.count -= n;
+			that.updateEnds(0);
+		}
+
+		/**
+		 * Moves children from the end of a sibling to the start of this node
+		 */
+		void takeLast(Inner that, int n) {
+			System.arraycopy(children, 0, children, n, count);
+			System.arraycopy(that.children, that.count - n, children, 0, n);
+			count += n;
+			updateEnds(0);
+
+			for (int c = that.count - n; c < that.count; c++) {
+				that.children[c] = null;
+			}
+			that.count -= n;
+		}
+	}
+
+	private final TreeConfiguration	configuration;
+	private final int				maxFanout;
+	private final int				minFanout;
+	private final int				targetLeafSize;
+	private final int				maxLeafSize;
+
+	/** Leaves modified since they were last compacted, least recently modified first */
+	final Set<Leaf> dirtyLeaves = new LinkedHashSet<>();
+
+	Inner root;
+
+	/** Counts writes to the tree, so that cursors can tell when their leaf may have been replaced */
+	transient int version;
+
+	public WideTree() {
+		this(TreeConfiguration.DEFAULT);
+	}
+
+	/**
+	 * Creates a tree whose leaves are sized by the given configuration
+	 */
+	public WideTree(TreeConfiguration configuration) {
+		this(MAX_FANOUT, configuration);
+	}
+
+	WideTree(int maxFanout, int targetLeafSize, int maxLeafSize) {
+		this(maxFanout, TreeConfiguration.DEFAULT.withLeafSizes(targetLeafSize, maxLeafSize));
+	}
+
+	WideTree(int maxFanout, TreeConfiguration configuration) {
+		this.configuration = configuration;
+		this.maxFanout = maxFanout;
+		this.minFanout = Math.max(2, maxFanout / 4);
+		this.targetLeafSize = configuration.getTargetLeafSize();
+		this.maxLeafSize = configuration.getMaxLeafSize();
+		root = emptyRoot();
+	}
+
+	private Inner emptyRoot() {
+		Inner node = new Inner(true, maxFanout);
+		node.insertChild(0, new Leaf(dirtyLeaves));
+		node.updateEnds(0);
+		return node;
+	}
+
+	@Override
+	public int version() {
+		return version;
+	}
+
+	@Override
+	public TreeConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	@Override
+	public int size() {
+		return root.size();
+	}
+
+	@Override
+	public long getLong(int index) {
+		assert index < size() && index >= 0;
+
+		Inner node = root;
+		while (true) {
+			int c = node.find(index);
+			index -= node.start(c);
+			if (node.leaves) {
+				return ((Leaf) node.children[c]).getLong(index);
+			}
+			node = (Inner) node.children[c];
+		}
+	}
+
+	@Override
+	public long setLong(int index, long element) {
+		assert index < size() && index >= 0;
+		version++;
+
+		Inner node = root;
+		while (true) {
+			int c = node.find(index);
+			index -= node.start(c);
+			if (node.leaves) {
+				return ((Leaf) node.children[c]).setLong(index, element);
+			}
+			node = (Inner) node.children[c];
+		}
+	}
+
+	@Override
+	public void addLong(int index, long element) {
+		assert index <= size() && index >= 0;
+		version++;
+
+		Inner sibling = add(root, index, element);
+		if (sibling != null) {
+			growRoot(sibling);
+		}
+	}
+
+	/**
+	 * Grows the tree by one level, after the root has been split
+	 */
+	private void growRoot(Inner sibling) {
+		Inner newRoot = new Inner(false, maxFanout);
+		newRoot.insertChild(0, root);
+		newRoot.insertChild(1, sibling);
+		newRoot.updateEnds(0);
+		root = newRoot;
+	}
+
+	/**
+	 * Inserts a value below the given node
+	 *
+	 * @return A new sibling holding the upper half of the node's children if it was split, or null
+	 */
+	private Inner add(Inner node, int index, long element) {
+		int c = node.findInsert(index);
+		index -= node.start(c);
+
+		if (node.leaves) {
+			Leaf leaf = (Leaf) node.children[c];
+			if (leaf.splitBefore(index, element, targetLeafSize, maxLeafSize)) {
+				Leaf right = leaf.split(index);
+				node.insertChild(c + 1, right);
+				if (right.size() == 0) {
+					// Appending to a full leaf
+					right.addLong(0, element);
+				} else {
+					leaf.addLong(index, element);
+				}
+				node.updateEnds(c);
+			} else {
+				leaf.addLong(index, element);
+				node.adjustEnds(c, 1);
+			}
+		} else {
+			Inner sibling = add((Inner) node.children[c], index, element);
+			if (sibling != null) {
+				node.insertChild(c + 1, sibling);
+				node.updateEnds(c);
+			} else {
+				node.adjustEnds(c, 1);
+			}
+		}
+
+		if (node.count > maxFanout) {
+			return node.split(maxFanout);
+		}
+		return null;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		assert index < size() && index >= 0;
+		version++;
+
+		long oldValue = remove(root, index);
+		if (root.count > maxFanout) {
+			growRoot(root.split(maxFanout));
+		} else if (root.count == 0) {
+			root = emptyRoot();
+		}
+		while (!root.leaves && root.count == 1) {
+			// Shrink the tree by one level
+			root = (Inner) root.children[0];
+		}
+		return oldValue;
+	}
+
+	private long remove(Inner node, int index) {
+		int c = node.find(index);
+		index -= node.start(c);
+
+		long oldValue;
+		if (node.leaves) {
+			Leaf leaf = (Leaf) node.children[c];
+			if (leaf.canRemove(index)) {
+				oldValue = leaf.removeLong(index);
+				node.adjustEnds(c, -1);
+			} else {
+				// Other leaves only support removal from either end
+				node.insertChild(c + 1, leaf.split(index + 1));
+				oldValue = leaf.removeLong(index);
+				node.updateEnds(c);
+			}
+
+			if (leaf.size() == 0 && (node != root || node.count > 1)) {
+				leaf.release();
+				node.removeChild(c);
+			}
+		} else {
+			Inner child = (Inner) node.children[c];
+			oldValue = remove(child, index);
+			node.adjustEnds(c, -1);
+
+			if (child.count > maxFanout) {
+				// A leaf was split to remove a value from its middle
+				node.insertChild(c + 1, child.split(maxFanout));
+				node.updateEnds(c);
+			} else if (child.count == 0) {
+				node.removeChild(c);
+			} else if (child.count < minFanout) {
+				rebalance(node, c);
+			}
+		}
+		return oldValue;
+	}
+
+	/**
+	 * Merges an inner node which has too few children with a sibling, or moves children from the
+	 * sibling if there are too many to merge
+	 *
+	 * @return The index of the node holding the merged children, or -1 if children were moved
+	 */
+	private int rebalance(Inner parent, int c) {
+		int a = c + 1 < parent.count ? c : c - 1;
+		Inner first = (Inner) parent.children[a];
+		Inner second = (Inner) parent.children[a + 1];
+
+		int total = first.count + second.count;
+		if (total <= maxFanout) {
+			first.takeFirst(second, second.count);
+			parent.removeChild(a + 1);
+			parent.updateEnds(a);
+			return a;
+		}
+
+		if (first.count < second.count) {
+			first.takeFirst(second, second.count - total / 2);
+		} else {
+			second.takeLast(first, first.count - total / 2);
+		}
+		parent.updateEnds(a);
+		return -1;
+	}
+
+	public void maintain() {
+		maintain(CompactionPolicy.getDefault());
+	}
+
+	@Override
+	public void maintain(CompactionPolicy policy) {
+		version++;
+		Iterator<Leaf> i = dirtyLeaves.iterator();
+		if (i.hasNext()) {
+			i.next().compact(policy.forMaintenance());
+		}
+	}
+
+	public void compact() {
+		compact(CompactionPolicy.getDefault());
+	}
+
+	/**
+	 * Merges runs of adjacent small leaves, and tries to find more efficient in-memory
+	 * representations for each leaf
+	 *
+	 * @param policy
+	 *            Chooses the representation for each leaf
+	 */
+	@Override
+	public void compact(CompactionPolicy policy) {
+		version++;
+		compact(root, policy);
+		while (!root.leaves && root.count == 1) {
+			root = (Inner) root.children[0];
+		}
+	}
+
+	private void compact(Inner node, CompactionPolicy policy) {
+		if (node.leaves) {
+			for (int c = 0; c < node.count; c++) {
+				// Find the run of leaves starting here which fit in a single leaf
+				int end = c + 1;
+				int size = node.childSize(c);
+				while (end < node.count && size + node.childSize(end) <= targetLeafSize) {
+					size += node.childSize(end++);
+				}
+
+				if (end - c > 1) {
+					Leaf merged = Leaf.merge(node.children, c, end, policy);
+					node.children[c] = merged;
+					System.arraycopy(node.children, end, node.children, c + 1, node.count - end);
+					for (int i = node.count - (end - c - 1); i < node.count; i++) {
+						node.children[i] = null;
+					}
+					node.count -= end - c - 1;
+					node.updateEnds(c);
+				} else {
+					((Leaf) node.children[c]).compact(policy);
+				}
+			}
+			return;
+		}
+
+		for (int c = 0; c < node.count; c++) {
+			compact((Inner) node.children[c], policy);
+		}
+		for (int c = 0; c < node.count; c++) {
+			while (node.count > 1 && ((Inner) node.children[c]).count < minFanout) {
+				int merged = rebalance(node, c);
+				if (merged < 0) {
+					break;
+				}
+				c = merged;
+			}
+		}
+	}
+
+	public void archive() {
+		archive(CompactionPolicy.MINIMUM_SIZE);
+	}
+
+	@Override
+	public void archive(CompactionPolicy policy) {
+		version++;
+		walk(root, Leaf::archive);
+		compact(policy);
+	}
+
+	/**
+	 * @return the number of levels of inner nodes above the leaves
+	 */
+	public int height() {
+		int height = 1;
+		for (Inner node = root; !node.leaves; node = (Inner) node.children[0]) {
+			height++;
+		}
+		return height;
+	}
+
+	@Override
+	public void walk(Consumer<Store> leafConsumer) {
+		walk(root, leaf -> leafConsumer.accept(leaf.getStorage()));
+	}
+
+	private void walk(Inner node, Consumer<Leaf> leafConsumer) {
+		for (int c = 0; c < node.count; c++) {
+			if (node.leaves) {
+				leafConsumer.accept((Leaf) node.children[c]);
+			} else {
+				walk((Inner) node.children[c], leafConsumer);
+			}
+		}
+	}
+
+	@Override
+	public int searchLong(long value) {
+		if (size() == 0) {
+			return -1;
+		}
+
+		Inner node = root;
+		int start = 0;
+		while (true) {
+			// Find the last child starting with a value no larger than the one sought
+			int low = 0, high = node.count - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (first(node, mid) <= value) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+
+			if (node.leaves) {
+				int index = ((Leaf) node.children[low]).elements.searchLong(value);
+				start += node.start(low);
+				return index < 0 ? index - start : index + start;
+			}
+			start += node.start(low);
+			node = (Inner) node.children[low];
+		}
+	}
+
+	/**
+	 * @return the first value below a child of the given node, following the first child at each
+	 *         level rather than descending from the root
+	 */
+	private static long first(Inner node, int c) {
+		Object child = node.children[c];
+		while (!node.leaves) {
+			node = (Inner) child;
+			child = node.children[0];
+		}
+		return ((Leaf) child).getLong(0);
+	}
+
+	@Override
+	public Store locate(int index, int[] start) {
+		Inner node = root;
+		start[0] = 0;
+		while (true) {
+			int c = node.find(index - start[0]);
+			start[0] += node.start(c);
+			if (node.leaves) {
+				return ((Leaf) node.children[c]).getStorage();
+			}
+			node = (Inner) node.children[c];
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WideTree: height %d, size %d", height(), size());
+	}
+}
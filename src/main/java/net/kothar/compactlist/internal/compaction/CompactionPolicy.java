@@ -0,0 +1,154 @@
+package net.kothar.compactlist.internal.compaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses how the values in each leaf are stored when a list is compacted. The strategy needing
+ * the fewest bits is chosen, from those whose access cost is within the policy's ceiling. Slower
+ * strategies must save a fraction of the bits for each doubling of their access cost, so that a
+ * small saving does not make every read of the leaf several times slower.
+ * <p>
+ * Routine maintenance of a list uses {@link #forMaintenance()}, which leaves out sealed strategies
+ * and strategies slower than {@link #FAST_ACCESS} allows, so that leaves which are still being
+ * written are not rebuilt into stores that are slow to read or expensive to modify. A policy can be
+ * set for each list, or as the default for all lists.
+ */
+public class CompactionPolicy {
+
+	/** Allows every strategy, regardless of access cost */
+	public static final CompactionPolicy MINIMUM_SIZE = new CompactionPolicy(Integer.MAX_VALUE);
+
+	/** The largest access cost allowed when maintaining a list as it is written */
+	private static final int MAINTENANCE_ACCESS_COST = 2;
+
+	/**
+	 * Allows only strategies which read a value in about the time of a primitive array read. This
+	 * is the ceiling used by routine maintenance, whichever policy a list has.
+	 */
+	public static final CompactionPolicy FAST_ACCESS = new CompactionPolicy(MAINTENANCE_ACCESS_COST);
+
+	/**
+	 * Allows strategies which decode a value with a lookup or a short search, such as run-length,
+	 * dictionary, sparse, patched and Elias-Fano storage, but not those which decode a block of
+	 * values. This is the default policy.
+	 */
+	public static final CompactionPolicy BALANCED = new CompactionPolicy(4);
+
+	/** Each doubling of a strategy's access cost adds this power of two fraction of its bits */
+	private static final int COST_SHIFT = 3;
+
+	private static volatile CompactionPolicy defaultPolicy = BALANCED;
+
+	private final int					maxAccessCost;
+	private final CompactionStrategy[]	strategies;
+	private final CompactionPolicy		maintenancePolicy;
+
+	/**
+	 * Creates a policy using the standard strategies
+	 * 
+	 * @param maxAccessCost
+	 *            The largest access cost allowed for a chosen strategy
+	 */
+	public CompactionPolicy(int maxAccessCost) {
+		this(maxAccessCost, StandardStrategy.values());
+	}
+
+	/**
+	 * @param maxAccessCost
+	 *            The largest access cost allowed for a chosen strategy
+	 * @param strategies
+	 *            The strategies to consider, in order of preference when they need the same number
+	 *            of bits
+	 */
+	public CompactionPolicy(int maxAccessCost, CompactionStrategy... strategies) {
+		this.maxAccessCost = maxAccessCost;
+		this.strategies = Arrays.copyOf(strategies, strategies.length, CompactionStrategy[].class);
+
+		List<CompactionStrategy> unsealed = new ArrayList<>();
+		for (CompactionStrategy strategy : strategies) {
+			if (!strategy.isSealed()) {
+				unsealed.add(strategy);
+			}
+		}
+		boolean maintainable = unsealed.size() == strategies.length && maxAccessCost <= MAINTENANCE_ACCESS_COST;
+		this.maintenancePolicy = maintainable ? this
+			: new CompactionPolicy(Math.min(maxAccessCost, MAINTENANCE_ACCESS_COST), unsealed.toArray(new CompactionStrategy[0]));
+	}
+
+	/**
+	 * @return the policy used by lists which do not have their own
+	 */
+	public static CompactionPolicy getDefault() {
+		return defaultPolicy;
+	}
+
+	/**
+	 * Sets the policy used by lists which do not have their own
+	 */
+	public static void setDefault(CompactionPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("Default compaction policy cannot be null");
+		}
+		defaultPolicy = policy;
+	}
+
+	/**
+	 * @return a new policy with the same access cost ceiling, which also considers the given
+	 *         strategies after the existing ones
+	 */
+	public CompactionPolicy withStrategies(CompactionStrategy... additional) {
+		CompactionStrategy[] combined = Arrays.copyOf(strategies, strategies.length + additional.length);
+		System.arraycopy(additional, 0, combined, strategies.length, additional.length);
+		return new CompactionPolicy(maxAccessCost, combined);
+	}
+
+	/**
+	 * @return the policy used to compact recently modified leaves, which considers the same
+	 *         strategies as this one except those which are {@link CompactionStrategy#isSealed()
+	 *         sealed}, and allows an access cost of at most that of {@link #FAST_ACCESS}
+	 */
+	public CompactionPolicy forMaintenance() {
+		return maintenancePolicy;
+	}
+
+	/**
+	 * @return true if a strategy with the given access cost may be chosen
+	 */
+	public boolean allows(int accessCost) {
+		return accessCost <= maxAccessCost;
+	}
+
+	/**
+	 * @return the strategy needing the fewest bits for the analysed values, weighted by access cost,
+	 *         or null if no strategy is allowed to store them
+	 */
+	public CompactionStrategy choose(StorageAnalysis analysis) {
+		CompactionStrategy best = null;
+		long bestBits = Long.MAX_VALUE;
+		for (CompactionStrategy strategy : strategies) {
+			int accessCost = strategy.accessCost(analysis);
+			if (!allows(accessCost)) {
+				continue;
+			}
+			long bits = weigh(strategy.estimateBits(analysis), accessCost);
+			if (bits < bestBits) {
+				best = strategy;
+				bestBits = bits;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the estimated bits, increased by an eighth for each doubling of the access cost
+	 */
+	private static long weigh(long bits, int accessCost) {
+		if (bits == Long.MAX_VALUE || accessCost <= 1) {
+			return bits;
+		}
+		int doublings = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(accessCost);
+		return bits + (bits >> COST_SHIFT) * doublings;
+	}
+}
@@ -0,0 +1,46 @@
+package net.kothar.compactlist.internal.compaction;
+
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * A way of storing the values in a leaf node, which can be registered with a
+ * {@link CompactionPolicy}
+ */
+public interface CompactionStrategy {
+
+	/**
+	 * @param analysis
+	 *            The analysed values in a leaf
+	 * @return the number of bits needed to store the values, or {@link Long#MAX_VALUE} if this
+	 *         strategy cannot store them
+	 */
+	long estimateBits(StorageAnalysis analysis);
+
+	/**
+	 * @param analysis
+	 *            The analysed values in a leaf
+	 * @return the relative cost of reading a single value, where reading from a primitive array
+	 *         costs 1
+	 */
+	int accessCost(StorageAnalysis analysis);
+
+	/**
+	 * @return true if the stores built by this strategy are only worth building for leaves which
+	 *         are not expected to be written again, so that the strategy is only considered when a
+	 *         list is compacted or archived explicitly, and not during routine maintenance
+	 */
+	default boolean isSealed() {
+		return false;
+	}
+
+	/**
+	 * Creates a store containing the analysed values
+	 * 
+	 * @param analysis
+	 *            The analysis of the values
+	 * @param elements
+	 *            The values to be stored
+	 * @return The new store, or the existing store if it already uses this strategy
+	 */
+	Store build(StorageAnalysis analysis, Store elements);
+}
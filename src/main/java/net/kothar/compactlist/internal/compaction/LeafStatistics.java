@@ -0,0 +1,222 @@
+package net.kothar.compactlist.internal.compaction;
+
+import java.io.Serializable;
+
+import net.kothar.compactlist.internal.storage.BitPackedStore;
+import net.kothar.compactlist.internal.storage.DictionaryStore;
+import net.kothar.compactlist.internal.storage.PatchedStore;
+import net.kothar.compactlist.internal.storage.RunLengthStore;
+import net.kothar.compactlist.internal.storage.SparseStore;
+import net.kothar.compactlist.internal.storage.Store;
+
+/**
+ * Statistics for the values in a leaf, updated as values are written so that the leaf does not
+ * need to be scanned to find them. Removing or replacing the smallest or largest value invalidates
+ * the statistics, which are recalculated from the leaf when next needed.
+ * <p>
+ * The statistics also record the outcome of the last full {@link StorageAnalysis} of the leaf, so
+ * that a leaf which has only had a few values written within its range since then can be compacted
+ * again without another analysis.
+ */
+public class LeafStatistics implements Serializable {
+
+	private static final long serialVersionUID = -4620918462871893546L;
+
+	/** A leaf is analysed again once this power of two fraction of its values have been written */
+	private static final int REANALYSIS_SHIFT = 3;
+
+	private long	min	= Long.MAX_VALUE, max = Long.MIN_VALUE;
+	private boolean	ascending;
+	private boolean	valid;
+
+	/** The number of writes since the leaf was last compacted */
+	private int modifications;
+
+	/** The number of writes since the leaf was last analysed */
+	private int unanalysed;
+
+	/** The width of the range and the order of the values when the leaf was last analysed */
+	private int		analysedWidth;
+	private boolean	analysedAscending;
+
+	/** The store built from the last analysis, while it still holds the leaf's values */
+	private transient Store encoded;
+
+	/**
+	 * Set if the size of the encoded store depends on the runs, distinct values or exceptions in
+	 * the leaf, which any write may change
+	 */
+	private transient boolean shaped;
+
+	/**
+	 * Creates statistics for a leaf, which will be calculated when first needed unless the leaf is
+	 * empty
+	 */
+	public LeafStatistics(Store elements) {
+		valid = elements.isEmpty();
+		ascending = valid;
+	}
+
+	/**
+	 * Recalculates the statistics if they have been invalidated
+	 */
+	private void validate(Store elements) {
+		if (valid) {
+			return;
+		}
+
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+		ascending = true;
+		long previous = Long.MIN_VALUE;
+		for (int i = 0; i < elements.size(); i++) {
+			long v = elements.getLong(i);
+			if (v < min) {
+				min = v;
+			}
+			if (v > max) {
+				max = v;
+			}
+			if (v < previous) {
+				ascending = false;
+			}
+			previous = v;
+		}
+		valid = true;
+	}
+
+	/**
+	 * @return the smallest value in the leaf
+	 */
+	public long min(Store elements) {
+		validate(elements);
+		return min;
+	}
+
+	/**
+	 * @return the largest value in the leaf
+	 */
+	public long max(Store elements) {
+		validate(elements);
+		return max;
+	}
+
+	/**
+	 * @return true if every value in the leaf is at least as large as the one before it
+	 */
+	public boolean isAscending(Store elements) {
+		validate(elements);
+		return ascending;
+	}
+
+	/**
+	 * @return the number of writes since the leaf was last compacted
+	 */
+	public int modifications() {
+		return modifications;
+	}
+
+	/**
+	 * Checks whether the strategy chosen by the last analysis still suits the leaf, from the
+	 * running statistics alone. This is the case while the leaf is held in the store built from
+	 * that analysis, fewer than an eighth of its values have been written since, and the width of
+	 * its range and the order of its values are unchanged. A store whose size depends on the runs,
+	 * distinct values or exceptions in the leaf is only settled until the next write.
+	 * 
+	 * @return true if the leaf does not need to be analysed again to be compacted
+	 */
+	public boolean isSettled(Store elements) {
+		if (elements != encoded || unanalysed > elements.size() >> REANALYSIS_SHIFT || (shaped && unanalysed > 0)) {
+			return false;
+		}
+		return BitPackedStore.bitWidth(max(elements) - min(elements)) == analysedWidth
+			&& isAscending(elements) == analysedAscending;
+	}
+
+	/**
+	 * Records that the leaf has been compacted without a new analysis
+	 */
+	public void settled() {
+		modifications = 0;
+	}
+
+	/**
+	 * Updates the statistics before a value is inserted into the leaf
+	 */
+	public void adding(Store elements, int index, long value) {
+		modifications++;
+		unanalysed++;
+		if (!valid) {
+			return;
+		}
+
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+		if (ascending && ((index > 0 && elements.getLong(index - 1) > value)
+			|| (index < elements.size() && elements.getLong(index) < value))) {
+			ascending = false;
+		}
+	}
+
+	/**
+	 * Updates the statistics after a value in the leaf has been replaced
+	 */
+	public void replaced(Store elements, int index, long oldValue, long value) {
+		modifications++;
+		unanalysed++;
+		if (!valid || oldValue == value) {
+			return;
+		}
+
+		if ((oldValue == min && value > min) || (oldValue == max && value < max)) {
+			valid = false;
+			return;
+		}
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+		if (ascending && ((index > 0 && elements.getLong(index - 1) > value)
+			|| (index < elements.size() - 1 && elements.getLong(index + 1) < value))) {
+			ascending = false;
+		}
+	}
+
+	/**
+	 * Updates the statistics after a value has been removed from the leaf. Removing a value keeps
+	 * ascending values in order.
+	 */
+	public void removed(long value) {
+		modifications++;
+		unanalysed++;
+		if (value == min || value == max) {
+			valid = false;
+		}
+	}
+
+	/**
+	 * Replaces the statistics with the results of a full analysis of the leaf
+	 * 
+	 * @param encoded
+	 *            The store built from the analysis
+	 */
+	public void analysed(StorageAnalysis analysis, Store encoded) {
+		min = analysis.min;
+		max = analysis.max;
+		ascending = analysis.ascending;
+		valid = true;
+		modifications = 0;
+		unanalysed = 0;
+		analysedWidth = BitPackedStore.bitWidth(analysis.range());
+		analysedAscending = analysis.ascending;
+		this.encoded = encoded;
+		shaped = encoded instanceof RunLengthStore || encoded instanceof DictionaryStore
+			|| encoded instanceof SparseStore || encoded instanceof PatchedStore;
+	}
+}
@@ -0,0 +1,247 @@
+package net.kothar.compactlist.internal.compaction;
+
+import net.kothar.compactlist.internal.storage.BitPackedStore;
+import net.kothar.compactlist.internal.storage.ByteArrayStore;
+import net.kothar.compactlist.internal.storage.ConstantStore;
+import net.kothar.compactlist.internal.storage.DictionaryStore;
+import net.kothar.compactlist.internal.storage.EliasFanoStore;
+import net.kothar.compactlist.internal.storage.IntArrayStore;
+import net.kothar.compactlist.internal.storage.LinearStore;
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.PatchedStore;
+import net.kothar.compactlist.internal.storage.ResidualLinearStore;
+import net.kothar.compactlist.internal.storage.RunLengthStore;
+import net.kothar.compactlist.internal.storage.ShortArrayStore;
+import net.kothar.compactlist.internal.storage.SparseStore;
+import net.kothar.compactlist.internal.storage.Store;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore.Encoding;
+
+/**
+ * The built-in compaction strategies. Where two strategies need the same number of bits, the one
+ * declared first is preferred.
+ */
+public enum StandardStrategy implements CompactionStrategy {
+
+	/** Every value is the same */
+	CONSTANT(1) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			return analysis.range() == 0 ? 0 : Long.MAX_VALUE;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new ConstantStore(elements);
+		}
+	},
+
+	/** Values follow an arithmetic progression exactly */
+	LINEAR(1) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			return analysis.residualRange() == 0 ? 0 : Long.MAX_VALUE;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new LinearStore(analysis.first, analysis.step, analysis.size);
+		}
+	},
+
+	/** Values are packed into the narrowest width which holds their range */
+	PACKED(1) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			return (long) analysis.size * BitPackedStore.bitWidth(analysis.range());
+		}
+
+		@Override
+		public int accessCost(StorageAnalysis analysis) {
+			return isWordAligned(BitPackedStore.bitWidth(analysis.range())) ? 1 : 2;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			Store store = compactStore(analysis.range(), analysis.min, elements);
+			if (store != null) {
+				return store;
+			}
+			return elements instanceof LongArrayStore ? elements : new LongArrayStore(elements);
+		}
+	},
+
+	/** Values follow a progression closely enough to store only their residuals */
+	RESIDUAL_LINEAR(2) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			int width = BitPackedStore.bitWidth(analysis.residualRange());
+			return width < Long.SIZE ? (long) analysis.size * width : Long.MAX_VALUE;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new ResidualLinearStore(analysis.first, analysis.step,
+				compactStore(analysis.residualRange(), analysis.residualMin), elements);
+		}
+	},
+
+	/** Values in ascending order, such as the contents of a sorted list or set */
+	ELIAS_FANO(4) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			if (!analysis.ascending || analysis.range() <= 0) {
+				return Long.MAX_VALUE;
+			}
+			return EliasFanoStore.encodedBits(analysis.range(), analysis.size);
+		}
+
+		@Override
+		public boolean isSealed() {
+			// Inserts into the middle of a sorted list or set rebuild the whole store
+			return true;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new EliasFanoStore(elements);
+		}
+	},
+
+	/** Regular timestamps or slowly changing samples, sealed until the next write */
+	TIME_SERIES(TimeSeriesStore.CHECKPOINT_INTERVAL / 2) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			return Math.min(analysis.deltaOfDeltaBits, analysis.xorBits);
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new TimeSeriesStore(analysis.deltaOfDeltaBits <= analysis.xorBits
+				? Encoding.DELTA_OF_DELTA : Encoding.XOR, elements);
+		}
+
+		@Override
+		public boolean isSealed() {
+			// Any write other than at the ends decodes the whole leaf
+			return true;
+		}
+	},
+
+	/** Mostly a single value, with a few exceptions */
+	SPARSE(3) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			int exceptions = analysis.size - analysis.modeCount;
+			if (analysis.modeCount == 0 || exceptions > SparseStore.maxExceptions(analysis.size)) {
+				return Long.MAX_VALUE;
+			}
+			return (long) exceptions * SparseStore.EXCEPTION_WIDTH;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new SparseStore(analysis.mode, analysis.size - analysis.modeCount, elements);
+		}
+	},
+
+	/** Long runs of repeated values */
+	RUN_LENGTH(3) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			return (long) analysis.runs * RunLengthStore.RUN_WIDTH;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new RunLengthStore(elements, analysis.runs);
+		}
+	},
+
+	/** Few distinct values spread over a wide range */
+	DICTIONARY(3) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			if (analysis.distinct > StorageAnalysis.DISTINCT_LIMIT) {
+				return Long.MAX_VALUE;
+			}
+			return (long) analysis.distinct * Long.SIZE
+				+ (long) analysis.size * DictionaryStore.codeWidth(analysis.distinct);
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new DictionaryStore(analysis.distinctValues(), elements);
+		}
+	},
+
+	/** A few outliers stored separately from the bulk of the values */
+	PATCHED(3) {
+		@Override
+		public long estimateBits(StorageAnalysis analysis) {
+			return analysis.patchBits;
+		}
+
+		@Override
+		public Store build(StorageAnalysis analysis, Store elements) {
+			return new PatchedStore(analysis.patchWidth, analysis.patchBase, elements);
+		}
+	};
+
+	private final int accessCost;
+
+	private StandardStrategy(int accessCost) {
+		this.accessCost = accessCost;
+	}
+
+	@Override
+	public int accessCost(StorageAnalysis analysis) {
+		return accessCost;
+	}
+
+	private static boolean isWordAligned(int width) {
+		return width == Byte.SIZE || width == Short.SIZE || width == Integer.SIZE || width == Long.SIZE;
+	}
+
+	/**
+	 * Creates an empty compact store able to hold the given range of values. Word-aligned widths
+	 * use a primitive array of that width, other widths are bit-packed.
+	 * 
+	 * @param range
+	 *            The difference between the largest and smallest values to be stored
+	 * @param valueOffset
+	 *            The smallest value to be stored
+	 * @return The new store, or null if no compact store can hold the range
+	 */
+	private static Store compactStore(long range, long valueOffset) {
+		int width = BitPackedStore.bitWidth(range);
+		switch (width) {
+		case Byte.SIZE:
+			return new ByteArrayStore(valueOffset);
+		case Short.SIZE:
+			return new ShortArrayStore(valueOffset);
+		case Integer.SIZE:
+			return new IntArrayStore(valueOffset);
+		case Long.SIZE:
+			return null;
+		default:
+			return new BitPackedStore(Math.max(width, 1), valueOffset);
+		}
+	}
+
+	/**
+	 * Creates a compact store containing the given elements
+	 * 
+	 * @see #compactStore(long, long)
+	 */
+	private static Store compactStore(long range, long valueOffset, Store elements) {
+		Store store = compactStore(range, valueOffset);
+		if (store != null) {
+			store.allocate(elements.size());
+			for (int i = 0; i < elements.size(); i++) {
+				store.addLong(i, elements.getLong(i));
+			}
+		}
+		return store;
+	}
+}
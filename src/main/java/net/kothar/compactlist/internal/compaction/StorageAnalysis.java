@@ -1,61 +1,305 @@
 package net.kothar.compactlist.internal.compaction;
 
+import java.util.Arrays;
+
 import net.kothar.compactlist.LongList;
+import net.kothar.compactlist.internal.storage.BitPackedStore;
+import net.kothar.compactlist.internal.storage.PatchedStore;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore.Encoder;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore.Encoding;
 
 public class StorageAnalysis {
+
+	/** The largest number of distinct values which will be counted exactly */
+	public static final int DISTINCT_LIMIT = 1 << 8;
+
+	/** The largest number of outliers which will be excluded from the range of a patched frame */
+	public static final int OUTLIER_LIMIT = 32;
+
 	public long	first, last;
 	public long	min	= Long.MAX_VALUE, max = Long.MIN_VALUE;
 	public int	size;
 
+	/** The average difference between successive values, from first to last */
+	public long	step;
+	/** Bounds of the differences between each value and <code>first + index * step</code> */
+	public long	residualMin	= Long.MAX_VALUE, residualMax = Long.MIN_VALUE;
+	/** True if every value is at least as large as the one before it */
+	public boolean	ascending	= true;
+	/** The number of runs of repeated values */
+	public int	runs;
+	/** The number of distinct values, or {@link #DISTINCT_LIMIT} + 1 if there are more */
+	public int	distinct;
+
+	/**
+	 * The frame of reference which minimises the bits needed when outliers are stored as exceptions
+	 */
+	public long	patchBase;
+	public int	patchWidth, patchExceptions;
+	public long	patchBits	= Long.MAX_VALUE;
+
+	/**
+	 * The most common value and its number of occurrences. Only counted if the value makes up more
+	 * than half of the values.
+	 */
+	public long	mode;
+	public int	modeCount;
+
+	/** The number of bits needed by each {@link TimeSeriesStore} encoding */
+	public long	deltaOfDeltaBits, xorBits;
+
+	private final LongList	storage;
+	private final int		index;
+	private final boolean	set;
+	private final long		newValue;
+
+	private long		previous;
+	private long		modeCandidate;
+	private int			modeVotes;
+	private long[]		distinctTable		= new long[DISTINCT_LIMIT * 2];
+	private boolean[]	distinctOccupied	= new boolean[DISTINCT_LIMIT * 2];
+	private long[]		lowest				= new long[OUTLIER_LIMIT + 1];
+	private long[]		highest				= new long[OUTLIER_LIMIT + 1];
+	private int			outliers;
+	private Encoder		deltaOfDelta		= new Encoder(Encoding.DELTA_OF_DELTA, false);
+	private Encoder		xor					= new Encoder(Encoding.XOR, false);
+
+	/**
+	 * Analyses the values in a store as they would be after a pending write
+	 * 
+	 * @param storage
+	 *            The values to analyse
+	 * @param index
+	 *            The position of the pending write
+	 * @param set
+	 *            true if the write replaces an existing value, false if it inserts a new value
+	 * @param newValue
+	 *            The value to be written
+	 */
 	public StorageAnalysis(LongList storage, int index, boolean set, long newValue) {
+		this.storage = storage;
+		this.index = index;
+		this.set = set;
+		this.newValue = newValue;
+		size = set ? storage.size() : storage.size() + 1;
+		analyse();
+	}
+
+	public StorageAnalysis(LongList storage) {
+		this.storage = storage;
+		this.index = -1;
+		this.set = true;
+		this.newValue = 0;
 		size = storage.size();
-		first = index == 0 ? newValue : storage.getLong(0);
-
-		if (set) {
-			last = index == size - 1 ? newValue : storage.getLong(size - 1);
-			for (int i = 0; i < size; i++) {
-				long v = index == i ? newValue : storage.getLong(i);
-				if (v < min) {
-					min = v;
-				}
-				if (v > max) {
-					max = v;
-				}
+		analyse();
+	}
+
+	/**
+	 * @return the difference between the largest and smallest values
+	 */
+	public long range() {
+		return max - min;
+	}
+
+	/**
+	 * @return the difference between the largest and smallest residuals from the progression
+	 */
+	public long residualRange() {
+		return residualMax - residualMin;
+	}
+
+	private long valueAt(int i) {
+		if (i == index) {
+			return newValue;
+		}
+		return storage.getLong(set || i < index ? i : i - 1);
+	}
+
+	private void analyse() {
+		first = valueAt(0);
+		last = valueAt(size - 1);
+		step = size > 1 ? (last - first) / (size - 1) : 0;
+
+		for (int i = 0; i < size; i++) {
+			observe(i, valueAt(i));
+		}
+		choosePatchedFrame();
+		countMode();
+		deltaOfDeltaBits = deltaOfDelta.bits();
+		xorBits = xor.bits();
+	}
+
+	/**
+	 * Counts the candidate found by majority vote, which is the mode if any value makes up more than
+	 * half of the values
+	 */
+	private void countMode() {
+		if (min == max) {
+			mode = min;
+			modeCount = size;
+			return;
+		}
+		if (modeVotes == 0) {
+			return;
+		}
+
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (valueAt(i) == modeCandidate) {
+				count++;
 			}
-		} else {
-			last = index == size ? newValue : storage.getLong(size - 1);
-			for (int i = 0; i < size; i++) {
-				long v = storage.getLong(i);
-				if (v < min) {
-					min = v;
+		}
+		if (count > size / 2) {
+			mode = modeCandidate;
+			modeCount = count;
+		}
+	}
+
+	/**
+	 * Inserts a value into the smallest values seen, which are kept in ascending order
+	 */
+	private void insertLowest(long v, int last) {
+		int i = last;
+		while (i > 0 && lowest[i - 1] > v) {
+			lowest[i] = lowest[i - 1];
+			i--;
+		}
+		lowest[i] = v;
+	}
+
+	/**
+	 * Inserts a value into the largest values seen, which are kept in descending order
+	 */
+	private void insertHighest(long v, int last) {
+		int i = last;
+		while (i > 0 && highest[i - 1] < v) {
+			highest[i] = highest[i - 1];
+			i--;
+		}
+		highest[i] = v;
+	}
+
+	/**
+	 * Finds the number of outliers to exclude from the bottom and top of the range of values which
+	 * minimises the total size of a patched store
+	 */
+	private void choosePatchedFrame() {
+		if (size <= 2 * outliers) {
+			// Outliers at each end may overlap
+			return;
+		}
+
+		for (int low = 0; low <= OUTLIER_LIMIT; low++) {
+			for (int high = 0; low + high <= OUTLIER_LIMIT; high++) {
+				long range = highest[high] - lowest[low];
+				if (range < 0) {
+					continue;
 				}
-				if (v > max) {
-					max = v;
+
+				int width = Math.max(1, BitPackedStore.bitWidth(range));
+				long bits = (long) size * width + (long) (low + high) * PatchedStore.EXCEPTION_WIDTH;
+				if (bits < patchBits) {
+					patchBits = bits;
+					patchBase = lowest[low];
+					patchWidth = width;
+					patchExceptions = low + high;
 				}
 			}
-			if (newValue < min) {
-				min = newValue;
+		}
+	}
+
+	private void countDistinct(long v) {
+		if (distinctTable == null) {
+			return;
+		}
+
+		int mask = distinctTable.length - 1;
+		int slot = (int) ((v * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		while (distinctOccupied[slot]) {
+			if (distinctTable[slot] == v) {
+				return;
 			}
-			if (newValue > max) {
-				max = newValue;
+			slot = (slot + 1) & mask;
+		}
+
+		if (++distinct > DISTINCT_LIMIT) {
+			distinctTable = null;
+			distinctOccupied = null;
+		} else {
+			distinctTable[slot] = v;
+			distinctOccupied[slot] = true;
+		}
+	}
+
+	/**
+	 * @return the distinct values observed in ascending order, or null if there were more than
+	 *         {@link #DISTINCT_LIMIT}
+	 */
+	public long[] distinctValues() {
+		if (distinctTable == null) {
+			return null;
+		}
+
+		long[] values = new long[distinct];
+		int count = 0;
+		for (int slot = 0; slot < distinctTable.length; slot++) {
+			if (distinctOccupied[slot]) {
+				values[count++] = distinctTable[slot];
 			}
-			size++;
 		}
+		Arrays.sort(values);
+		return values;
 	}
 
-	public StorageAnalysis(LongList storage) {
-		size = storage.size();
-		first = storage.getLong(0);
-		last = storage.getLong(size - 1);
+	private void observe(int index, long v) {
+		if (v < min) {
+			min = v;
+		}
+		if (v > max) {
+			max = v;
+		}
 
-		for (int i = 0; i < size; i++) {
-			long v = storage.getLong(i);
-			if (v < min) {
-				min = v;
+		if (index > 0 && v < previous) {
+			ascending = false;
+		}
+		if (index == 0 || v != previous) {
+			runs++;
+			countDistinct(v);
+		}
+		previous = v;
+
+		if (modeVotes == 0) {
+			modeCandidate = v;
+			modeVotes = 1;
+		} else if (v == modeCandidate) {
+			modeVotes++;
+		} else {
+			modeVotes--;
+		}
+
+		if (outliers <= OUTLIER_LIMIT) {
+			insertLowest(v, outliers);
+			insertHighest(v, outliers);
+			outliers++;
+		} else {
+			if (v < lowest[OUTLIER_LIMIT]) {
+				insertLowest(v, OUTLIER_LIMIT);
 			}
-			if (v > max) {
-				max = v;
+			if (v > highest[OUTLIER_LIMIT]) {
+				insertHighest(v, OUTLIER_LIMIT);
 			}
 		}
+
+		deltaOfDelta.add(v);
+		xor.add(v);
+
+		long residual = v - (first + index * step);
+		if (residual < residualMin) {
+			residualMin = residual;
+		}
+		if (residual > residualMax) {
+			residualMax = residual;
+		}
 	}
 }
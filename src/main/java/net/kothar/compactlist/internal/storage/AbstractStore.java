@@ -55,7 +55,7 @@ public abstract class AbstractStore extends AbstractList<Long> implements Store
 
 	public void copy(Store src, int dstOffset, int srcOffset, int length) {
 		for (int i = 0; i < length; i++) {
-			set(dstOffset + i, src.get(srcOffset + i));
+			setLong(dstOffset + i, src.getLong(srcOffset + i));
 		}
 	}
 
@@ -0,0 +1,187 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recycles the backing arrays of released {@link ArrayStore}s, so that workloads which keep
+ * splitting, merging and re-encoding leaves do not allocate a new array for each store.
+ * <p>
+ * Arrays are kept in buckets by the class of the store which released them, and so by element
+ * type, and by power of two length. While a pool is in use, new arrays are allocated with a power
+ * of two length so that they can be handed out again for any request in their bucket. The pool
+ * holds at most a fixed number of bytes, and drops arrays released once it is full.
+ * <p>
+ * Pooling is disabled unless a shared pool is set with {@link #setShared(ArrayPool)}. The pool is
+ * shared by all lists, and is safe to use from several threads.
+ */
+public class ArrayPool {
+
+	/** Arrays shorter than this are not pooled, since they are cheap to allocate */
+	public static final int MIN_LENGTH = 1 << 8;
+
+	/** Arrays longer than this are not pooled, since their length cannot be rounded up */
+	public static final int MAX_LENGTH = 1 << 30;
+
+	private static volatile ArrayPool shared;
+
+	private final long								maxBytes;
+	private final Map<Class<?>, ArrayDeque<Object>[]>	buckets	= new HashMap<>();
+
+	private long	bytes;
+	private long	hits, misses;
+
+	/**
+	 * @param maxBytes
+	 *            The largest number of bytes of arrays held by the pool
+	 */
+	public ArrayPool(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Pool size cannot be negative: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the pool used by all array stores, or null if arrays are not pooled
+	 */
+	public static ArrayPool getShared() {
+		return shared;
+	}
+
+	/**
+	 * Sets the pool used by all array stores
+	 *
+	 * @param pool
+	 *            The pool to use, or null to stop pooling arrays
+	 */
+	public static void setShared(ArrayPool pool) {
+		shared = pool;
+	}
+
+	/**
+	 * @return the length of the array to allocate while pooling, so that it can be reused for any
+	 *         request in the same bucket
+	 */
+	static int pooledLength(int length) {
+		if (length < MIN_LENGTH || length > MAX_LENGTH) {
+			return length;
+		}
+		return Integer.highestOneBit(length - 1) << 1;
+	}
+
+	/**
+	 * @param storeClass
+	 *            The class of the store requesting the array
+	 * @param width
+	 *            The number of bits in each element of the array
+	 * @param length
+	 *            The smallest length of the array
+	 * @return a released array of at least the given length, or null if the pool has none
+	 */
+	synchronized Object take(Class<?> storeClass, int width, int length) {
+		if (length < MIN_LENGTH || length > MAX_LENGTH) {
+			return null;
+		}
+
+		ArrayDeque<Object>[] classBuckets = buckets.get(storeClass);
+		ArrayDeque<Object> bucket = classBuckets == null ? null : classBuckets[bucket(pooledLength(length))];
+		if (bucket == null || bucket.isEmpty()) {
+			misses++;
+			return null;
+		}
+
+		Object array = bucket.pop();
+		bytes -= bytes(array, width);
+		hits++;
+		return array;
+	}
+
+	/**
+	 * Returns an array which is no longer used by any store
+	 *
+	 * @param storeClass
+	 *            The class of the store releasing the array
+	 * @param width
+	 *            The number of bits in each element of the array
+	 * @param array
+	 *            The released array
+	 * @return true if the array was added to the pool
+	 */
+	synchronized boolean give(Class<?> storeClass, int width, Object array) {
+		int length = Array.getLength(array);
+		if (length < MIN_LENGTH || length > MAX_LENGTH) {
+			return false;
+		}
+		long arrayBytes = bytes(array, width);
+		if (bytes + arrayBytes > maxBytes) {
+			return false;
+		}
+
+		// Arrays are filed under the largest power of two they can hold
+		ArrayDeque<Object>[] classBuckets = buckets.computeIfAbsent(storeClass, c -> newBuckets());
+		int index = bucket(Integer.highestOneBit(length));
+		if (classBuckets[index] == null) {
+			classBuckets[index] = new ArrayDeque<>();
+		}
+		classBuckets[index].push(array);
+		bytes += arrayBytes;
+		return true;
+	}
+
+	/**
+	 * @return an array with a bucket for each power of two length
+	 */
+	@SuppressWarnings("unchecked")
+	private static ArrayDeque<Object>[] newBuckets() {
+		return (ArrayDeque<Object>[]) new ArrayDeque<?>[Integer.SIZE];
+	}
+
+	private static int bucket(int powerOfTwo) {
+		return Integer.numberOfTrailingZeros(powerOfTwo);
+	}
+
+	private static long bytes(Object array, int width) {
+		return (long) Array.getLength(array) * width / Byte.SIZE;
+	}
+
+	/**
+	 * Drops all pooled arrays
+	 */
+	public synchronized void clear() {
+		buckets.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return the number of bytes of arrays currently held by the pool
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the number of requests served with a pooled array
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of requests which had to allocate a new array
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ArrayPool: %d of %d bytes, %d hits, %d misses", bytes, maxBytes, hits, misses);
+	}
+}
@@ -1,5 +1,8 @@
 package net.kothar.compactlist.internal.storage;
 
+import java.lang.reflect.Array;
+import java.util.function.LongConsumer;
+
 /**
  * A store based on a backing array of some kind
  * 
@@ -11,6 +14,12 @@ public abstract class ArrayStore<T> extends AbstractStore {
 
 	private static final long serialVersionUID = 7897845731880305143L;
 
+	/**
+	 * The fraction of its backing array below which a store is considered to be retaining the
+	 * array, typically after being split from stores which have since been released
+	 */
+	public static final double MIN_ARRAY_USE = 0.25;
+
 	protected T store;
 
 	/** The lowest index in the array which may be used by this store */
@@ -22,6 +31,13 @@ public abstract class ArrayStore<T> extends AbstractStore {
 	/** The highest index in the array which may be used by this store */
 	protected int limit;
 
+	/**
+	 * Unused slots between the elements, left by removals from the middle of the store. Edits near
+	 * the gap only move the elements between the edit and the gap. The gap lies before the element
+	 * at gapStart, and is absent if gapLength is 0.
+	 */
+	protected int gapStart, gapLength;
+
 	/**
 	 * Stores sharing the same backing array which may be handed a range when this store allocates a
 	 * new backing store.
@@ -55,16 +71,37 @@ public abstract class ArrayStore<T> extends AbstractStore {
 		base = 0;
 		offset = 0;
 		limit = capacity;
-		store = allocateArray(capacity);
+		gapLength = 0;
+		store = newArray(capacity);
+
+	}
+
+	/**
+	 * @return a new backing array of at least the given length, reused from the shared
+	 *         {@link ArrayPool} if one is set
+	 */
+	private T newArray(int length) {
+		ArrayPool pool = ArrayPool.getShared();
+		if (pool == null) {
+			return allocateArray(length);
+		}
 
+		@SuppressWarnings("unchecked")
+		T array = (T) pool.take(getClass(), getWidth(), length);
+		return array != null ? array : allocateArray(ArrayPool.pooledLength(length));
 	}
 
 	/**
 	 * Release existing backing store claim. Further reads or writes will fain unless
-	 * {@link #allocate(int)} is called
+	 * {@link #allocate(int)} is called. If no other store shares the backing array, it is returned
+	 * to the shared {@link ArrayPool}.
 	 */
 	@Override
 	public void release() {
+		ArrayPool pool = ArrayPool.getShared();
+		if (pool != null && store != null && left == null && right == null) {
+			pool.give(getClass(), getWidth(), store);
+		}
 
 		if (left != null) {
 			left.limit = limit;
@@ -83,6 +120,71 @@ public abstract class ArrayStore<T> extends AbstractStore {
 		store = null;
 	}
 
+	@Override
+	public void reserve(int capacity) {
+		if (capacity <= capacity()) {
+			return;
+		}
+
+		T newStore = newArray(capacity);
+		copyElements(newStore);
+		release();
+		store = newStore;
+		base = 0;
+		offset = 0;
+		limit = capacity;
+	}
+
+	/**
+	 * @return the length of the backing array, which may be shared with other stores
+	 */
+	public int arrayLength() {
+		return store == null ? 0 : Array.getLength(store);
+	}
+
+	/**
+	 * @return the backing array, which may be shared with other stores
+	 */
+	public Object getArray() {
+		return store;
+	}
+
+	/**
+	 * @return true if this store uses less than {@link #MIN_ARRAY_USE} of its backing array, so
+	 *         that {@link #trim()} would let a much larger array be collected
+	 */
+	public boolean isRetaining() {
+		int length = arrayLength();
+		return length - size > ALLOCATION_BUFFER && size < length * MIN_ARRAY_USE;
+	}
+
+	/**
+	 * Moves the elements to a new array of exactly their size, releasing this store's claim on the
+	 * current backing array. The new array is never taken from the {@link ArrayPool}, whose arrays
+	 * may be up to twice as long as needed.
+	 */
+	public void trim() {
+		T newStore = allocateArray(size);
+		copyElements(newStore);
+		release();
+		store = newStore;
+		base = 0;
+		offset = 0;
+		limit = size;
+	}
+
+	/**
+	 * Copies the elements to the start of another array, closing the gap
+	 */
+	private void copyElements(T target) {
+		int before = gapLength > 0 ? gapStart : size;
+		System.arraycopy(store, offset, target, 0, before);
+		if (before < size) {
+			System.arraycopy(store, offset + before + gapLength, target, before, size - before);
+		}
+		gapLength = 0;
+	}
+
 	@Override
 	public int capacity() {
 		return limit - base;
@@ -95,15 +197,76 @@ public abstract class ArrayStore<T> extends AbstractStore {
 
 	@Override
 	public int appendCapacity() {
-		return limit - offset - size;
+		return limit - offset - size - gapLength;
+	}
+
+	/**
+	 * @return the index in the array of the given element
+	 */
+	protected final int position(int index) {
+		return index < gapStart ? index + offset : index + offset + gapLength;
 	}
 
 	protected void setElement(int index, long value) {
-		setArrayElement(index + offset, value);
+		setArrayElement(position(index), value);
 	}
 
 	protected long getElement(int index) {
-		return getArrayElement(index + offset);
+		return getArrayElement(position(index));
+	}
+
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		// Visit the elements either side of the gap as runs of the array
+		int split = gapLength > 0 ? Math.max(from, Math.min(to, gapStart)) : to;
+		forEachArrayElement(offset + from, offset + split, action);
+		forEachArrayElement(offset + split + gapLength, offset + to + gapLength, action);
+	}
+
+	/**
+	 * Passes the elements stored in a range of the array to the given action
+	 */
+	protected void forEachArrayElement(int from, int to, LongConsumer action) {
+		for (int i = from; i < to; i++) {
+			action.accept(getArrayElement(i));
+		}
+	}
+
+	@Override
+	public boolean removesFromMiddle() {
+		return true;
+	}
+
+	/**
+	 * Moves the gap to lie before the given element, by moving the elements between
+	 */
+	private void moveGap(int index) {
+		if (gapLength == 0) {
+			gapStart = index;
+			return;
+		}
+
+		if (index < gapStart) {
+			System.arraycopy(store, offset + index, store, offset + index + gapLength, gapStart - index);
+		} else if (index > gapStart) {
+			System.arraycopy(store, offset + gapStart + gapLength, store, offset + gapStart, index - gapStart);
+		}
+		gapStart = index;
+	}
+
+	/**
+	 * Turns a gap at either end of the elements into spare capacity at that end
+	 */
+	private void normalizeGap() {
+		if (gapLength == 0) {
+			return;
+		}
+		if (gapStart == 0) {
+			offset += gapLength;
+			gapLength = 0;
+		} else if (gapStart == size) {
+			gapLength = 0;
+		}
 	}
 
 	@Override
@@ -129,12 +292,18 @@ public abstract class ArrayStore<T> extends AbstractStore {
 		long oldValue = getLong(index);
 		if (index == 0) {
 			offset++;
+			if (gapLength > 0) {
+				gapStart--;
+			}
 		} else if (index == size - 1) {
 			// Nothing to do
 		} else {
-			System.arraycopy(store, index + 1, store, index, size - index - 1);
+			// Widen the gap over the removed element
+			moveGap(index);
+			gapLength++;
 		}
 		size--;
+		normalizeGap();
 		return oldValue;
 	}
 
@@ -145,6 +314,21 @@ public abstract class ArrayStore<T> extends AbstractStore {
 	 *            The position to insert a gap
 	 */
 	protected void expand(int index) {
+		if (gapLength > 0) {
+			if (index == 0 && prependCapacity() > 0) {
+				offset--;
+				gapStart++;
+			} else if (index < size || appendCapacity() == 0) {
+				// Fill the first slot of the gap
+				moveGap(index);
+				gapStart++;
+				gapLength--;
+			}
+			size++;
+			normalizeGap();
+			return;
+		}
+
 		if (prependCapacity() > 0 && (index < size / 2 || appendCapacity() == 0)) {
 			// Add by prefix
 			offset--;
@@ -157,7 +341,7 @@ public abstract class ArrayStore<T> extends AbstractStore {
 			if (appendCapacity() == 0) {
 				// Re-allocate
 				int capacity = (int) (size * EXPANSION_FACTOR + ALLOCATION_BUFFER);
-				T newStore = allocateArray(capacity);
+				T newStore = newArray(capacity);
 				if (index > 0) {
 					System.arraycopy(store, offset, newStore, 0, index);
 				}
@@ -182,10 +366,16 @@ public abstract class ArrayStore<T> extends AbstractStore {
 		ArrayStore<T> that = newInstance();
 
 		that.store = store;
-		that.base = offset + index;
+		that.base = position(index);
 		that.offset = that.base;
 		that.size = size - index;
 		that.limit = limit;
+		if (gapLength > 0 && index < gapStart) {
+			// The gap moves to the new store
+			that.gapStart = gapStart - index;
+			that.gapLength = gapLength;
+			gapLength = 0;
+		}
 
 		that.left = this;
 		if (this.right != null) {
@@ -195,10 +385,11 @@ public abstract class ArrayStore<T> extends AbstractStore {
 
 		this.size = index;
 		this.limit = that.base;
+		normalizeGap();
 
 		this.right = that;
 
-		assert this.size == that.offset - this.offset;
+		assert this.offset + this.size + this.gapLength <= this.limit;
 
 		return new Store[] { this, that };
 	}
@@ -0,0 +1,263 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A compact store which packs each value into an arbitrary number of bits between 1 and 63,
+ * relative to a value offset. Values may straddle the boundary between two words of the backing
+ * array.
+ */
+public class BitPackedStore extends AbstractStore {
+
+	private static final long serialVersionUID = 3608799649955563196L;
+
+	protected long[] words;
+
+	/** The number of bits used by each value */
+	protected final int width;
+
+	/** The value represented by a stored zero */
+	protected final long valueOffset;
+
+	/** The slot in the backing array corresponding to element 0 */
+	protected int offset;
+
+	/** The number of slots available in the backing array */
+	protected int limit;
+
+	public BitPackedStore(int width, long valueOffset) {
+		this(width, valueOffset, ALLOCATION_BUFFER);
+	}
+
+	protected BitPackedStore(int width, long valueOffset, int capacity) {
+		if (width < 1 || width >= Long.SIZE) {
+			throw new IllegalArgumentException("Width must be between 1 and 63 bits: " + width);
+		}
+		this.width = width;
+		this.valueOffset = valueOffset;
+		allocate(capacity);
+	}
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 *
+	 * @param width
+	 *            The number of bits used to store each value
+	 * @param valueOffset
+	 *            The smallest value to be stored
+	 * @param elements
+	 *            The values to be stored
+	 */
+	public BitPackedStore(int width, long valueOffset, Store elements) {
+		this(width, valueOffset, elements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			setSlot(i, elements.getLong(i) - valueOffset);
+		}
+		size = elements.size();
+	}
+
+	/**
+	 * @return the number of bits needed to store values in the given range, or 64 if the range
+	 *         overflows
+	 */
+	public static int bitWidth(long range) {
+		if (range < 0) {
+			return Long.SIZE;
+		}
+		return Long.SIZE - Long.numberOfLeadingZeros(range);
+	}
+
+	static int wordsRequired(int width, int capacity) {
+		return (int) (((long) capacity * width + Long.SIZE - 1) >>> 6);
+	}
+
+	static long getSlot(long[] words, int width, int slot) {
+		long bit = (long) slot * width;
+		int word = (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		long value = words[word] >>> shift;
+		if (shift + width > Long.SIZE) {
+			value |= words[word + 1] << (Long.SIZE - shift);
+		}
+		return value & (-1L >>> (Long.SIZE - width));
+	}
+
+	static void setSlot(long[] words, int width, int slot, long value) {
+		long mask = -1L >>> (Long.SIZE - width);
+		long bit = (long) slot * width;
+		int word = (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+
+		value &= mask;
+		words[word] = words[word] & ~(mask << shift) | value << shift;
+		if (shift + width > Long.SIZE) {
+			int written = Long.SIZE - shift;
+			words[word + 1] = words[word + 1] & ~(mask >>> written) | value >>> written;
+		}
+	}
+
+	private long getSlot(int slot) {
+		return getSlot(words, width, slot);
+	}
+
+	private void setSlot(int slot, long value) {
+		setSlot(words, width, slot, value);
+	}
+
+	@Override
+	public void allocate(int capacity) {
+		words = new long[wordsRequired(width, capacity)];
+		size = 0;
+		offset = 0;
+		limit = capacity;
+	}
+
+	@Override
+	public void release() {
+		words = null;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return getSlot(offset + index) + valueOffset;
+	}
+
+	/**
+	 * Reads the packed values in a single pass, keeping the current word of the backing array
+	 * rather than locating each slot
+	 */
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		if (from >= to) {
+			return;
+		}
+		long mask = -1L >>> (Long.SIZE - width);
+		long bit = (long) (offset + from) * width;
+		int word = (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		long current = words[word];
+		for (int i = from; i < to; i++) {
+			long value = current >>> shift;
+			shift += width;
+			if (shift >= Long.SIZE) {
+				// Continue into the next word, which holds the rest of a value straddling the two
+				shift -= Long.SIZE;
+				current = ++word < words.length ? words[word] : 0;
+				value |= current << (width - shift);
+			}
+			action.accept((value & mask) + valueOffset);
+		}
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		setSlot(offset + index, value - valueOffset);
+		return oldValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		expand(index);
+		setSlot(offset + index, value - valueOffset);
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		if (index == 0) {
+			offset++;
+		} else {
+			for (int slot = offset + index; slot < offset + size - 1; slot++) {
+				setSlot(slot, getSlot(slot + 1));
+			}
+		}
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Expands the store if necessary and leaves a new slot at the given index
+	 *
+	 * @param index
+	 *            The position to insert a gap
+	 */
+	protected void expand(int index) {
+		if (prependCapacity() > 0 && (index < size / 2 || appendCapacity() == 0)) {
+			// Add by prefix, shifting range [0, index) to the left
+			offset--;
+			for (int slot = offset; slot < offset + index; slot++) {
+				setSlot(slot, getSlot(slot + 1));
+			}
+		} else if (appendCapacity() == 0) {
+			// Re-allocate
+			int capacity = (int) (size * EXPANSION_FACTOR + ALLOCATION_BUFFER);
+			long[] newWords = new long[wordsRequired(width, capacity)];
+			for (int i = 0; i < size; i++) {
+				setSlot(newWords, width, i < index ? i : i + 1, getSlot(offset + i));
+			}
+
+			words = newWords;
+			offset = 0;
+			limit = capacity;
+		} else {
+			// Add by suffix, shifting range [index, size) to the right
+			for (int slot = offset + size; slot > offset + index; slot--) {
+				setSlot(slot, getSlot(slot - 1));
+			}
+		}
+		size++;
+	}
+
+	@Override
+	public boolean inRange(long value) {
+		return (value - valueOffset) >>> width == 0;
+	}
+
+	@Override
+	public int capacity() {
+		return limit;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return offset;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return limit - offset - size;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public Store[] split(int index) {
+		BitPackedStore that = new BitPackedStore(width, valueOffset, size - index);
+		for (int i = index; i < size; i++) {
+			that.setSlot(i - index, getSlot(offset + i));
+		}
+		that.size = size - index;
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (str.length() > 10) {
+				str.append("...");
+				break;
+			}
+			if (str.length() > 0) {
+				str.append(", ");
+			}
+			str.append(getLong(i));
+		}
+		return String.format("%s(%d): [%s]", getClass().getSimpleName(), width, str);
+	}
+}
@@ -1,5 +1,7 @@
 package net.kothar.compactlist.internal.storage;
 
+import java.util.function.LongConsumer;
+
 public abstract class CompactStore<T> extends ArrayStore<T> {
 
 	private static final long serialVersionUID = -2150017141000225835L;
@@ -26,14 +28,93 @@ public abstract class CompactStore<T> extends ArrayStore<T> {
 		copy(elements, 0, pos, size);
 	}
 
+	/**
+	 * Creates a store able to hold the given elements and any values in a known range, using the
+	 * narrowest primitive array which can hold it. The value offset is chosen to leave space either
+	 * side of the range for later writes.
+	 * 
+	 * @param elements
+	 *            The existing elements, which are copied to the new store
+	 * @param min
+	 *            The smallest value to be stored
+	 * @param max
+	 *            The largest value to be stored
+	 * @return The new store, which is a {@link LongArrayStore} if the range needs all 64 bits
+	 */
+	public static Store promote(Store elements, long min, long max) {
+		return promote(elements, 0, elements.size(), min, max);
+	}
+
+	private static Store promote(Store elements, int from, int to, long min, long max) {
+		int size = to - from;
+		Store store;
+		long range = max - min;
+		if (range < 0 || range >= 1L << Integer.SIZE) {
+			store = new LongArrayStore();
+		} else {
+			int width = range < 1L << Byte.SIZE ? Byte.SIZE : range < 1L << Short.SIZE ? Short.SIZE : Integer.SIZE;
+			long headroom = ((1L << width) - 1 - range) / 2;
+			long valueOffset = min >= Long.MIN_VALUE + headroom ? min - headroom : Long.MIN_VALUE;
+			switch (width) {
+			case Byte.SIZE:
+				store = new ByteArrayStore(valueOffset);
+				break;
+			case Short.SIZE:
+				store = new ShortArrayStore(valueOffset);
+				break;
+			default:
+				store = new IntArrayStore(valueOffset);
+			}
+		}
+
+		store.allocate(size + ALLOCATION_BUFFER);
+		for (int i = 0; i < size; i++) {
+			store.addLong(i, elements.getLong(from + i));
+		}
+		return store;
+	}
+
+	/**
+	 * Creates a store holding a range of the given elements, using the narrowest primitive array
+	 * which can hold their range
+	 * 
+	 * @param elements
+	 *            The store to copy from
+	 * @param from
+	 *            The index of the first element to copy
+	 * @param to
+	 *            The index after the last element to copy
+	 * @return The new store
+	 */
+	public static Store copyOf(Store elements, int from, int to) {
+		long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+		for (int i = from; i < to; i++) {
+			long v = elements.getLong(i);
+			if (v < min) {
+				min = v;
+			}
+			if (v > max) {
+				max = v;
+			}
+		}
+		return promote(elements, from, to, min, max);
+	}
+
 	@Override
 	protected final long getElement(int index) {
-		return getArrayElement(index + offset) + valueOffset;
+		return getArrayElement(position(index)) + valueOffset;
 	}
 
 	@Override
 	protected final void setElement(int index, long value) {
-		setArrayElement(index + offset, value - valueOffset);
+		setArrayElement(position(index), value - valueOffset);
+	}
+
+	@Override
+	protected void forEachArrayElement(int from, int to, LongConsumer action) {
+		for (int i = from; i < to; i++) {
+			action.accept(getArrayElement(i) + valueOffset);
+		}
 	}
 
 }
\ No newline at end of file
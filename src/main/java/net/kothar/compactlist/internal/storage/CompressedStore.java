@@ -0,0 +1,320 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A sealed store for rarely read segments. The differences between successive values are written
+ * as variable-length integers and compressed with {@link Deflater}. Decompressed values are kept
+ * in a bounded cache shared by all compressed stores, so that scanning through a store decodes it
+ * once.
+ * <p>
+ * Values can only be removed from either end; other writes require a different store.
+ */
+public class CompressedStore extends AbstractStore {
+
+	private static final long serialVersionUID = -7348305938672134725L;
+
+	/** The largest number of decompressed values held in the shared cache */
+	public static final int CACHE_SIZE = 1 << 20;
+
+	/**
+	 * The relative cost of reading a value which is not cached, where reading from a primitive array
+	 * costs 1
+	 */
+	public static final int ACCESS_COST = 1 << 8;
+
+	private static final DecodedCache cache = new DecodedCache(CACHE_SIZE);
+
+	/** Compressed values, also used to identify the decoded values in the cache */
+	protected final byte[]	compressed;
+	protected final int		encodedLength;
+	protected final int		count;
+
+	/** The index in the encoded values of the first element in this store */
+	protected int offset;
+
+	/** The decoded values, held by readers for as long as they are used */
+	private transient long[] pinned;
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 */
+	public CompressedStore(Store elements) {
+		size = count = elements.size();
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(size * 2);
+		long previous = 0;
+		for (int i = 0; i < size; i++) {
+			long v = elements.getLong(i);
+			long delta = v - previous;
+			previous = v;
+
+			// Zig-zag encode so that small negative differences are short
+			long zigzag = (delta << 1) ^ (delta >> 63);
+			while ((zigzag & ~0x7FL) != 0) {
+				encoded.write((int) (zigzag & 0x7F) | 0x80);
+				zigzag >>>= 7;
+			}
+			encoded.write((int) zigzag);
+		}
+		encodedLength = encoded.size();
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(encoded.toByteArray());
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(encodedLength / 2 + ALLOCATION_BUFFER);
+			byte[] buffer = new byte[1 << 12];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			compressed = out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	protected CompressedStore(CompressedStore encoded, int offset, int size) {
+		this.compressed = encoded.compressed;
+		this.encodedLength = encoded.encodedLength;
+		this.count = encoded.count;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * A least-recently-used cache of decompressed values, bounded by the total number of values
+	 * held. Compressed arrays are compared by identity, so split stores share their cache entry.
+	 */
+	static class DecodedCache {
+
+		private final int					limit;
+		private final Map<byte[], long[]>	entries	= new LinkedHashMap<>(ALLOCATION_BUFFER, 0.75f, true);
+		private long						total;
+
+		DecodedCache(int limit) {
+			this.limit = limit;
+		}
+
+		synchronized long[] get(byte[] key) {
+			return entries.get(key);
+		}
+
+		synchronized void put(byte[] key, long[] values) {
+			long[] old = entries.put(key, values);
+			if (old != null) {
+				total -= old.length;
+			}
+			total += values.length;
+
+			// Evict the least recently used entries, keeping the newest even if it is larger
+			// than the limit
+			for (Iterator<long[]> i = entries.values().iterator(); total > limit && entries.size() > 1;) {
+				total -= i.next().length;
+				i.remove();
+			}
+		}
+
+		synchronized void remove(byte[] key) {
+			long[] old = entries.remove(key);
+			if (old != null) {
+				total -= old.length;
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			total = 0;
+		}
+
+		synchronized boolean contains(byte[] key) {
+			return entries.containsKey(key);
+		}
+	}
+
+	/**
+	 * Removes all decompressed values from the shared cache
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * @return true if the values in this store are currently held in the shared cache
+	 */
+	public boolean isCached() {
+		return cache.contains(compressed);
+	}
+
+	private long[] decoded() {
+		if (pinned != null) {
+			return pinned;
+		}
+		long[] values = cache.get(compressed);
+		if (values == null) {
+			values = decode();
+			cache.put(compressed, values);
+		}
+		return values;
+	}
+
+	private long[] decode() {
+		byte[] encoded = new byte[encodedLength];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int length = 0;
+			while (length < encodedLength) {
+				int inflated = inflater.inflate(encoded, length, encodedLength - length);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new DataFormatException("Unexpected end of compressed data");
+				}
+				length += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Compressed store is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+
+		long[] values = new long[count];
+		long previous = 0;
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			long zigzag = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = encoded[position++];
+				zigzag |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			values[i] = previous;
+		}
+		return values;
+	}
+
+	@Override
+	public void allocate(int size) {
+		throw new UnsupportedOperationException("Compressed stores are sealed on creation");
+	}
+
+	@Override
+	public long getLong(int index) {
+		return decoded()[offset + index];
+	}
+
+	/**
+	 * Decodes the values once for the whole range, rather than looking them up in the cache for each
+	 * element
+	 */
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		long[] values = decoded();
+		for (int i = from; i < to; i++) {
+			action.accept(values[offset + i]);
+		}
+	}
+
+	/**
+	 * Decodes the values once for the reader, rather than looking them up in the cache for each
+	 * element
+	 */
+	@Override
+	public Store reader() {
+		CompressedStore reader = new CompressedStore(this, offset, size);
+		reader.pinned = decoded();
+		return reader;
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		if (value != oldValue) {
+			throw new UnsupportedOperationException("Elements of a compressed store cannot be replaced");
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		throw new UnsupportedOperationException("Elements cannot be added to a compressed store");
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		if (index == 0) {
+			offset++;
+		} else if (index != size - 1) {
+			throw new UnsupportedOperationException("Elements can only be removed from the ends of a compressed store");
+		}
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Compressed stores are sealed, so no new value is in range.
+	 */
+	@Override
+	public boolean inRange(long value) {
+		return false;
+	}
+
+	@Override
+	public boolean inRange(int index, long value, boolean set) {
+		return set && value == getLong(index);
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	/**
+	 * @return the average number of compressed bits used per element, rounded up
+	 */
+	@Override
+	public int getWidth() {
+		if (size == 0) {
+			return 0;
+		}
+		return (int) (((long) compressed.length * Byte.SIZE + size - 1) / size);
+	}
+
+	@Override
+	public Store[] split(int index) {
+		CompressedStore that = new CompressedStore(this, offset + index, size - index);
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		cache.remove(compressed);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%d bytes)", getClass().getSimpleName(), compressed.length);
+	}
+}
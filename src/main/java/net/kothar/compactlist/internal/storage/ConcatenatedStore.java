@@ -0,0 +1,123 @@
+package net.kothar.compactlist.internal.storage;
+
+/**
+ * A read-only view of several stores as a single sequence, so that the contents of several leaves
+ * can be analysed and encoded into one store without first being copied. Reads near the previous
+ * read are answered without searching for the containing store.
+ */
+public class ConcatenatedStore extends AbstractStore {
+
+	private static final long serialVersionUID = 8203125578935602254L;
+
+	private final Store[]	parts;
+	private final int[]		starts;
+
+	/** The part containing the most recent read */
+	private int part;
+
+	public ConcatenatedStore(Store... parts) {
+		this.parts = parts;
+		this.starts = new int[parts.length];
+		for (int p = 0; p < parts.length; p++) {
+			starts[p] = size;
+			size += parts[p].size();
+		}
+	}
+
+	/**
+	 * @return the last part starting at or before the given index, which is the non-empty part
+	 *         containing it
+	 */
+	private int findPart(int index) {
+		int low = 0, high = parts.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public long getLong(int index) {
+		int relative = index - starts[part];
+		if (relative < 0 || relative >= parts[part].size()) {
+			part = findPart(index);
+			relative = index - starts[part];
+		}
+		return parts[part].getLong(relative);
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		throw new UnsupportedOperationException("Concatenated stores are read-only");
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		throw new UnsupportedOperationException("Concatenated stores are read-only");
+	}
+
+	@Override
+	public long removeLong(int index) {
+		throw new UnsupportedOperationException("Concatenated stores are read-only");
+	}
+
+	@Override
+	public void allocate(int size) {
+		throw new UnsupportedOperationException("Concatenated stores are read-only");
+	}
+
+	/**
+	 * Concatenated stores are read-only, so no value is in range.
+	 */
+	@Override
+	public boolean inRange(long value) {
+		return false;
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	/**
+	 * @return the width of the widest part
+	 */
+	@Override
+	public int getWidth() {
+		int width = 0;
+		for (Store s : parts) {
+			width = Math.max(width, s.getWidth());
+		}
+		return width;
+	}
+
+	@Override
+	public Store[] split(int index) {
+		throw new UnsupportedOperationException("Concatenated stores are read-only");
+	}
+
+	@Override
+	public void release() {
+		// The parts are released by their owners
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%d parts)", getClass().getSimpleName(), parts.length);
+	}
+}
@@ -1,5 +1,7 @@
 package net.kothar.compactlist.internal.storage;
 
+import java.util.function.LongConsumer;
+
 public class ConstantStore extends AbstractStore {
 
 	private static final long serialVersionUID = -6037938423175067220L;
@@ -28,6 +30,13 @@ public class ConstantStore extends AbstractStore {
 		return value;
 	}
 
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		for (int i = from; i < to; i++) {
+			action.accept(value);
+		}
+	}
+
 	@Override
 	public void addLong(int index, long value) {
 		assert value == this.value;
@@ -0,0 +1,177 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.Arrays;
+
+/**
+ * Stores a small sorted dictionary of distinct values, and a bit-packed code for each element
+ * giving its position in the dictionary. Suitable for segments with a wide range but few distinct
+ * values.
+ */
+public class DictionaryStore extends AbstractStore {
+
+	private static final long serialVersionUID = 4735140658260389418L;
+
+	/** The largest number of entries the dictionary may grow to */
+	public static final int MAX_DICTIONARY_SIZE = 1 << 10;
+
+	protected long[]			dictionary;
+	protected int				dictionarySize;
+	protected BitPackedStore	codes;
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 *
+	 * @param dictionary
+	 *            The distinct values in the existing store, in ascending order
+	 * @param elements
+	 *            The values to be stored
+	 */
+	public DictionaryStore(long[] dictionary, Store elements) {
+		this.dictionary = dictionary;
+		this.dictionarySize = dictionary.length;
+		this.size = elements.size();
+
+		codes = new BitPackedStore(codeWidth(dictionarySize), 0);
+		codes.allocate(size);
+		for (int i = 0; i < size; i++) {
+			int code = Arrays.binarySearch(dictionary, 0, dictionarySize, elements.getLong(i));
+			assert code >= 0;
+			codes.addLong(i, code);
+		}
+	}
+
+	protected DictionaryStore(long[] dictionary, int dictionarySize, BitPackedStore codes) {
+		this.dictionary = dictionary;
+		this.dictionarySize = dictionarySize;
+		this.codes = codes;
+		this.size = codes.size();
+	}
+
+	/**
+	 * @return the number of bits needed for the codes of a dictionary of the given size
+	 */
+	public static int codeWidth(int dictionarySize) {
+		return Math.max(1, BitPackedStore.bitWidth(dictionarySize - 1));
+	}
+
+	/**
+	 * Finds the code for a value, adding it to the dictionary if necessary. Adding a value shifts
+	 * the codes of all larger values, and widens the codes if needed.
+	 */
+	private int code(long value) {
+		int code = Arrays.binarySearch(dictionary, 0, dictionarySize, value);
+		if (code >= 0) {
+			return code;
+		}
+		code = -(1 + code);
+
+		if (dictionarySize == dictionary.length) {
+			dictionary = Arrays.copyOf(dictionary, Math.min(MAX_DICTIONARY_SIZE,
+				(int) (dictionarySize * EXPANSION_FACTOR + 1)));
+		}
+		System.arraycopy(dictionary, code, dictionary, code + 1, dictionarySize - code);
+		dictionary[code] = value;
+		dictionarySize++;
+
+		int width = codeWidth(dictionarySize);
+		BitPackedStore newCodes = codes;
+		if (width > codes.getWidth()) {
+			newCodes = new BitPackedStore(width, 0, codes.capacity());
+		}
+		for (int i = 0; i < size; i++) {
+			long c = codes.getLong(i);
+			if (newCodes != codes) {
+				newCodes.addLong(i, c < code ? c : c + 1);
+			} else if (c >= code) {
+				codes.setLong(i, c + 1);
+			}
+		}
+		codes = newCodes;
+
+		return code;
+	}
+
+	@Override
+	public void allocate(int size) {
+		codes.allocate(size);
+		this.size = 0;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return dictionary[(int) codes.getLong(index)];
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		int code = code(value);
+		codes.setLong(index, code);
+		return oldValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		int code = code(value);
+		codes.addLong(index, code);
+		size++;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		codes.removeLong(index);
+		size--;
+		return oldValue;
+	}
+
+	@Override
+	public boolean removesFromMiddle() {
+		return true;
+	}
+
+	@Override
+	public boolean inRange(long value) {
+		return dictionarySize < MAX_DICTIONARY_SIZE
+			|| Arrays.binarySearch(dictionary, 0, dictionarySize, value) >= 0;
+	}
+
+	@Override
+	public int capacity() {
+		return codes.capacity();
+	}
+
+	@Override
+	public int prependCapacity() {
+		return codes.prependCapacity();
+	}
+
+	@Override
+	public int appendCapacity() {
+		return codes.appendCapacity();
+	}
+
+	@Override
+	public int getWidth() {
+		return codes.getWidth();
+	}
+
+	@Override
+	public Store[] split(int index) {
+		Store[] splitCodes = codes.split(index);
+		DictionaryStore that = new DictionaryStore(Arrays.copyOf(dictionary, dictionarySize), dictionarySize,
+			(BitPackedStore) splitCodes[1]);
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		codes.release();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%d): %s", getClass().getSimpleName(), dictionarySize, codes);
+	}
+}
@@ -0,0 +1,382 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Elias-Fano encoding of a non-decreasing sequence of values. Each value is split into low bits,
+ * which are packed at a fixed width, and high bits, which are written in unary as a set bit in a
+ * bit vector at position <code>high + index</code>. The positions of every 64th set and clear bit
+ * are sampled, giving constant time access and a fast successor search.
+ * <p>
+ * Values can only be appended in order, and removed from either end. Split stores share their
+ * encoded bits, and only the store holding the last encoded element may append to them.
+ */
+public class EliasFanoStore extends AbstractStore {
+
+	private static final long serialVersionUID = -2861390271146524835L;
+
+	/** Every 2^SAMPLE_SHIFT set and clear bits in the high bit vector have their position sampled */
+	private static final int	SAMPLE_SHIFT	= 6;
+	private static final int	SAMPLE_MASK		= (1 << SAMPLE_SHIFT) - 1;
+
+	/** The value subtracted from every element before encoding */
+	protected final long	base;
+	protected final int		lowWidth;
+
+	protected long[]	lows;
+	protected long[]	highs;
+	protected int[]		oneSamples;
+	protected int[]		zeroSamples;
+
+	/** The number of elements encoded, including any which belong to other split stores */
+	protected int	count;
+	/** The index in the encoded elements of the first element in this store */
+	protected int	offset;
+
+	/**
+	 * Creates an empty store
+	 *
+	 * @param base
+	 *            The smallest value which will be stored
+	 * @param range
+	 *            The expected difference between the largest and smallest values
+	 * @param capacity
+	 *            The expected number of values
+	 */
+	public EliasFanoStore(long base, long range, int capacity) {
+		this.base = base;
+		this.lowWidth = lowWidth(range, capacity);
+
+		long highBits = (range >>> lowWidth) + capacity + 1;
+		lows = new long[BitPackedStore.wordsRequired(lowWidth, capacity)];
+		highs = new long[(int) ((highBits + Long.SIZE - 1) >>> 6)];
+		oneSamples = new int[(capacity >>> SAMPLE_SHIFT) + 1];
+		zeroSamples = new int[(int) ((range >>> lowWidth) >>> SAMPLE_SHIFT) + 1];
+	}
+
+	/**
+	 * Creates a new store containing the values in an existing store, which must be in ascending
+	 * order
+	 */
+	public EliasFanoStore(Store elements) {
+		this(elements.isEmpty() ? 0 : elements.getLong(0),
+			elements.isEmpty() ? 0 : elements.getLong(elements.size() - 1) - elements.getLong(0),
+			elements.size());
+		// The high bit vector is sized for the whole range, so gaps are not limited as for appends
+		for (int i = 0; i < elements.size(); i++) {
+			append(elements.getLong(i));
+		}
+		size = count;
+	}
+
+	protected EliasFanoStore(EliasFanoStore encoded, int offset, int size) {
+		this.base = encoded.base;
+		this.lowWidth = encoded.lowWidth;
+		this.lows = encoded.lows;
+		this.highs = encoded.highs;
+		this.oneSamples = encoded.oneSamples;
+		this.zeroSamples = encoded.zeroSamples;
+		this.count = encoded.count;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * @return the number of low bits stored for each value, which minimises the encoded size
+	 */
+	public static int lowWidth(long range, int size) {
+		if (size == 0 || range / size == 0) {
+			return 0;
+		}
+		return BitPackedStore.bitWidth(range / size) - 1;
+	}
+
+	/**
+	 * @return the approximate number of bits needed to encode values over the given range
+	 */
+	public static long encodedBits(long range, int size) {
+		int lowWidth = lowWidth(range, size);
+		long zeros = range >>> lowWidth;
+		long samples = (size >>> SAMPLE_SHIFT) + (zeros >>> SAMPLE_SHIFT) + 2;
+		return (long) size * (lowWidth + 1) + zeros + samples * Integer.SIZE;
+	}
+
+	/**
+	 * @return the position of the n-th set bit in a word
+	 */
+	private static int selectInWord(long bits, int n) {
+		for (; n > 0; n--) {
+			bits &= bits - 1;
+		}
+		return Long.numberOfTrailingZeros(bits);
+	}
+
+	/**
+	 * @return the position in the high bit vector of the given encoded element
+	 */
+	private int selectOne(int k) {
+		int position = oneSamples[k >>> SAMPLE_SHIFT];
+		int remaining = k & SAMPLE_MASK;
+		int word = position >>> 6;
+		long bits = highs[word] & (-1L << position);
+		while (true) {
+			int ones = Long.bitCount(bits);
+			if (remaining < ones) {
+				return (word << 6) + selectInWord(bits, remaining);
+			}
+			remaining -= ones;
+			bits = highs[++word];
+		}
+	}
+
+	/**
+	 * @return the position in the high bit vector of the z-th clear bit, which ends the bucket of
+	 *         elements with high bits equal to z
+	 */
+	private int selectZero(long z) {
+		int position = zeroSamples[(int) (z >>> SAMPLE_SHIFT)];
+		int remaining = (int) (z & SAMPLE_MASK);
+		int word = position >>> 6;
+		long bits = ~highs[word] & (-1L << position);
+		while (true) {
+			int zeros = Long.bitCount(bits);
+			if (remaining < zeros) {
+				return (word << 6) + selectInWord(bits, remaining);
+			}
+			remaining -= zeros;
+			bits = ~highs[++word];
+		}
+	}
+
+	private long high(int k) {
+		return selectOne(k) - k;
+	}
+
+	private long decode(int k) {
+		long low = lowWidth > 0 ? BitPackedStore.getSlot(lows, lowWidth, k) : 0;
+		return base + (high(k) << lowWidth | low);
+	}
+
+	private boolean canAppend(long value) {
+		if (offset + size != count || value < base) {
+			return false;
+		}
+		if (count > 0 && value < decode(count - 1)) {
+			return false;
+		}
+
+		// Limit the number of clear bits to keep the high bit vector compact
+		long high = (value - base) >>> lowWidth;
+		return high <= 2L * (count + ALLOCATION_BUFFER);
+	}
+
+	private void append(long value) {
+		int k = count;
+		long d = value - base;
+		long high = d >>> lowWidth;
+		long previousHigh = k == 0 ? 0 : high(k - 1);
+		int position = (int) (high + k);
+
+		int words = (position >>> 6) + 1;
+		if (words > highs.length) {
+			highs = Arrays.copyOf(highs, (int) (words * EXPANSION_FACTOR));
+		}
+		highs[position >>> 6] |= 1L << position;
+
+		if ((k & SAMPLE_MASK) == 0) {
+			if ((k >>> SAMPLE_SHIFT) >= oneSamples.length) {
+				oneSamples = Arrays.copyOf(oneSamples, (int) (oneSamples.length * EXPANSION_FACTOR) + 1);
+			}
+			oneSamples[k >>> SAMPLE_SHIFT] = position;
+		}
+
+		// Clear bits between the previous element and this one are preceded by k set bits
+		for (long z = (previousHigh + SAMPLE_MASK) & ~SAMPLE_MASK; z < high; z += SAMPLE_MASK + 1) {
+			if ((z >>> SAMPLE_SHIFT) >= zeroSamples.length) {
+				zeroSamples = Arrays.copyOf(zeroSamples, (int) (zeroSamples.length * EXPANSION_FACTOR) + 1);
+			}
+			zeroSamples[(int) (z >>> SAMPLE_SHIFT)] = (int) (z + k);
+		}
+
+		if (lowWidth > 0) {
+			int lowWords = BitPackedStore.wordsRequired(lowWidth, k + 1);
+			if (lowWords > lows.length) {
+				lows = Arrays.copyOf(lows, (int) (lowWords * EXPANSION_FACTOR));
+			}
+			BitPackedStore.setSlot(lows, lowWidth, k, d);
+		}
+		count++;
+	}
+
+	@Override
+	public void allocate(int size) {
+		Arrays.fill(highs, 0);
+		count = 0;
+		offset = 0;
+		this.size = 0;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return decode(offset + index);
+	}
+
+	/**
+	 * Scans the high bit vector from the first element of the range, rather than selecting the
+	 * position of each element from the samples
+	 */
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		if (from >= to) {
+			return;
+		}
+		int k = offset + from;
+		int position = selectOne(k);
+		int word = position >>> 6;
+		long bits = highs[word] & (-1L << position);
+		for (int end = offset + to; k < end; k++) {
+			while (bits == 0) {
+				bits = highs[++word];
+			}
+			long high = (word << 6) + Long.numberOfTrailingZeros(bits) - k;
+			bits &= bits - 1;
+
+			long low = lowWidth > 0 ? BitPackedStore.getSlot(lows, lowWidth, k) : 0;
+			action.accept(base + (high << lowWidth | low));
+		}
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		if (value != oldValue) {
+			throw new UnsupportedOperationException("Elements of an Elias-Fano store cannot be replaced");
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		if (index != size || !canAppend(value)) {
+			throw new UnsupportedOperationException("Elements can only be appended to an Elias-Fano store in order");
+		}
+		append(value);
+		size++;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		if (index == 0) {
+			offset++;
+		} else if (index == size - 1) {
+			if (offset + size == count) {
+				int position = selectOne(--count);
+				highs[position >>> 6] &= ~(1L << position);
+			}
+		} else {
+			throw new UnsupportedOperationException("Elements can only be removed from the ends of an Elias-Fano store");
+		}
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Uses the high bits of the value to find the bucket of elements which may contain it, then
+	 * searches within the bucket.
+	 */
+	@Override
+	public int searchLong(long value) {
+		if (size == 0 || value < getLong(0)) {
+			return -1;
+		}
+		if (value > getLong(size - 1)) {
+			return -(size + 1);
+		}
+
+		// Buckets up to the high bits of the last element are terminated within this store
+		int end = offset + size;
+		long high = (value - base) >>> lowWidth;
+		int low = high == 0 ? 0 : (int) (selectZero(high - 1) - (high - 1));
+		int limit = high < high(end - 1) ? (int) (selectZero(high) - high) : end;
+		low = Math.max(low, offset);
+		limit = Math.min(limit, end);
+
+		while (low < limit) {
+			int mid = (low + limit) >>> 1;
+			if (decode(mid) < value) {
+				low = mid + 1;
+			} else {
+				limit = mid;
+			}
+		}
+
+		if (low < end && decode(low) == value) {
+			return low - offset;
+		}
+		return -(1 + low - offset);
+	}
+
+	/**
+	 * Values in an Elias-Fano store must be in ascending order, so no value is in range independent
+	 * of index.
+	 */
+	@Override
+	public boolean inRange(long value) {
+		return false;
+	}
+
+	@Override
+	public boolean inRange(int index, long value, boolean set) {
+		if (set) {
+			return value == getLong(index);
+		}
+		return index == size && canAppend(value);
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	/**
+	 * @return the average number of bits used per element, rounded up
+	 */
+	@Override
+	public int getWidth() {
+		if (size == 0) {
+			return 0;
+		}
+		long bits = (long) (lows.length + highs.length) * Long.SIZE
+			+ (long) (oneSamples.length + zeroSamples.length) * Integer.SIZE;
+		return (int) ((bits + size - 1) / size);
+	}
+
+	@Override
+	public Store[] split(int index) {
+		EliasFanoStore that = new EliasFanoStore(this, offset + index, size - index);
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		// Nothing to do
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%d low bits)", getClass().getSimpleName(), lowWidth);
+	}
+}
@@ -0,0 +1,132 @@
+package net.kothar.compactlist.internal.storage;
+
+/**
+ * Stores an arithmetic progression of values, where the value at each index is
+ * <code>first + index * step</code>. Only values continuing the progression at either end can be
+ * added.
+ */
+public class LinearStore extends AbstractStore {
+
+	private static final long serialVersionUID = -5047988750341381159L;
+
+	/** The value at index 0 */
+	protected long first;
+
+	/** The difference between successive values */
+	protected long step;
+
+	public LinearStore(long first, long step, int size) {
+		super();
+		this.first = first;
+		this.step = step;
+		this.size = size;
+	}
+
+	/**
+	 * @return the value predicted by the progression at the given index
+	 */
+	protected final long predict(int index) {
+		return first + index * step;
+	}
+
+	@Override
+	public void allocate(int size) {
+		this.size = size;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return predict(index);
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		if (size == 0) {
+			first = value;
+		} else if (index == 0) {
+			assert value == predict(-1);
+			first -= step;
+		} else {
+			assert index == size && value == predict(index);
+		}
+		size++;
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		assert value == predict(index);
+		return value;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = predict(index);
+		if (index == 0) {
+			first += step;
+		} else if (index != size - 1) {
+			throw new UnsupportedOperationException("Elements can only be removed from the ends of a linear store");
+		}
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Values in a linear store depend on their position, so no value is in range independent of
+	 * index.
+	 */
+	@Override
+	public boolean inRange(long value) {
+		return false;
+	}
+
+	@Override
+	public boolean inRange(int index, long value, boolean set) {
+		if (set) {
+			return value == predict(index);
+		}
+		if (size == 0) {
+			return true;
+		}
+		if (index == 0) {
+			return value == predict(-1);
+		}
+		return index == size && value == predict(index);
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int getWidth() {
+		return 0;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	@Override
+	public Store[] split(int index) {
+		LinearStore that = new LinearStore(predict(index), step, size - index);
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		// Nothing to do
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: [%d + i * %d]", getClass().getSimpleName(), first, step);
+	}
+}
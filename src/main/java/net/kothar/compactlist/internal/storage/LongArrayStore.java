@@ -1,5 +1,7 @@
 package net.kothar.compactlist.internal.storage;
 
+import java.util.function.LongConsumer;
+
 public class LongArrayStore extends ArrayStore<long[]> {
 
 	private static final long serialVersionUID = 1828783964482947863L;
@@ -32,12 +34,12 @@ public class LongArrayStore extends ArrayStore<long[]> {
 	public LongArrayStore(Store elements, int offset, int size) {
 		super(size, size + ALLOCATION_BUFFER);
 
-		if (elements instanceof LongArrayStore) {
+		if (elements instanceof LongArrayStore && ((LongArrayStore) elements).gapLength == 0) {
 			LongArrayStore longStore = (LongArrayStore) elements;
 			System.arraycopy(longStore.store, offset + longStore.offset, store, 0, size);
 		} else {
 			for (int i = 0; i < size; i++) {
-				setElement(i, elements.get(i + offset));
+				setElement(i, elements.getLong(i + offset));
 			}
 		}
 	}
@@ -57,6 +59,14 @@ public class LongArrayStore extends ArrayStore<long[]> {
 		return true;
 	}
 
+	@Override
+	protected void forEachArrayElement(int from, int to, LongConsumer action) {
+		long[] values = store;
+		for (int i = from; i < to; i++) {
+			action.accept(values[i]);
+		}
+	}
+
 	@Override
 	protected long[] allocateArray(int length) {
 		return new long[length];
@@ -68,7 +78,7 @@ public class LongArrayStore extends ArrayStore<long[]> {
 	 */
 	@Override
 	public void copy(Store src, int dstOffset, int srcOffset, int length) {
-		if (src instanceof LongArrayStore) {
+		if (src instanceof LongArrayStore && ((LongArrayStore) src).gapLength == 0 && gapLength == 0) {
 			LongArrayStore longStore = (LongArrayStore) src;
 			System.arraycopy(longStore.store, srcOffset + longStore.offset, store, dstOffset + offset, length);
 		} else {
@@ -0,0 +1,235 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.Arrays;
+
+/**
+ * A patched frame-of-reference store. Most values are bit-packed relative to a base value, and the
+ * few outliers which do not fit are kept as exceptions in a sorted list of positions and values.
+ */
+public class PatchedStore extends AbstractStore {
+
+	private static final long serialVersionUID = 6210493712585340217L;
+
+	/** The number of bits used to store each exception */
+	public static final int EXCEPTION_WIDTH = Integer.SIZE + Long.SIZE;
+
+	protected BitPackedStore packed;
+
+	protected int[]		exceptionPositions;
+	protected long[]	exceptionValues;
+	protected int		exceptions;
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 *
+	 * @param width
+	 *            The number of bits used for values which are not exceptions
+	 * @param base
+	 *            The smallest value which is not an exception
+	 * @param elements
+	 *            The values to be stored
+	 */
+	public PatchedStore(int width, long base, Store elements) {
+		size = elements.size();
+		packed = new BitPackedStore(width, base);
+		packed.allocate(size);
+		exceptionPositions = new int[ALLOCATION_BUFFER];
+		exceptionValues = new long[ALLOCATION_BUFFER];
+
+		for (int i = 0; i < size; i++) {
+			long v = elements.getLong(i);
+			if (packed.inRange(v)) {
+				packed.addLong(i, v);
+			} else {
+				packed.addLong(i, base);
+				insertException(exceptions, i, v);
+			}
+		}
+	}
+
+	protected PatchedStore(BitPackedStore packed, int[] exceptionPositions, long[] exceptionValues, int exceptions) {
+		this.packed = packed;
+		this.size = packed.size();
+		this.exceptionPositions = exceptionPositions;
+		this.exceptionValues = exceptionValues;
+		this.exceptions = exceptions;
+	}
+
+	/**
+	 * @return the index of the exception at the given position, or -1 minus the index at which it
+	 *         would be inserted
+	 */
+	private int findException(int index) {
+		return Arrays.binarySearch(exceptionPositions, 0, exceptions, index);
+	}
+
+	private void insertException(int e, int index, long value) {
+		if (exceptions == exceptionPositions.length) {
+			int capacity = (int) (exceptions * EXPANSION_FACTOR + ALLOCATION_BUFFER);
+			exceptionPositions = Arrays.copyOf(exceptionPositions, capacity);
+			exceptionValues = Arrays.copyOf(exceptionValues, capacity);
+		}
+		System.arraycopy(exceptionPositions, e, exceptionPositions, e + 1, exceptions - e);
+		System.arraycopy(exceptionValues, e, exceptionValues, e + 1, exceptions - e);
+		exceptionPositions[e] = index;
+		exceptionValues[e] = value;
+		exceptions++;
+	}
+
+	private void removeException(int e) {
+		System.arraycopy(exceptionPositions, e + 1, exceptionPositions, e, exceptions - e - 1);
+		System.arraycopy(exceptionValues, e + 1, exceptionValues, e, exceptions - e - 1);
+		exceptions--;
+	}
+
+	private void shiftExceptions(int fromException, int delta) {
+		for (int e = fromException; e < exceptions; e++) {
+			exceptionPositions[e] += delta;
+		}
+	}
+
+	/**
+	 * @return the largest number of exceptions this store will hold before a different strategy
+	 *         should be chosen
+	 */
+	protected int maxExceptions() {
+		return Math.max(ALLOCATION_BUFFER * 4, size / 16);
+	}
+
+	@Override
+	public void allocate(int size) {
+		packed.allocate(size);
+		exceptions = 0;
+		this.size = 0;
+	}
+
+	@Override
+	public long getLong(int index) {
+		if (exceptions > 0) {
+			int e = findException(index);
+			if (e >= 0) {
+				return exceptionValues[e];
+			}
+		}
+		return packed.getLong(index);
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue;
+		int e = findException(index);
+		if (e >= 0) {
+			oldValue = exceptionValues[e];
+			if (packed.inRange(value)) {
+				removeException(e);
+				packed.setLong(index, value);
+			} else {
+				exceptionValues[e] = value;
+			}
+		} else {
+			oldValue = packed.getLong(index);
+			if (packed.inRange(value)) {
+				packed.setLong(index, value);
+			} else {
+				insertException(-(1 + e), index, value);
+			}
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		int e = findException(index);
+		if (e < 0) {
+			e = -(1 + e);
+		}
+		shiftExceptions(e, 1);
+
+		if (packed.inRange(value)) {
+			packed.addLong(index, value);
+		} else {
+			packed.addLong(index, packed.valueOffset);
+			insertException(e, index, value);
+		}
+		size++;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		int e = findException(index);
+		if (e >= 0) {
+			removeException(e);
+		} else {
+			e = -(1 + e);
+		}
+		shiftExceptions(e, -1);
+
+		packed.removeLong(index);
+		size--;
+		return oldValue;
+	}
+
+	@Override
+	public boolean removesFromMiddle() {
+		return true;
+	}
+
+	@Override
+	public boolean inRange(long value) {
+		return packed.inRange(value) || exceptions < maxExceptions();
+	}
+
+	@Override
+	public int capacity() {
+		return packed.capacity();
+	}
+
+	@Override
+	public int prependCapacity() {
+		return packed.prependCapacity();
+	}
+
+	@Override
+	public int appendCapacity() {
+		return packed.appendCapacity();
+	}
+
+	@Override
+	public int getWidth() {
+		return packed.getWidth();
+	}
+
+	@Override
+	public Store[] split(int index) {
+		int e = findException(index);
+		if (e < 0) {
+			e = -(1 + e);
+		}
+
+		int thatExceptions = exceptions - e;
+		int[] thatPositions = new int[Math.max(thatExceptions, ALLOCATION_BUFFER)];
+		long[] thatValues = new long[thatPositions.length];
+		for (int i = 0; i < thatExceptions; i++) {
+			thatPositions[i] = exceptionPositions[e + i] - index;
+			thatValues[i] = exceptionValues[e + i];
+		}
+		exceptions = e;
+
+		Store[] splitPacked = packed.split(index);
+		PatchedStore that = new PatchedStore((BitPackedStore) splitPacked[1], thatPositions, thatValues,
+			thatExceptions);
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		packed.release();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%d exceptions): %s", getClass().getSimpleName(), exceptions, packed);
+	}
+}
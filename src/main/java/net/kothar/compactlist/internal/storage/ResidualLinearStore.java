@@ -0,0 +1,133 @@
+package net.kothar.compactlist.internal.storage;
+
+/**
+ * A linear store which also records the difference between each value and the progression
+ * <code>first + index * step</code>. The residuals are held in a compact store of their own, so
+ * values which roughly follow a progression can be stored in fewer bits than their full range
+ * would require.
+ */
+public class ResidualLinearStore extends LinearStore {
+
+	private static final long serialVersionUID = -2972474454904191835L;
+
+	protected Store residuals;
+
+	/**
+	 * Creates a new store from the values in an existing store
+	 *
+	 * @param first
+	 *            The value predicted at index 0
+	 * @param step
+	 *            The difference between successive predicted values
+	 * @param residuals
+	 *            An empty store which will be used to hold the residuals
+	 * @param elements
+	 *            The values to be stored
+	 */
+	public ResidualLinearStore(long first, long step, Store residuals, Store elements) {
+		super(first, step, elements.size());
+		this.residuals = residuals;
+
+		residuals.allocate(size);
+		for (int i = 0; i < size; i++) {
+			residuals.addLong(i, elements.getLong(i) - predict(i));
+		}
+	}
+
+	protected ResidualLinearStore(long first, long step, Store residuals) {
+		super(first, step, residuals.size());
+		this.residuals = residuals;
+	}
+
+	@Override
+	public void allocate(int size) {
+		residuals.allocate(size);
+		this.size = 0;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return predict(index) + residuals.getLong(index);
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		if (index == 0 && size > 0) {
+			first -= step;
+		} else {
+			assert index == size;
+		}
+		residuals.addLong(index, value - predict(index));
+		size++;
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		residuals.setLong(index, value - predict(index));
+		return oldValue;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		if (index == 0) {
+			first += step;
+		} else if (index != size - 1) {
+			throw new UnsupportedOperationException("Elements can only be removed from the ends of a linear store");
+		}
+		residuals.removeLong(index);
+		size--;
+		return oldValue;
+	}
+
+	@Override
+	public boolean inRange(int index, long value, boolean set) {
+		if (set) {
+			return residuals.inRange(index, value - predict(index), true);
+		}
+		if (index == 0 && size > 0) {
+			return residuals.inRange(0, value - predict(-1), false);
+		}
+		return index == size && residuals.inRange(index, value - predict(index), false);
+	}
+
+	@Override
+	public int capacity() {
+		return residuals.capacity();
+	}
+
+	@Override
+	public int getWidth() {
+		return residuals.getWidth();
+	}
+
+	@Override
+	public int prependCapacity() {
+		return residuals.prependCapacity();
+	}
+
+	@Override
+	public int appendCapacity() {
+		return residuals.appendCapacity();
+	}
+
+	@Override
+	public Store[] split(int index) {
+		Store[] splitResiduals = residuals.split(index);
+		ResidualLinearStore that = new ResidualLinearStore(predict(index), step, splitResiduals[1]);
+		residuals = splitResiduals[0];
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		residuals.release();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: [%d + i * %d + %s]", getClass().getSimpleName(), first, step, residuals);
+	}
+}
@@ -0,0 +1,269 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Stores runs of repeated values as (value, end) pairs, where end is the exclusive index at which
+ * each run finishes. Lookups use a binary search over the run ends.
+ */
+public class RunLengthStore extends AbstractStore {
+
+	private static final long serialVersionUID = -6598317821326975640L;
+
+	/** The number of bits used to store each run */
+	public static final int RUN_WIDTH = Long.SIZE + Integer.SIZE;
+
+	protected long[]	values;
+	protected int[]		ends;
+	protected int		runs;
+
+	public RunLengthStore() {
+		this(ALLOCATION_BUFFER);
+	}
+
+	protected RunLengthStore(int runCapacity) {
+		values = new long[runCapacity];
+		ends = new int[runCapacity];
+	}
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 *
+	 * @param elements
+	 *            The values to be stored
+	 * @param runs
+	 *            The number of runs in the existing store, used to size the new store
+	 */
+	public RunLengthStore(Store elements, int runs) {
+		this(runs);
+		for (int i = 0; i < elements.size(); i++) {
+			addLong(i, elements.getLong(i));
+		}
+	}
+
+	/**
+	 * @return the index of the run containing the element at the given index, or the number of runs
+	 *         if the index is beyond the end of the store
+	 */
+	protected int findRun(int index) {
+		int low = 0, high = runs;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ends[mid] > index) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	private int runStart(int run) {
+		return run == 0 ? 0 : ends[run - 1];
+	}
+
+	private void adjustEnds(int fromRun, int delta) {
+		for (int r = fromRun; r < runs; r++) {
+			ends[r] += delta;
+		}
+	}
+
+	private void insertRun(int run, long value, int end) {
+		if (runs == values.length) {
+			int capacity = (int) (runs * EXPANSION_FACTOR + ALLOCATION_BUFFER);
+			values = Arrays.copyOf(values, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+		}
+		System.arraycopy(values, run, values, run + 1, runs - run);
+		System.arraycopy(ends, run, ends, run + 1, runs - run);
+		values[run] = value;
+		ends[run] = end;
+		runs++;
+	}
+
+	private void removeRun(int run) {
+		System.arraycopy(values, run + 1, values, run, runs - run - 1);
+		System.arraycopy(ends, run + 1, ends, run, runs - run - 1);
+		runs--;
+	}
+
+	@Override
+	public void allocate(int size) {
+		values = new long[ALLOCATION_BUFFER];
+		ends = new int[ALLOCATION_BUFFER];
+		runs = 0;
+		this.size = 0;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return values[findRun(index)];
+	}
+
+	/**
+	 * Passes each run to the action in turn, rather than searching for the run of each element
+	 */
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		for (int run = findRun(from), i = from; i < to; run++) {
+			long value = values[run];
+			for (int end = Math.min(ends[run], to); i < end; i++) {
+				action.accept(value);
+			}
+		}
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		int run = index == size ? runs : findRun(index);
+		int start = runStart(run);
+
+		if (run < runs && values[run] == value) {
+			// Extend the run containing the index
+			adjustEnds(run, 1);
+		} else if (run > 0 && index == start && values[run - 1] == value) {
+			// Extend the preceding run
+			adjustEnds(run - 1, 1);
+		} else if (index == start) {
+			// New run between existing runs
+			insertRun(run, value, start);
+			adjustEnds(run, 1);
+		} else {
+			// Split the run containing the index
+			insertRun(run, values[run], index);
+			insertRun(run + 1, value, index);
+			adjustEnds(run + 1, 1);
+		}
+		size++;
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		if (oldValue != value) {
+			removeLong(index);
+			addLong(index, value);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		int run = findRun(index);
+		long oldValue = values[run];
+
+		adjustEnds(run, -1);
+		if (ends[run] == runStart(run)) {
+			removeRun(run);
+
+			// Join the neighbouring runs if they now hold the same value
+			if (run > 0 && run < runs && values[run - 1] == values[run]) {
+				ends[run - 1] = ends[run];
+				removeRun(run);
+			}
+		}
+		size--;
+		return oldValue;
+	}
+
+	@Override
+	public boolean removesFromMiddle() {
+		return true;
+	}
+
+	/**
+	 * @return the largest number of runs this store will hold before a different strategy should be
+	 *         chosen
+	 */
+	protected int maxRuns() {
+		return Math.max(ALLOCATION_BUFFER, size / 2);
+	}
+
+	@Override
+	public boolean inRange(long value) {
+		return runs + 2 <= maxRuns();
+	}
+
+	@Override
+	public boolean inRange(int index, long value, boolean set) {
+		if (set && getLong(index) == value) {
+			return true;
+		}
+		if (!set && ((index < size && getLong(index) == value) || (index > 0 && getLong(index - 1) == value))) {
+			return true;
+		}
+		return inRange(value);
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	/**
+	 * @return the average number of bits used per element, rounded up
+	 */
+	@Override
+	public int getWidth() {
+		if (size == 0) {
+			return 0;
+		}
+		return (int) (((long) runs * RUN_WIDTH + size - 1) / size);
+	}
+
+	@Override
+	public Store[] split(int index) {
+		int run = findRun(index);
+		int start = runStart(run);
+
+		RunLengthStore that = new RunLengthStore(Math.max(runs - run, 1));
+		for (int r = run; r < runs; r++) {
+			that.values[r - run] = values[r];
+			that.ends[r - run] = ends[r] - index;
+		}
+		that.runs = runs - run;
+		that.size = size - index;
+
+		if (start < index) {
+			ends[run] = index;
+			runs = run + 1;
+		} else {
+			runs = run;
+		}
+		size = index;
+
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		// Nothing to do
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int r = 0; r < runs; r++) {
+			if (str.length() > 10) {
+				str.append("...");
+				break;
+			}
+			if (str.length() > 0) {
+				str.append(", ");
+			}
+			str.append(values[r]).append(" x ").append(ends[r] - runStart(r));
+		}
+		return String.format("%s: [%s]", getClass().getSimpleName(), str);
+	}
+}
@@ -0,0 +1,231 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.Arrays;
+
+/**
+ * Stores a default value, and a sorted list of the positions and values of any elements which
+ * differ from it. Inserting or removing elements only shifts the positions of later exceptions.
+ */
+public class SparseStore extends AbstractStore {
+
+	private static final long serialVersionUID = -1160724532878459712L;
+
+	/** The number of bits used to store each exception */
+	public static final int EXCEPTION_WIDTH = Integer.SIZE + Long.SIZE;
+
+	protected long defaultValue;
+
+	protected int[]		exceptionPositions;
+	protected long[]	exceptionValues;
+	protected int		exceptions;
+
+	public SparseStore(long defaultValue, int size) {
+		this(defaultValue, size, ALLOCATION_BUFFER);
+	}
+
+	protected SparseStore(long defaultValue, int size, int exceptionCapacity) {
+		this.defaultValue = defaultValue;
+		this.size = size;
+		exceptionPositions = new int[exceptionCapacity];
+		exceptionValues = new long[exceptionCapacity];
+	}
+
+	/**
+	 * Creates a sparse store with the same contents as a constant store
+	 */
+	public SparseStore(ConstantStore constant) {
+		this(constant.getLong(0), constant.size());
+	}
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 *
+	 * @param defaultValue
+	 *            The most common value in the existing store
+	 * @param exceptions
+	 *            The number of values which differ from the default, used to size the new store
+	 * @param elements
+	 *            The values to be stored
+	 */
+	public SparseStore(long defaultValue, int exceptions, Store elements) {
+		this(defaultValue, elements.size(), exceptions);
+		for (int i = 0; i < size; i++) {
+			long v = elements.getLong(i);
+			if (v != defaultValue) {
+				insertException(this.exceptions, i, v);
+			}
+		}
+	}
+
+	/**
+	 * @return the largest number of exceptions a sparse store of the given size should hold before a
+	 *         different strategy is chosen
+	 */
+	public static int maxExceptions(int size) {
+		return Math.max(ALLOCATION_BUFFER, size / 16);
+	}
+
+	/**
+	 * @return the index of the exception at the given position, or -1 minus the index at which it
+	 *         would be inserted
+	 */
+	private int findException(int index) {
+		return Arrays.binarySearch(exceptionPositions, 0, exceptions, index);
+	}
+
+	private void insertException(int e, int index, long value) {
+		if (exceptions == exceptionPositions.length) {
+			int capacity = (int) (exceptions * EXPANSION_FACTOR + ALLOCATION_BUFFER);
+			exceptionPositions = Arrays.copyOf(exceptionPositions, capacity);
+			exceptionValues = Arrays.copyOf(exceptionValues, capacity);
+		}
+		System.arraycopy(exceptionPositions, e, exceptionPositions, e + 1, exceptions - e);
+		System.arraycopy(exceptionValues, e, exceptionValues, e + 1, exceptions - e);
+		exceptionPositions[e] = index;
+		exceptionValues[e] = value;
+		exceptions++;
+	}
+
+	private void removeException(int e) {
+		System.arraycopy(exceptionPositions, e + 1, exceptionPositions, e, exceptions - e - 1);
+		System.arraycopy(exceptionValues, e + 1, exceptionValues, e, exceptions - e - 1);
+		exceptions--;
+	}
+
+	private void shiftExceptions(int fromException, int delta) {
+		for (int e = fromException; e < exceptions; e++) {
+			exceptionPositions[e] += delta;
+		}
+	}
+
+	@Override
+	public void allocate(int size) {
+		this.size = size;
+		exceptions = 0;
+	}
+
+	@Override
+	public long getLong(int index) {
+		if (exceptions > 0) {
+			int e = findException(index);
+			if (e >= 0) {
+				return exceptionValues[e];
+			}
+		}
+		return defaultValue;
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		int e = findException(index);
+		if (e >= 0) {
+			long oldValue = exceptionValues[e];
+			if (value == defaultValue) {
+				removeException(e);
+			} else {
+				exceptionValues[e] = value;
+			}
+			return oldValue;
+		}
+
+		if (value != defaultValue) {
+			insertException(-(1 + e), index, value);
+		}
+		return defaultValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		int e = findException(index);
+		if (e < 0) {
+			e = -(1 + e);
+		}
+		shiftExceptions(e, 1);
+
+		if (value != defaultValue) {
+			insertException(e, index, value);
+		}
+		size++;
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = defaultValue;
+		int e = findException(index);
+		if (e >= 0) {
+			oldValue = exceptionValues[e];
+			removeException(e);
+		} else {
+			e = -(1 + e);
+		}
+		shiftExceptions(e, -1);
+
+		size--;
+		return oldValue;
+	}
+
+	@Override
+	public boolean removesFromMiddle() {
+		return true;
+	}
+
+	@Override
+	public boolean inRange(long value) {
+		return value == defaultValue || exceptions < maxExceptions(size);
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	/**
+	 * @return the average number of bits used per element, rounded up
+	 */
+	@Override
+	public int getWidth() {
+		if (size == 0) {
+			return 0;
+		}
+		return (int) (((long) exceptions * EXCEPTION_WIDTH + size - 1) / size);
+	}
+
+	@Override
+	public Store[] split(int index) {
+		int e = findException(index);
+		if (e < 0) {
+			e = -(1 + e);
+		}
+
+		SparseStore that = new SparseStore(defaultValue, size - index, Math.max(exceptions - e, ALLOCATION_BUFFER));
+		for (int i = e; i < exceptions; i++) {
+			that.exceptionPositions[i - e] = exceptionPositions[i] - index;
+			that.exceptionValues[i - e] = exceptionValues[i];
+		}
+		that.exceptions = exceptions - e;
+
+		exceptions = e;
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		// Nothing to do
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%d, %d exceptions)", getClass().getSimpleName(), defaultValue, exceptions);
+	}
+}
@@ -2,6 +2,7 @@ package net.kothar.compactlist.internal.storage;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.function.LongConsumer;
 
 import net.kothar.compactlist.LongList;
 
@@ -16,8 +17,94 @@ public interface Store extends LongList, List<Long>, Serializable {
 
 	void release();
 
+	/**
+	 * @return true if elements can be removed from anywhere in the store, rather than only from
+	 *         either end
+	 */
+	default boolean removesFromMiddle() {
+		return false;
+	}
+
+	/**
+	 * Moves the elements to new storage with room for the given number of elements, if that is
+	 * more than the current capacity. Stores which cannot grow in place ignore this.
+	 */
+	default void reserve(int capacity) {
+	}
+
 	boolean inRange(long value);
 
+	/**
+	 * Checks whether a value can be written at a specific position without changing the storage
+	 * strategy. Stores whose representable values depend on position should override this.
+	 * 
+	 * @param index
+	 *            The position to be written
+	 * @param value
+	 *            The value to be written
+	 * @param set
+	 *            true if an existing element will be replaced, false if the value will be inserted
+	 * @return true if the value can be stored at the given position
+	 */
+	default boolean inRange(int index, long value, boolean set) {
+		return inRange(value);
+	}
+
+	/**
+	 * Performs a binary search to locate the index of the given value.
+	 * <p>
+	 * Assumes that the values are in ascending order.
+	 * 
+	 * @param value
+	 *            The value to search for
+	 * @return The index of the value. If not found, returns -1 minus the index at which it should
+	 *         be inserted.
+	 */
+	default int searchLong(long value) {
+		int low = 0, high = size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long v = getLong(mid);
+			if (v < value) {
+				low = mid + 1;
+			} else if (v > value) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(1 + low);
+	}
+
+	@Override
+	default void forEachLong(LongConsumer action) {
+		forEachLong(0, size(), action);
+	}
+
+	/**
+	 * Passes a range of elements to the given action in order, without boxing. Stores which can
+	 * read runs of elements directly should override this.
+	 * 
+	 * @param from
+	 *            The index of the first element to visit
+	 * @param to
+	 *            The index after the last element to visit
+	 */
+	default void forEachLong(int from, int to, LongConsumer action) {
+		for (int i = from; i < to; i++) {
+			action.accept(getLong(i));
+		}
+	}
+
+	/**
+	 * @return a store holding the same values, which is quicker to read one element at a time while
+	 *         this store is unchanged. Stores which decode blocks of values should return one which
+	 *         keeps the decoded values.
+	 */
+	default Store reader() {
+		return this;
+	}
+
 	int capacity();
 
 	int prependCapacity();
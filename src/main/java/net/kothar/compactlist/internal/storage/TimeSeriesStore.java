@@ -0,0 +1,369 @@
+package net.kothar.compactlist.internal.storage;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A sealed store for time-series data, which encodes each value relative to the one before it in
+ * a variable-length bit stream. Timestamps taken at regular intervals suit
+ * {@link Encoding#DELTA_OF_DELTA}, and sample values stored with
+ * {@link Double#doubleToLongBits(double)} suit {@link Encoding#XOR}.
+ * <p>
+ * Every {@link #CHECKPOINT_INTERVAL} values the encoder state is reset, and the value and stream
+ * position are recorded, so that a lookup decodes a bounded number of values. Values can only be
+ * removed from either end; other writes require a different store.
+ */
+public class TimeSeriesStore extends AbstractStore {
+
+	private static final long serialVersionUID = 5283410675291365347L;
+
+	/** The number of values between each checkpoint */
+	public static final int CHECKPOINT_INTERVAL = 1 << 6;
+
+	/** The number of bits used to store each checkpoint */
+	public static final int CHECKPOINT_WIDTH = Long.SIZE + Integer.SIZE;
+
+	public enum Encoding {
+		/** Each value stores the change in the difference between successive values */
+		DELTA_OF_DELTA,
+		/** Each value stores the bits which differ from the previous value */
+		XOR
+	}
+
+	protected final Encoding encoding;
+
+	protected long[]	stream;
+	protected long[]	checkpointValues;
+	protected int[]		checkpointPositions;
+
+	/** The index in the encoded values of the first element in this store */
+	protected int offset;
+
+	/**
+	 * Creates a new store containing the values in an existing store
+	 *
+	 * @param encoding
+	 *            The encoding to apply to successive values
+	 * @param elements
+	 *            The values to be stored
+	 */
+	public TimeSeriesStore(Encoding encoding, Store elements) {
+		this.encoding = encoding;
+		this.size = elements.size();
+
+		Encoder encoder = new Encoder(encoding, true);
+		for (int i = 0; i < size; i++) {
+			encoder.add(elements.getLong(i));
+		}
+		int checkpoints = (size + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL;
+		stream = Arrays.copyOf(encoder.stream, (int) ((encoder.position + Long.SIZE - 1) >>> 6));
+		checkpointValues = Arrays.copyOf(encoder.checkpointValues, checkpoints);
+		checkpointPositions = Arrays.copyOf(encoder.checkpointPositions, checkpoints);
+	}
+
+	protected TimeSeriesStore(TimeSeriesStore encoded, int offset, int size) {
+		this.encoding = encoded.encoding;
+		this.stream = encoded.stream;
+		this.checkpointValues = encoded.checkpointValues;
+		this.checkpointPositions = encoded.checkpointPositions;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * Encodes successive values into a bit stream. If no stream is kept, only the number of bits
+	 * required is counted.
+	 */
+	public static class Encoder {
+
+		final Encoding encoding;
+
+		long[]	stream;
+		long[]	checkpointValues;
+		int[]	checkpointPositions;
+		long	position;
+		int		count;
+
+		long	previous, previousDelta;
+		int		leading	= -1, trailing;
+
+		public Encoder(Encoding encoding, boolean keepStream) {
+			this.encoding = encoding;
+			if (keepStream) {
+				stream = new long[ALLOCATION_BUFFER];
+				checkpointValues = new long[ALLOCATION_BUFFER];
+				checkpointPositions = new int[ALLOCATION_BUFFER];
+			}
+		}
+
+		/**
+		 * @return the number of bits needed for the values added so far, including checkpoints
+		 */
+		public long bits() {
+			long checkpoints = (count + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL;
+			return position + checkpoints * CHECKPOINT_WIDTH;
+		}
+
+		public void add(long value) {
+			if (count % CHECKPOINT_INTERVAL == 0) {
+				checkpoint(value);
+			} else if (encoding == Encoding.DELTA_OF_DELTA) {
+				long delta = value - previous;
+				writeDeltaOfDelta(delta - previousDelta);
+				previousDelta = delta;
+			} else {
+				writeXor(value ^ previous);
+			}
+			previous = value;
+			count++;
+		}
+
+		private void checkpoint(long value) {
+			if (stream != null) {
+				int c = count / CHECKPOINT_INTERVAL;
+				if (c == checkpointValues.length) {
+					int capacity = (int) (c * EXPANSION_FACTOR);
+					checkpointValues = Arrays.copyOf(checkpointValues, capacity);
+					checkpointPositions = Arrays.copyOf(checkpointPositions, capacity);
+				}
+				checkpointValues[c] = value;
+				checkpointPositions[c] = (int) position;
+			}
+			previousDelta = 0;
+			leading = -1;
+		}
+
+		private void writeDeltaOfDelta(long dod) {
+			if (dod == 0) {
+				write(0, 1);
+			} else if (dod >= -63 && dod <= 64) {
+				write(0b01, 2);
+				write(dod + 63, 7);
+			} else if (dod >= -255 && dod <= 256) {
+				write(0b011, 3);
+				write(dod + 255, 9);
+			} else if (dod >= -2047 && dod <= 2048) {
+				write(0b0111, 4);
+				write(dod + 2047, 12);
+			} else {
+				write(0b1111, 4);
+				write(dod, Long.SIZE);
+			}
+		}
+
+		private void writeXor(long xor) {
+			if (xor == 0) {
+				write(0, 1);
+				return;
+			}
+
+			int lz = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int tz = Long.numberOfTrailingZeros(xor);
+			if (leading >= 0 && lz >= leading && tz >= trailing) {
+				// Reuse the previous window of meaningful bits
+				write(0b01, 2);
+				write(xor >>> trailing, Long.SIZE - leading - trailing);
+			} else {
+				int length = Long.SIZE - lz - tz;
+				write(0b11, 2);
+				write(lz, 5);
+				write(length - 1, 6);
+				write(xor >>> tz, length);
+				leading = lz;
+				trailing = tz;
+			}
+		}
+
+		private void write(long value, int bits) {
+			if (stream != null) {
+				int word = (int) (position >>> 6);
+				int shift = (int) (position & 63);
+				if (word + 1 >= stream.length) {
+					stream = Arrays.copyOf(stream, (int) ((word + 2) * EXPANSION_FACTOR));
+				}
+				value &= -1L >>> (Long.SIZE - bits);
+				stream[word] |= value << shift;
+				if (shift + bits > Long.SIZE) {
+					stream[word + 1] |= value >>> (Long.SIZE - shift);
+				}
+			}
+			position += bits;
+		}
+	}
+
+	/**
+	 * Reads values from the bit stream, starting at a checkpoint
+	 */
+	private class Decoder {
+
+		long	position;
+		long	value, delta;
+		int		leading, trailing;
+
+		Decoder(int checkpoint) {
+			position = checkpointPositions[checkpoint];
+			value = checkpointValues[checkpoint];
+		}
+
+		long read(int bits) {
+			int word = (int) (position >>> 6);
+			int shift = (int) (position & 63);
+			long v = stream[word] >>> shift;
+			if (shift + bits > Long.SIZE) {
+				v |= stream[word + 1] << (Long.SIZE - shift);
+			}
+			position += bits;
+			return v & (-1L >>> (Long.SIZE - bits));
+		}
+
+		long next() {
+			if (encoding == Encoding.DELTA_OF_DELTA) {
+				delta += readDeltaOfDelta();
+				value += delta;
+			} else if (read(1) != 0) {
+				if (read(1) != 0) {
+					leading = (int) read(5);
+					int length = (int) read(6) + 1;
+					trailing = Long.SIZE - leading - length;
+				}
+				value ^= read(Long.SIZE - leading - trailing) << trailing;
+			}
+			return value;
+		}
+
+		private long readDeltaOfDelta() {
+			if (read(1) == 0) {
+				return 0;
+			}
+			if (read(1) == 0) {
+				return read(7) - 63;
+			}
+			if (read(1) == 0) {
+				return read(9) - 255;
+			}
+			if (read(1) == 0) {
+				return read(12) - 2047;
+			}
+			return read(Long.SIZE);
+		}
+	}
+
+	@Override
+	public void allocate(int size) {
+		throw new UnsupportedOperationException("Time-series stores are sealed on creation");
+	}
+
+	@Override
+	public long getLong(int index) {
+		int k = offset + index;
+		Decoder decoder = new Decoder(k / CHECKPOINT_INTERVAL);
+		for (int i = k % CHECKPOINT_INTERVAL; i > 0; i--) {
+			decoder.next();
+		}
+		return decoder.value;
+	}
+
+	/**
+	 * Decodes the range in a single pass, rather than from the preceding checkpoint for each value
+	 */
+	@Override
+	public void forEachLong(int from, int to, LongConsumer action) {
+		Decoder decoder = null;
+		for (int k = offset + from, end = offset + to; k < end; k++) {
+			if (decoder == null) {
+				decoder = new Decoder(k / CHECKPOINT_INTERVAL);
+				for (int i = k % CHECKPOINT_INTERVAL; i > 0; i--) {
+					decoder.next();
+				}
+			} else if (k % CHECKPOINT_INTERVAL == 0) {
+				decoder = new Decoder(k / CHECKPOINT_INTERVAL);
+			} else {
+				decoder.next();
+			}
+			action.accept(decoder.value);
+		}
+	}
+
+	@Override
+	public long setLong(int index, long value) {
+		long oldValue = getLong(index);
+		if (value != oldValue) {
+			throw new UnsupportedOperationException("Elements of a time-series store cannot be replaced");
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void addLong(int index, long value) {
+		throw new UnsupportedOperationException("Elements cannot be added to a time-series store");
+	}
+
+	@Override
+	public long removeLong(int index) {
+		long oldValue = getLong(index);
+		if (index == 0) {
+			offset++;
+		} else if (index != size - 1) {
+			throw new UnsupportedOperationException("Elements can only be removed from the ends of a time-series store");
+		}
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Time-series stores are sealed, so no new value is in range.
+	 */
+	@Override
+	public boolean inRange(long value) {
+		return false;
+	}
+
+	@Override
+	public boolean inRange(int index, long value, boolean set) {
+		return set && value == getLong(index);
+	}
+
+	@Override
+	public int capacity() {
+		return size;
+	}
+
+	@Override
+	public int prependCapacity() {
+		return size;
+	}
+
+	@Override
+	public int appendCapacity() {
+		return size;
+	}
+
+	/**
+	 * @return the average number of bits used per element, rounded up
+	 */
+	@Override
+	public int getWidth() {
+		if (size == 0) {
+			return 0;
+		}
+		long bits = (long) stream.length * Long.SIZE + (long) checkpointValues.length * CHECKPOINT_WIDTH;
+		return (int) ((bits + size - 1) / size);
+	}
+
+	@Override
+	public Store[] split(int index) {
+		TimeSeriesStore that = new TimeSeriesStore(this, offset + index, size - index);
+		size = index;
+		return new Store[] { this, that };
+	}
+
+	@Override
+	public void release() {
+		// Nothing to do
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%s)", getClass().getSimpleName(), encoding);
+	}
+}
@@ -4,11 +4,20 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.ListIterator;
+import java.util.PrimitiveIterator;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import net.kothar.compactlist.internal.LongCursor;
+import net.kothar.compactlist.internal.TreeConfiguration;
+
 public class CompactListTest {
 
 	private static final int BENCHMARK_COUNT = 6_000_000;
@@ -58,6 +67,222 @@ public class CompactListTest {
 		}
 	}
 	
+	@Test
+	public void sub_list_iterates_across_segments() {
+		CompactList list = new CompactList();
+		ArrayList<Long> expected = new ArrayList<>();
+		for (long i = 0; i < 200_000; i++) {
+			list.add(i * 7 % 1000);
+			expected.add(i * 7 % 1000);
+		}
+		for (int i = 0; i < 100; i++) {
+			list.remove(i * 1000 + 17);
+			expected.remove(i * 1000 + 17);
+		}
+
+		assertEquals(expected.subList(60_000, 150_000), list.subList(60_000, 150_000));
+
+		// Backwards
+		ListIterator<Long> i = list.listIterator(list.size());
+		ListIterator<Long> j = expected.listIterator(expected.size());
+		while (j.hasPrevious()) {
+			assertEquals(j.previous(), i.previous());
+		}
+		assertFalse(i.hasPrevious());
+	}
+
+	@Test
+	public void split_and_concat_reuse_segments() {
+		CompactList list = new CompactList();
+		ArrayList<Long> expected = new ArrayList<>();
+		for (long i = 0; i < 500_000; i++) {
+			list.add(i * 3);
+			expected.add(i * 3);
+		}
+		list.compact();
+		Set<Object> stores = Collections.newSetFromMap(new IdentityHashMap<>());
+		list.root.walk(leaf -> stores.add(leaf.getStorage()));
+
+		CompactList tail = list.splitAt(300_000);
+		assertEquals(expected.subList(0, 300_000), list);
+		assertEquals(expected.subList(300_000, 500_000), tail);
+
+		CompactList empty = tail.splitAt(tail.size());
+		assertTrue(empty.isEmpty());
+		tail.addLong(0, -1);
+		tail.removeLong(0);
+
+		list.concat(tail);
+		assertTrue(tail.isEmpty());
+		assertEquals(expected, list);
+
+		// Segments not divided by the split are the same objects
+		ArrayList<Object> joined = new ArrayList<>();
+		list.root.walk(leaf -> joined.add(leaf.getStorage()));
+		int shared = 0;
+		for (Object store : joined) {
+			if (stores.contains(store)) {
+				shared++;
+			}
+		}
+		assertTrue(shared >= stores.size() - 1);
+	}
+
+	@Test
+	public void primitive_iteration_matches_list() {
+		CompactList list = new CompactList(TreeConfiguration.DEFAULT.withLeafSizes(1 << 10, 1 << 12));
+		ArrayList<Long> expected = new ArrayList<>();
+		Random random = new Random(25);
+		for (int i = 0; i < 50_000; i++) {
+			int index = random.nextInt(expected.size() + 1);
+			long value = random.nextInt(1000) - 500;
+			list.addLong(index, value);
+			expected.add(index, value);
+		}
+		for (int i = 0; i < 5_000; i++) {
+			int index = random.nextInt(expected.size());
+			assertEquals(expected.remove(index), list.remove(index));
+		}
+		list.compact();
+		for (int i = 0; i < 100; i++) {
+			int index = random.nextInt(expected.size());
+			assertEquals(expected.remove(index), list.remove(index));
+		}
+
+		ArrayList<Long> actual = new ArrayList<>();
+		list.forEachLong(actual::add);
+		assertEquals(expected, actual);
+
+		actual.clear();
+		list.longIterator().forEachRemaining((long v) -> actual.add(v));
+		assertEquals(expected, actual);
+
+		actual.clear();
+		for (PrimitiveIterator.OfLong i = list.longIterator(); i.hasNext();) {
+			actual.add(i.nextLong());
+		}
+		assertEquals(expected, actual);
+
+		LongCursor cursor = list.cursor();
+		for (int pass = 0; pass < 2; pass++) {
+			actual.clear();
+			while (cursor.next()) {
+				assertEquals(actual.size(), cursor.index());
+				actual.add(cursor.value());
+			}
+			assertEquals(expected, actual);
+			cursor.reset();
+		}
+
+		// The cursor follows writes to the list
+		cursor.seek(1000);
+		list.add(0, 1L);
+		expected.add(0, 1L);
+		assertTrue(cursor.next());
+		assertEquals((long) expected.get(1000), cursor.value());
+
+		// Snapshots cannot follow the links between segments, which belong to the list
+		CompactListSnapshot snapshot = list.snapshot();
+		list.setLong(0, 2);
+		actual.clear();
+		for (cursor = snapshot.cursor(); cursor.next();) {
+			actual.add(cursor.value());
+		}
+		assertEquals(expected, actual);
+		actual.clear();
+		snapshot.forEachLong(actual::add);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void snapshot_is_unchanged_by_writes() {
+		CompactList list = new CompactList();
+		ArrayList<Long> expected = new ArrayList<>();
+		for (long i = 0; i < 300_000; i++) {
+			list.add(i * 5);
+			expected.add(i * 5);
+		}
+		list.compact();
+
+		CompactListSnapshot snapshot = list.snapshot();
+		list.setLong(1000, -1);
+
+		// Only the written segment is copied
+		Set<Object> stores = Collections.newSetFromMap(new IdentityHashMap<>());
+		list.root.walk(leaf -> stores.add(leaf.getStorage()));
+		ArrayList<Object> snapshotStores = new ArrayList<>();
+		snapshot.root.walk(leaf -> snapshotStores.add(leaf.getStorage()));
+		int shared = 0;
+		for (Object store : snapshotStores) {
+			if (stores.contains(store)) {
+				shared++;
+			}
+		}
+		assertEquals(snapshotStores.size() - 1, shared);
+
+		Random random = new Random(19);
+		ArrayList<Long> current = new ArrayList<>(expected);
+		current.set(1000, -1L);
+		for (int i = 0; i < 2000; i++) {
+			int index = random.nextInt(current.size());
+			long value = random.nextLong();
+			switch (random.nextInt(3)) {
+			case 0:
+				list.setLong(index, value);
+				current.set(index, value);
+				break;
+			case 1:
+				list.addLong(index, value);
+				current.add(index, value);
+				break;
+			default:
+				list.removeLong(index);
+				current.remove(index);
+			}
+		}
+		list.compact();
+
+		assertEquals(current, list);
+		assertEquals(expected, snapshot);
+		assertEquals(expected.get(123_456), snapshot.get(123_456));
+		assertEquals(expected.subList(200_000, 200_010), snapshot.subList(200_000, 200_010));
+	}
+
+	@Test
+	public void iterator_set_writes_copied_leaf_after_snapshot() {
+		CompactList list = new CompactList(TreeConfiguration.DEFAULT.withLeafSizes(16, 64));
+		for (long i = 0; i < 1000; i++) {
+			list.add(i);
+		}
+		CompactListSnapshot snapshot = list.snapshot();
+
+		ListIterator<Long> i = list.listIterator(5);
+		assertEquals(5L, (long) i.next());
+		i.set(100L);
+		assertEquals(100L, (long) i.previous());
+		assertEquals(100L, (long) i.next());
+		assertEquals(6L, (long) i.next());
+
+		assertEquals(100L, list.getLong(5));
+		assertEquals(5L, snapshot.getLong(5));
+	}
+
+	@Test
+	public void adaptive_list_shrinks_leaves_for_inserts() {
+		TreeConfiguration configuration = TreeConfiguration.DEFAULT.withMaintenanceCycle(1000).withAdaptive(true);
+		CompactList list = new CompactList(configuration);
+		ArrayList<Long> expected = new ArrayList<>();
+		Random random = new Random(20);
+		for (int i = 0; i < 20_000; i++) {
+			int index = random.nextInt(list.size() + 1);
+			list.addLong(index, i);
+			expected.add(index, (long) i);
+		}
+
+		assertTrue(list.root.getTargetLeafSize() < configuration.getTargetLeafSize());
+		assertEquals(expected, list);
+	}
+
 	@Test
 	public void test_set_beyond_size() {
 		// TODO
@@ -4,14 +4,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.TreeMap;
 
 import org.junit.Test;
 
+import net.kothar.compactlist.internal.LongCursor;
+import net.kothar.compactlist.internal.storage.EliasFanoStore;
+
 public class CompactMapTest {
 
 	@Test
@@ -86,6 +92,49 @@ public class CompactMapTest {
 		assertFalse(i.hasNext());
 	}
 
+	@Test
+	public void primitive_keys_and_values() {
+		CompactMap map = new CompactMap();
+		for (long i = 100; i > 0; i--) {
+			map.put(i * 3, -i);
+		}
+		assertTrue(map.containsValue(-50L));
+		assertFalse(map.containsValue(50L));
+
+		List<Long> keys = new ArrayList<>(), values = new ArrayList<>();
+		map.forEachKey(keys::add);
+		map.forEachValue(values::add);
+		assertEquals(new ArrayList<>(map.keySet()), keys);
+		assertEquals(new ArrayList<>(map.values()), values);
+
+		LongCursor keyCursor = map.keyCursor(), valueCursor = map.valueCursor();
+		while (keyCursor.next()) {
+			assertTrue(valueCursor.next());
+			assertEquals(keyCursor.index(), valueCursor.index());
+			assertEquals(-keyCursor.value() / 3, valueCursor.value());
+		}
+		assertFalse(valueCursor.next());
+
+		assertEquals(3, map.keyIterator().nextLong());
+		assertEquals(-1, map.valueIterator().nextLong());
+	}
+
+	@Test
+	public void compact_sorted_keys() {
+		Random r = new Random(23);
+		Map<Long, Long> javaMap = new TreeMap<>();
+		CompactMap compactMap = new CompactMap();
+		for (int i = 0; i < 1 << 16; i++) {
+			long key = r.nextInt() & 0xFFFFFFFFL;
+			javaMap.put(key, (long) i);
+			compactMap.put(key, (long) i);
+		}
+
+		compactMap.compact();
+		compactMap.keys.walk(leaf -> assertTrue(leaf.getStorage() instanceof EliasFanoStore));
+		assertEquals(javaMap, compactMap);
+	}
+
 	@Test
 	public void large_map() {
 		Map<Long, Long> javaMap = new TreeMap<>();
@@ -6,11 +6,14 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.junit.Test;
 
+import net.kothar.compactlist.internal.storage.EliasFanoStore;
+
 public class CompactSetTest {
 
 	@Test
@@ -83,6 +86,29 @@ public class CompactSetTest {
 		assertFalse(i.hasNext());
 	}
 
+	@Test
+	public void compact_sorted_ids() {
+		Random r = new Random(19);
+		Set<Long> javaSet = new TreeSet<>();
+		CompactSet compactSet = new CompactSet();
+		for (int i = 0; i < 1 << 16; i++) {
+			long id = r.nextInt() & 0xFFFFFFFFL;
+			javaSet.add(id);
+			compactSet.add(id);
+		}
+
+		compactSet.compact();
+		compactSet.root.walk(leaf -> assertTrue(leaf.getStorage() instanceof EliasFanoStore));
+		assertEquals(javaSet, compactSet);
+
+		for (int i = 0; i < 1000; i++) {
+			long id = r.nextInt() & 0xFFFFFFFFL;
+			assertEquals(javaSet.contains(id), compactSet.contains(id));
+			assertEquals(javaSet.add(id), compactSet.add(id));
+		}
+		assertEquals(javaSet, compactSet);
+	}
+
 	@Test
 	public void large_set() {
 		Set<Long> javaSet = new TreeSet<>();
@@ -0,0 +1,60 @@
+package net.kothar.compactlist;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Applies the same random inserts, removals, replacements and reads to a {@link LongList} and to a
+ * reference list, checking that each operation returns the same value from both
+ */
+public class RandomOperations {
+
+	private final Random				random;
+	private final ToLongFunction<Random>	values;
+
+	/**
+	 * @param seed
+	 *            Seeds the choice of operations and values
+	 * @param values
+	 *            Chooses each value to insert or write
+	 */
+	public RandomOperations(long seed, ToLongFunction<Random> values) {
+		this.random = new Random(seed);
+		this.values = values;
+	}
+
+	public void apply(LongList list, List<Long> expected, int count) {
+		apply(list, expected, count, i -> {
+		});
+	}
+
+	/**
+	 * @param afterEach
+	 *            Called after each operation with the number of operations applied before it
+	 */
+	public void apply(LongList list, List<Long> expected, int count, IntConsumer afterEach) {
+		for (int i = 0; i < count; i++) {
+			int op = expected.isEmpty() ? 0 : random.nextInt(10);
+			long value = values.applyAsLong(random);
+			if (op < 4) {
+				int index = random.nextInt(expected.size() + 1);
+				list.addLong(index, value);
+				expected.add(index, value);
+			} else if (op < 7) {
+				int index = random.nextInt(expected.size());
+				assertEquals((long) expected.remove(index), list.removeLong(index));
+			} else if (op < 9) {
+				int index = random.nextInt(expected.size());
+				assertEquals((long) expected.set(index, value), list.setLong(index, value));
+			} else {
+				int index = random.nextInt(expected.size());
+				assertEquals((long) expected.get(index), list.getLong(index));
+			}
+			afterEach.accept(i);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package net.kothar.compactlist.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.RandomOperations;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.storage.LinearStore;
+
+public class ArenaTreeTest {
+
+	/**
+	 * Checks the sizes and heights of each node
+	 */
+	private int check(ArenaTree tree, int id) {
+		if (tree.lefts[id] < 0) {
+			assertEquals(tree.stores[id].size(), tree.sizes[id]);
+			return 0;
+		}
+		int left = check(tree, tree.lefts[id]);
+		int right = check(tree, tree.rights[id]);
+		assertEquals(tree.sizes[tree.lefts[id]] + tree.sizes[tree.rights[id]], tree.sizes[id]);
+		assertEquals(Math.max(left, right) + 1, tree.heights[id]);
+		return tree.heights[id];
+	}
+
+	@Test
+	public void random_operations_match_list() {
+		ArenaTree tree = new ArenaTree(8, 32);
+		List<Long> expected = new ArrayList<>();
+		new RandomOperations(11, r -> r.nextLong() >> r.nextInt(Long.SIZE)).apply(tree, expected, 20_000, i -> {
+			if (i % 1000 == 0) {
+				tree.compact();
+			}
+			if (i % 100 == 0) {
+				check(tree, 0);
+				assertEquals(expected.size(), tree.size());
+			}
+		});
+
+		List<Long> actual = new ArrayList<>();
+		tree.forEach(actual::add);
+		assertEquals(expected, actual);
+		assertEquals(-1, tree.searchLong(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void merged_slots_are_reused() {
+		ArenaTree tree = new ArenaTree(100, 400);
+		for (int i = 0; i < 1000; i++) {
+			tree.addLong(i / 2, i);
+		}
+		int slots = tree.slots;
+		assertTrue(tree.nodeCount() > 1);
+
+		for (int round = 0; round < 10; round++) {
+			while (tree.size() > 0) {
+				tree.removeLong(tree.size() / 2);
+			}
+			tree.compact();
+			assertEquals(1, tree.nodeCount());
+
+			for (int i = 0; i < 1000; i++) {
+				tree.addLong(i / 2, i);
+			}
+		}
+		assertEquals(slots, tree.slots);
+	}
+
+	@Test
+	public void maintenance_compacts_modified_leaves() {
+		ArenaTree tree = new ArenaTree(8, 32);
+		for (int i = 0; i < 200; i++) {
+			tree.addLong(i, i * 3L);
+		}
+		assertTrue(tree.dirtyHead >= 0);
+
+		int leaves[] = new int[1];
+		tree.walk(store -> leaves[0]++);
+		for (int i = 0; i < leaves[0]; i++) {
+			tree.maintain(CompactionPolicy.getDefault());
+		}
+		assertEquals(-1, tree.dirtyHead);
+		assertEquals(-1, tree.dirtyTail);
+		tree.walk(store -> assertTrue(store instanceof LinearStore));
+	}
+
+	@Test
+	public void compaction_merges_small_subtrees() {
+		ArenaTree tree = new ArenaTree(1000, 4000);
+		for (int i = 0; i < 1000; i++) {
+			tree.addLong(i, i * 3L);
+		}
+		// Sealed leaves are split to remove values from their middle
+		tree.compact();
+		for (int i = 0; i < 10; i++) {
+			tree.addLong(i * 50 + 1, tree.removeLong(i * 50 + 1));
+		}
+		assertTrue(tree.nodeCount() > 10);
+
+		tree.compact();
+		assertEquals(1, tree.nodeCount());
+		tree.walk(store -> assertTrue(store instanceof LinearStore));
+		assertEquals(300, tree.searchLong(900));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 3L, tree.getLong(i));
+		}
+	}
+
+	@Test
+	public void iterator_reads_and_removes_elements() {
+		ArenaTree tree = new ArenaTree(8, 32);
+		for (int i = 0; i < 500; i++) {
+			tree.addLong(i, i);
+		}
+
+		PrimitiveIterator.OfLong i = new TreeIterator(tree);
+		for (int n = 0; n < 250; n++) {
+			assertEquals(n * 2, i.nextLong());
+			i.remove();
+			i.nextLong();
+		}
+		assertEquals(250, tree.size());
+
+		List<Long> rest = new ArrayList<>();
+		new TreeIterator(tree).forEachRemaining((long value) -> rest.add(value));
+		for (int n = 0; n < 250; n++) {
+			assertEquals(n * 2 + 1, (long) rest.get(n));
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package net.kothar.compactlist.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FingerTest {
+
+	private Node segmented(List<Long> expected) {
+		Node node = new Node();
+		for (int i = 0; i < 1000; i++) {
+			node.addLong(i, i);
+			expected.add((long) i);
+		}
+		for (int i = 50; i < 1000; i += 50) {
+			node.split(i);
+		}
+		return node;
+	}
+
+	@Test
+	public void reads_in_both_directions() {
+		List<Long> expected = new ArrayList<>();
+		Node node = segmented(expected);
+		Finger finger = new Finger(node);
+
+		for (int i = 0; i < node.size(); i++) {
+			assertEquals((long) expected.get(i), finger.getLong(i));
+		}
+		for (int i = node.size() - 1; i >= 0; i--) {
+			assertEquals((long) expected.get(i), finger.getLong(i));
+		}
+	}
+
+	@Test
+	public void structural_changes_are_followed() {
+		List<Long> expected = new ArrayList<>();
+		Node node = segmented(expected);
+		Finger finger = new Finger(node);
+		Random random = new Random(3);
+
+		for (int i = 0; i < 2000; i++) {
+			int index = random.nextInt(expected.size());
+			switch (random.nextInt(5)) {
+			case 0:
+				node.addLong(index, i);
+				expected.add(index, (long) i);
+				break;
+			case 1:
+				assertEquals((long) expected.remove(index), node.removeLong(index));
+				break;
+			case 2:
+				assertEquals((long) expected.set(index, (long) -i), finger.setLong(index, -i));
+				break;
+			case 3:
+				if (i % 100 == 0) {
+					node.compact();
+				}
+				break;
+			default:
+				assertEquals((long) expected.get(index), finger.getLong(index));
+			}
+
+			// Neighbouring reads
+			int near = Math.min(expected.size() - 1, index + random.nextInt(60));
+			assertEquals((long) expected.get(near), finger.getLong(near));
+		}
+	}
+}
@@ -3,20 +3,41 @@ package net.kothar.compactlist.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import net.kothar.compactlist.CompactList;
+import net.kothar.compactlist.internal.compaction.CompactionPolicy;
+import net.kothar.compactlist.internal.compaction.CompactionStrategy;
 import net.kothar.compactlist.internal.storage.ArrayStore;
+import net.kothar.compactlist.internal.storage.BitPackedStore;
+import net.kothar.compactlist.internal.storage.ByteArrayStore;
+import net.kothar.compactlist.internal.storage.CompressedStore;
+import net.kothar.compactlist.internal.storage.ConstantStore;
+import net.kothar.compactlist.internal.storage.DictionaryStore;
+import net.kothar.compactlist.internal.storage.IntArrayStore;
+import net.kothar.compactlist.internal.storage.LinearStore;
 import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.PatchedStore;
+import net.kothar.compactlist.internal.storage.ResidualLinearStore;
+import net.kothar.compactlist.internal.storage.RunLengthStore;
 import net.kothar.compactlist.internal.storage.ShortArrayStore;
+import net.kothar.compactlist.internal.storage.SparseStore;
+import net.kothar.compactlist.internal.storage.Store;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore;
 
 public class NodeTest {
 
@@ -111,6 +132,353 @@ public class NodeTest {
 		assertEquals(4, node.getLong(4));
 	}
 
+	private void collectLeaves(Node node, List<Node> leaves) {
+		if (node.left == null) {
+			leaves.add(node);
+		} else {
+			collectLeaves(node.left, leaves);
+			collectLeaves(node.right, leaves);
+		}
+	}
+
+	/**
+	 * Checks that the links between leaves follow the order of the tree
+	 */
+	private void checkLeafLinks(Node node) {
+		List<Node> leaves = new ArrayList<>();
+		collectLeaves(node, leaves);
+		for (int i = 0; i < leaves.size(); i++) {
+			assertTrue(leaves.get(i).prevLeaf == (i > 0 ? leaves.get(i - 1) : null));
+			assertTrue(leaves.get(i).nextLeaf == (i + 1 < leaves.size() ? leaves.get(i + 1) : null));
+		}
+	}
+
+	@Test
+	public void leaf_links_follow_splits_merges_and_rotations() {
+		Node node = new Node();
+		Random random = new Random(5);
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			node.addLong(i, i);
+			expected.add((long) i);
+		}
+		for (int i = 0; i < 100; i++) {
+			node.split(random.nextInt(node.size() + 1));
+			checkLeafLinks(node);
+		}
+		for (int i = 0; i < 50; i++) {
+			int index = random.nextInt(node.size());
+			assertEquals((long) expected.remove(index), node.removeLong(index));
+			checkLeafLinks(node);
+		}
+
+		List<Long> actual = new ArrayList<>();
+		node.forEach(actual::add);
+		assertEquals(expected, actual);
+
+		node.compact();
+		checkLeafLinks(node);
+		assertEquals(0, node.height);
+	}
+
+	@Test
+	public void cut_and_join_keep_leaves_linked() {
+		Random random = new Random(9);
+		Node node = new Node();
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			node.addLong(i, i);
+			expected.add((long) i);
+		}
+		for (int i = 0; i < 40; i++) {
+			node.split(random.nextInt(node.size() + 1));
+		}
+
+		for (int i = 0; i < 200; i++) {
+			int index = random.nextInt(node.size() + 1);
+			Node[] parts = node.cut(index);
+			assertEquals(index, parts[0].size());
+			checkLeafLinks(parts[0]);
+			checkLeafLinks(parts[1]);
+
+			List<Long> head = new ArrayList<>();
+			parts[0].forEach(head::add);
+			assertEquals(expected.subList(0, index), head);
+
+			// Rejoin in a different order and restore
+			node = Node.join(parts[1], parts[0]);
+			checkLeafLinks(node);
+			Node[] again = node.cut(node.size() - index);
+			node = Node.join(again[1], again[0]);
+			checkLeafLinks(node);
+		}
+
+		List<Long> actual = new ArrayList<>();
+		node.forEach(actual::add);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void snapshots_are_unchanged_by_writes() {
+		Random random = new Random(19);
+		Node node = new Node();
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			node.addLong(i, i);
+			expected.add((long) i);
+		}
+
+		// A single leaf is copied immediately
+		Node leafSnapshot = node.snapshot();
+		assertNotSame(leafSnapshot.getStorage(), node.getStorage());
+
+		for (int i = 0; i < 40; i++) {
+			node.split(random.nextInt(node.size() + 1));
+		}
+
+		List<Node> snapshots = new ArrayList<>();
+		List<List<Long>> contents = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			if (i % 50 == 0) {
+				snapshots.add(node.snapshot());
+				contents.add(new ArrayList<>(expected));
+			}
+
+			int index = random.nextInt(node.size());
+			switch (random.nextInt(5)) {
+			case 0:
+				node.setLong(index, -i);
+				expected.set(index, (long) -i);
+				break;
+			case 1:
+				node.addLong(index, i);
+				expected.add(index, (long) i);
+				break;
+			case 2:
+				node.removeLong(index);
+				expected.remove(index);
+				break;
+			case 3:
+				Node[] parts = node.cut(index);
+				node = Node.join(parts[0], parts[1]);
+				break;
+			default:
+				node.split(index);
+			}
+			checkLeafLinks(node);
+		}
+		node.compact();
+
+		List<Long> actual = new ArrayList<>();
+		node.forEach(actual::add);
+		assertEquals(expected, actual);
+
+		for (int i = 0; i < snapshots.size(); i++) {
+			List<Long> values = new ArrayList<>();
+			snapshots.get(i).forEach(values::add);
+			assertEquals(contents.get(i), values);
+
+			ListIterator<Long> iterator = snapshots.get(i).listIterator(values.size());
+			for (int j = values.size() - 1; j >= 0; j--) {
+				assertEquals(values.get(j), iterator.previous());
+			}
+		}
+	}
+
+	@Test
+	public void removal_from_middle_does_not_split_array_leaves() {
+		Random random = new Random(21);
+		Node node = new Node();
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			node.addLong(i, i);
+			expected.add((long) i);
+		}
+
+		int cursor = 5000;
+		for (int i = 0; i < 5000; i++) {
+			cursor = Math.max(0, Math.min(node.size() - 1, cursor + random.nextInt(11) - 5));
+			assertEquals((long) expected.remove(cursor), node.removeLong(cursor));
+		}
+		assertNull(node.left);
+
+		List<Long> actual = new ArrayList<>();
+		node.forEach(actual::add);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void removal_from_middle_does_not_split_run_length_leaves() {
+		Node node = new Node();
+		for (long i = 0; i < 1000; i++) {
+			node.addLong(i / 100);
+		}
+		node.compact();
+		assertTrue(node.elements instanceof RunLengthStore);
+
+		assertEquals(4, node.removeLong(450));
+		assertNull(node.left);
+		assertTrue(node.elements instanceof RunLengthStore);
+		assertEquals(999, node.size());
+		assertEquals(5, node.getLong(499));
+	}
+
+	@Test
+	public void underflowing_leaves_merge_with_neighbours() {
+		TreeConfiguration configuration = TreeConfiguration.DEFAULT.withLeafSizes(100, 400);
+		Random random = new Random(22);
+		Node node = new Node(configuration);
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			int index = random.nextInt(node.size() + 1);
+			node.addLong(index, i);
+			expected.add(index, (long) i);
+		}
+		for (int i = 0; i < 9_500; i++) {
+			int index = random.nextInt(node.size());
+			assertEquals((long) expected.remove(index), node.removeLong(index));
+		}
+		checkLeafLinks(node);
+
+		List<Node> leaves = new ArrayList<>();
+		collectLeaves(node, leaves);
+		for (Node leaf : leaves) {
+			assertTrue(leaf.size >= configuration.minLeafSize(100));
+		}
+		assertTrue(leaves.size() <= 500 / configuration.minLeafSize(100));
+
+		List<Long> actual = new ArrayList<>();
+		node.forEach(actual::add);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void compaction_trims_retained_arrays() {
+		Node node = new Node();
+		for (int i = 0; i < 10000; i++) {
+			node.addLong(i, i);
+		}
+		int length = ((ArrayStore<?>) node.elements).arrayLength();
+		assertEquals((length - 10000) * 8L, node.unusedBytes());
+
+		// Both halves share the array, which is only counted once
+		Node split = new Node();
+		for (int i = 0; i < 10000; i++) {
+			split.addLong(i, i);
+		}
+		split.split(10);
+		assertEquals((length - 10000) * 8L, split.unusedBytes());
+
+		// The leaf is left holding the whole array
+		for (int i = 10000; i > 10; i--) {
+			node.removeLong(i - 1);
+		}
+		assertEquals((length - 10) * 8L, node.unusedBytes());
+
+		// Trimmed even though no strategy is allowed to encode it
+		node.compact(new CompactionPolicy(Integer.MAX_VALUE, new CompactionStrategy[0]));
+		assertTrue(node.elements instanceof LongArrayStore);
+		assertEquals(0, node.unusedBytes());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, node.getLong(i));
+		}
+	}
+
+	@Test
+	public void defragment_rebuilds_full_leaves() {
+		Random random = new Random(22);
+		Node node = new Node(TreeConfiguration.DEFAULT.withLeafSizes(100, 400));
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			node.addLong(i, i * 7);
+			expected.add(i * 7L);
+		}
+		for (int i = 0; i < 200; i++) {
+			node.split(random.nextInt(node.size() + 1));
+		}
+		Node snapshot = node.snapshot();
+
+		node.defragment();
+		checkLeafLinks(node);
+		List<Node> leaves = new ArrayList<>();
+		collectLeaves(node, leaves);
+		assertEquals(10, leaves.size());
+		for (Node leaf : leaves) {
+			assertEquals(100, leaf.size);
+		}
+		assertEquals(4, node.height);
+
+		List<Long> actual = new ArrayList<>();
+		node.forEach(actual::add);
+		assertEquals(expected, actual);
+
+		// Snapshots keep the old leaves
+		actual.clear();
+		snapshot.forEach(actual::add);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void iterator_moves_in_both_directions() {
+		Node node = new Node();
+		for (int i = 0; i < 100; i++) {
+			node.addLong(i, i);
+		}
+		for (int i = 10; i < 100; i += 10) {
+			node.split(i);
+		}
+
+		ListIterator<Long> iterator = node.listIterator(35);
+		assertEquals(35, (long) iterator.next());
+		assertEquals(35, (long) iterator.previous());
+		for (int i = 34; i >= 0; i--) {
+			assertEquals(i, (long) iterator.previous());
+		}
+		assertFalse(iterator.hasPrevious());
+
+		// Writes through the iterator
+		for (int i = 0; i < 50; i++) {
+			assertEquals(i, (long) iterator.next());
+			if (i % 2 == 0) {
+				iterator.remove();
+			} else {
+				iterator.set((long) -i);
+			}
+		}
+		iterator.add(1000L);
+		assertEquals(50, (long) iterator.next());
+		assertEquals(50, (long) iterator.previous());
+		assertEquals(1000, (long) iterator.previous());
+		assertEquals(-49, (long) iterator.previous());
+		assertEquals(76, node.size());
+		checkLeafLinks(node);
+	}
+
+	@Test
+	public void leaf_links_are_restored_after_deserialization() throws Exception {
+		Node node = new Node();
+		for (int i = 0; i < 100; i++) {
+			node.addLong(i, i);
+		}
+		for (int i = 10; i < 100; i += 10) {
+			node.split(i);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(node);
+		}
+		Node copy;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (Node) in.readObject();
+		}
+
+		checkLeafLinks(copy);
+		int[] leaves = new int[1];
+		copy.walk(leaf -> leaves[0]++);
+		assertEquals(10, leaves[0]);
+	}
+
 	@Test
 	public void test_merge() {
 		Node node = new Node();
@@ -127,6 +495,24 @@ public class NodeTest {
 		assertEquals(6, node.getLong(1));
 	}
 
+	@Test
+	public void merging_encodes_children_directly() {
+		Node node = new Node();
+		for (int i = 0; i < 1000; i++) {
+			node.addLong(i, i * 5L);
+		}
+		node.split(300);
+		node.right.split(400);
+		assertNotNull(node.right.left);
+
+		node.compact();
+		assertEquals(0, node.height);
+		assertTrue(node.elements instanceof LinearStore);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 5L, node.getLong(i));
+		}
+	}
+
 	@Test
 	public void compacting_a_node_uses_appropriate_store() {
 		Node node = new Node();
@@ -150,6 +536,196 @@ public class NodeTest {
 		assertTrue(node.elements instanceof ShortArrayStore);
 	}
 
+	@Test
+	public void compacting_a_node_uses_exact_bit_width() {
+		Node node = new Node();
+		for (long i = 0; i < 1000; i++) {
+			node.addLong((i * 7919) % 500 - 250);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof BitPackedStore);
+		assertEquals(9, node.elements.getWidth());
+		for (long i = 0; i < 1000; i++) {
+			assertEquals((i * 7919) % 500 - 250, node.getLong((int) i));
+		}
+	}
+
+	@Test
+	public void compacting_repeated_values_uses_run_length_store() {
+		Node node = new Node();
+		for (long i = 0; i < 10_000; i++) {
+			node.addLong((i / 1000) * 1_000_000_007L);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof RunLengthStore);
+		assertEquals(9_000_000_063L, node.getLong(9999));
+
+		// Writes inside a run are applied in place
+		node.setLong(5000, 3);
+		assertTrue(node.elements instanceof RunLengthStore);
+		assertEquals(3, node.getLong(5000));
+		assertEquals(5_000_000_035L, node.getLong(5001));
+	}
+
+	@Test
+	public void compacting_few_distinct_values_uses_dictionary_store() {
+		long[] keys = { 1L << 40, 1L << 39, 3, 1L << 38, -(1L << 40) };
+
+		Node node = new Node();
+		for (int i = 0; i < 10_000; i++) {
+			node.addLong(keys[(i * 13) % keys.length]);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof DictionaryStore);
+		assertEquals(3, node.elements.getWidth());
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(keys[(i * 13) % keys.length], node.getLong(i));
+		}
+
+		// New values are added to the dictionary
+		node.setLong(500, 42);
+		assertTrue(node.elements instanceof DictionaryStore);
+		assertEquals(42, node.getLong(500));
+	}
+
+	@Test
+	public void compacting_values_with_outliers_uses_patched_store() {
+		Node node = new Node();
+		for (long i = 0; i < 10_000; i++) {
+			node.addLong(i % 1000 == 0 ? -1 : (1L << 40) + (i * 7919) % 4096);
+		}
+		node.setLong(1234, Long.MAX_VALUE);
+
+		node.compact();
+		assertTrue(node.elements instanceof PatchedStore);
+		assertEquals(12, node.elements.getWidth());
+		assertEquals(-1, node.getLong(0));
+		assertEquals(Long.MAX_VALUE, node.getLong(1234));
+		assertEquals((1L << 40) + (1235 * 7919) % 4096, node.getLong(1235));
+	}
+
+	@Test
+	public void compacting_mostly_default_values_uses_sparse_store() {
+		Node node = new Node();
+		for (long i = 0; i < 10_000; i++) {
+			node.addLong(i % 500 == 0 ? i * 0x9E3779B97F4A7C15L : 0);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof SparseStore);
+		assertEquals(500 * 0x9E3779B97F4A7C15L, node.getLong(500));
+		assertEquals(0, node.getLong(501));
+	}
+
+	@Test
+	public void setting_a_value_in_a_constant_node_uses_sparse_store() {
+		Node node = new Node();
+		for (long i = 0; i < 1000; i++) {
+			node.addLong(5);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof ConstantStore);
+
+		node.setLong(100, 6);
+		node.addLong(50, -1);
+		assertTrue(node.elements instanceof SparseStore);
+		assertEquals(1001, node.size());
+		assertEquals(-1, node.getLong(50));
+		assertEquals(6, node.getLong(101));
+		assertEquals(5, node.getLong(100));
+	}
+
+	@Test
+	public void compacting_regular_timestamps_uses_time_series_store() {
+		Node node = new Node();
+		long t = 1_500_000_000_000L;
+		for (int i = 0; i < 10_000; i++) {
+			t += i % 100 == 0 ? 1001 : 1000;
+			node.addLong(t);
+		}
+
+		node.compact(CompactionPolicy.MINIMUM_SIZE);
+		assertTrue(node.elements instanceof TimeSeriesStore);
+		assertEquals(1_500_000_000_000L + 1001 + 1000 * 99 + 1001, node.getLong(100));
+
+		// Appending a value unseals the store
+		node.addLong(t + 1000);
+		assertTrue(node.elements instanceof IntArrayStore);
+		assertEquals(t + 1000, node.getLong(10_000));
+	}
+
+	@Test
+	public void archiving_compresses_cold_leaves() {
+		Random r = new Random(31);
+		long[] pattern = new long[50];
+		for (int i = 0; i < pattern.length; i++) {
+			pattern[i] = r.nextLong();
+		}
+
+		Node node = new Node();
+		for (int i = 0; i < 200_000; i++) {
+			node.addLong(pattern[i % pattern.length]);
+		}
+
+		node.archive();
+		node.walk(leaf -> {
+			assertTrue(leaf.cold);
+			assertTrue(leaf.elements instanceof CompressedStore);
+		});
+
+		int i = 0;
+		for (long v : node) {
+			assertEquals(pattern[i++ % pattern.length], v);
+		}
+
+		// Writing to a compressed leaf expands it
+		node.setLong(100, 5);
+		assertEquals(5, node.getLong(100));
+		node.walk(leaf -> assertEquals(leaf.cold, leaf.elements instanceof CompressedStore));
+	}
+
+	@Test
+	public void compacting_a_progression_uses_linear_store() {
+		Node node = new Node();
+		for (long i = 0; i < 1000; i++) {
+			node.addLong(1_000_000 + i * 5);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof LinearStore);
+		assertEquals(1_000_000 + 999 * 5, node.getLong(999));
+
+		// Appending the next value in the progression keeps the linear representation
+		node.addLong(1_000_000 + 1000 * 5);
+		assertTrue(node.elements instanceof LinearStore);
+		assertEquals(1001, node.size());
+
+		// Setting a value off the progression decompacts the node
+		node.setLong(10, 7);
+		assertFalse(node.elements instanceof LinearStore);
+		assertEquals(7, node.getLong(10));
+		assertEquals(1_000_000 + 1000 * 5, node.getLong(1000));
+	}
+
+	@Test
+	public void compacting_a_noisy_progression_stores_residuals() {
+		Node node = new Node();
+		for (long i = 0; i < 1000; i++) {
+			node.addLong(1L << 40 | i << 20 | (i * 31) % 100);
+		}
+
+		node.compact();
+		assertTrue(node.elements instanceof ResidualLinearStore);
+		assertEquals(7, node.elements.getWidth());
+		for (long i = 0; i < 1000; i++) {
+			assertEquals(1L << 40 | i << 20 | (i * 31) % 100, node.getLong((int) i));
+		}
+	}
+
 	@Test
 	public void out_of_range_insert_triggers_decompaction() {
 		Node node = new Node();
@@ -166,6 +742,61 @@ public class NodeTest {
 		assertTrue(node.elements.inRange(-512));
 	}
 
+	@Test
+	public void out_of_range_write_promotes_to_next_width() {
+		Random r = new Random(37);
+		List<Long> values = new ArrayList<>();
+		Node node = new Node();
+		for (int i = 0; i < 1000; i++) {
+			values.add(100L + r.nextInt(100));
+			node.addLong(values.get(i));
+		}
+		node.compact();
+		assertTrue(node.elements instanceof BitPackedStore);
+
+		// Widened to the next word size, with space either side of the new range
+		node.setLong(10, 300);
+		assertTrue(node.elements instanceof ByteArrayStore);
+		assertTrue(node.elements.inRange(90) && node.elements.inRange(320));
+
+		node.addLong(500, 1000);
+		assertTrue(node.elements instanceof ShortArrayStore);
+		node.addLong(0, -70_000);
+		assertTrue(node.elements instanceof IntArrayStore);
+		node.setLong(0, Long.MIN_VALUE);
+		assertTrue(node.elements instanceof LongArrayStore);
+
+		assertEquals(1002, node.size());
+		assertEquals(Long.MIN_VALUE, node.getLong(0));
+		assertEquals(300, node.getLong(11));
+		assertEquals(1000, node.getLong(501));
+		assertEquals((long) values.get(999), node.getLong(1001));
+	}
+
+	@Test
+	public void unchanged_leaves_are_not_compacted_again() {
+		Node node = new Node();
+		for (long i = 0; i < 1000; i++) {
+			node.addLong(i * i);
+		}
+		node.compact(CompactionPolicy.FAST_ACCESS);
+		Store compacted = node.elements;
+
+		node.compact(CompactionPolicy.FAST_ACCESS);
+		assertTrue(node.elements == compacted);
+
+		// A few writes within the range and order of the values keep the analysed encoding
+		node.setLong(10, 101);
+		node.compact(CompactionPolicy.FAST_ACCESS);
+		assertTrue(node.elements == compacted);
+		assertEquals(101, node.getLong(10));
+
+		node.setLong(10, 5);
+		node.compact(CompactionPolicy.FAST_ACCESS);
+		assertFalse(node.elements == compacted);
+		assertEquals(5, node.getLong(10));
+	}
+
 	@Test
 	public void shared_store_returned_to_neighbouring_stores() {
 		Node node = new Node();
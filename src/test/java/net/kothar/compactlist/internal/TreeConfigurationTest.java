@@ -0,0 +1,61 @@
+package net.kothar.compactlist.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TreeConfigurationTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void max_leaf_size_must_exceed_target() {
+		TreeConfiguration.DEFAULT.withLeafSizes(1024, 1024);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void growth_factor_must_be_at_least_one() {
+		TreeConfiguration.DEFAULT.withGrowthFactor(0.5);
+	}
+
+	@Test
+	public void fixed_target_does_not_adapt() {
+		assertEquals(5000, TreeConfiguration.DEFAULT.adaptTargetLeafSize(5000, 1000, 0));
+	}
+
+	@Test
+	public void adaptive_target_drifts_with_operation_mix() {
+		TreeConfiguration configuration = TreeConfiguration.DEFAULT.withAdaptive(true);
+		int target = configuration.getTargetLeafSize();
+
+		// Insert-heavy workloads shrink leaves, down to the floor
+		int size = target;
+		for (int i = 0; i < 50; i++) {
+			int next = configuration.adaptTargetLeafSize(size, 1000, 10);
+			assertTrue(next <= size);
+			size = next;
+		}
+		assertEquals(TreeConfiguration.MIN_ADAPTIVE_LEAF_SIZE, size);
+
+		// Read-only workloads grow leaves, up to half the maximum size
+		for (int i = 0; i < 50; i++) {
+			int next = configuration.adaptTargetLeafSize(size, 0, 1000);
+			assertTrue(next >= size);
+			size = next;
+		}
+		assertEquals(configuration.getMaxLeafSize() / 2, size);
+	}
+
+	@Test
+	public void nodes_split_at_configured_size() {
+		Node node = new Node(TreeConfiguration.DEFAULT.withLeafSizes(100, 200).withGrowthFactor(1.5));
+		for (int i = 0; i < 10_000; i++) {
+			node.addLong(i / 2, i);
+		}
+		node.walk(leaf -> assertTrue(leaf.size() <= 200));
+
+		node.compact();
+		int[] leaves = new int[1];
+		node.walk(leaf -> leaves[0]++);
+		assertTrue(leaves[0] >= 10_000 / 200);
+	}
+}
@@ -0,0 +1,189 @@
+package net.kothar.compactlist.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.RandomOperations;
+import net.kothar.compactlist.internal.WideTree.Inner;
+import net.kothar.compactlist.internal.storage.LinearStore;
+
+public class WideTreeTest {
+
+	/**
+	 * Checks the cumulative sizes and fanout of each inner node, and that all leaves are at the
+	 * same depth
+	 */
+	private int check(WideTree tree, Inner node, int maxFanout) {
+		assertTrue(node.count > 0 && node.count <= maxFanout);
+		int depth = -1;
+		int total = 0;
+		for (int c = 0; c < node.count; c++) {
+			int childDepth;
+			if (node.leaves) {
+				Leaf leaf = (Leaf) node.children[c];
+				assertTrue(leaf.size() > 0 || node == tree.root);
+				total += leaf.size();
+				childDepth = 0;
+			} else {
+				Inner child = (Inner) node.children[c];
+				total += child.size();
+				childDepth = check(tree, child, maxFanout);
+			}
+			assertEquals(total, node.ends[c]);
+			assertTrue(depth < 0 || depth == childDepth);
+			depth = childDepth;
+		}
+		return depth + 1;
+	}
+
+	@Test
+	public void random_operations_match_list() {
+		WideTree tree = new WideTree(4, 8, 32);
+		List<Long> expected = new ArrayList<>();
+		new RandomOperations(7, r -> r.nextLong() >> r.nextInt(Long.SIZE)).apply(tree, expected, 20_000, i -> {
+			if (i % 1000 == 0) {
+				tree.compact();
+			}
+			if (i % 100 == 0) {
+				check(tree, tree.root, 4);
+				assertEquals(expected.size(), tree.size());
+			}
+		});
+
+		check(tree, tree.root, 4);
+		List<Long> actual = new ArrayList<>();
+		tree.forEach(actual::add);
+		assertEquals(expected, actual);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals((long) expected.get(i), tree.getLong(i));
+		}
+	}
+
+	@Test
+	public void removing_everything_leaves_an_empty_tree() {
+		WideTree tree = new WideTree(4, 8, 32);
+		for (int i = 0; i < 1000; i++) {
+			tree.addLong(i, i);
+		}
+		assertTrue(tree.height() > 2);
+
+		while (tree.size() > 0) {
+			tree.removeLong(tree.size() / 2);
+		}
+		assertEquals(1, tree.height());
+		tree.addLong(0, 5);
+		assertEquals(5, tree.getLong(0));
+	}
+
+	@Test
+	public void compaction_merges_small_leaves() {
+		WideTree tree = new WideTree(4, 100, 400);
+		for (int i = 0; i < 1000; i++) {
+			tree.addLong(i, i * 3L);
+		}
+		// Removing from the middle of leaves splits them
+		for (int i = 0; i < 10; i++) {
+			tree.addLong(i * 50 + 1, tree.removeLong(i * 50 + 1));
+		}
+		int leaves[] = new int[1];
+		tree.walk(store -> leaves[0]++);
+		assertTrue(leaves[0] > 10);
+
+		tree.compact();
+		int merged[] = new int[1];
+		tree.walk(store -> merged[0]++);
+		assertTrue(merged[0] < leaves[0]);
+		check(tree, tree.root, 4);
+		tree.walk(store -> assertTrue(store instanceof LinearStore));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 3L, tree.getLong(i));
+		}
+	}
+
+	@Test
+	public void leaves_are_sized_by_configuration() {
+		WideTree tree = new WideTree(TreeConfiguration.DEFAULT.withLeafSizes(8, 32));
+		for (int i = 0; i < 1000; i++) {
+			tree.addLong(i / 2, i);
+		}
+		tree.walk(store -> assertTrue(store.size() <= 32));
+		assertEquals(8, tree.getConfiguration().getTargetLeafSize());
+	}
+
+	@Test
+	public void search_finds_insertion_points() {
+		WideTree tree = new WideTree(4, 8, 32);
+		for (int i = 0; i < 1000; i++) {
+			tree.addLong(i, i * 2L);
+		}
+
+		assertEquals(250, tree.searchLong(500));
+		assertEquals(-252, tree.searchLong(501));
+		assertEquals(-1, tree.searchLong(-1));
+		assertEquals(-1001, tree.searchLong(5000));
+	}
+
+	@Test
+	public void cursor_reads_leaves_after_writes() {
+		WideTree tree = new WideTree(4, 8, 32);
+		for (int i = 0; i < 500; i++) {
+			tree.addLong(i, i);
+		}
+
+		LongCursor cursor = tree.cursor();
+		for (int i = 0; i < 250; i++) {
+			assertTrue(cursor.next());
+			assertEquals(i, cursor.value());
+		}
+		// Widens the store of the leaf the cursor is reading
+		tree.setLong(251, Long.MAX_VALUE);
+		assertTrue(cursor.next());
+		assertEquals(250, cursor.value());
+		assertTrue(cursor.next());
+		assertEquals(Long.MAX_VALUE, cursor.value());
+
+		cursor.seek(499);
+		assertTrue(cursor.next());
+		assertEquals(499, cursor.value());
+		assertFalse(cursor.next());
+		assertEquals(500, cursor.index());
+	}
+
+	@Test
+	public void iterator_removes_elements() {
+		WideTree tree = new WideTree(4, 8, 32);
+		for (int i = 0; i < 500; i++) {
+			tree.addLong(i, i);
+		}
+
+		for (Iterator<Long> i = tree.iterator(); i.hasNext();) {
+			if (i.next() % 2 == 0) {
+				i.remove();
+			}
+		}
+		assertEquals(250, tree.size());
+		for (int i = 0; i < 250; i++) {
+			assertEquals(i * 2 + 1, tree.getLong(i));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void iterator_removes_each_element_once() {
+		WideTree tree = new WideTree();
+		tree.addLong(0, 1);
+		tree.addLong(1, 2);
+
+		Iterator<Long> i = tree.iterator();
+		i.next();
+		i.next();
+		i.remove();
+		i.remove();
+	}
+}
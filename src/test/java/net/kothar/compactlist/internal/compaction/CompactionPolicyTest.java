@@ -0,0 +1,112 @@
+package net.kothar.compactlist.internal.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.CompactList;
+import net.kothar.compactlist.internal.storage.ConstantStore;
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.Store;
+
+public class CompactionPolicyTest {
+
+	private static LongArrayStore timestamps() {
+		LongArrayStore elements = new LongArrayStore(10_000);
+		long t = 1_500_000_000_000L;
+		for (int i = 0; i < elements.size(); i++) {
+			t += i % 100 == 0 ? 1001 : 1000;
+			elements.setLong(i, t);
+		}
+		return elements;
+	}
+
+	@Test
+	public void minimum_size_chooses_smallest_strategy() {
+		StorageAnalysis analysis = new StorageAnalysis(timestamps());
+		assertEquals(StandardStrategy.TIME_SERIES, CompactionPolicy.MINIMUM_SIZE.choose(analysis));
+		assertEquals(StandardStrategy.RESIDUAL_LINEAR, CompactionPolicy.MINIMUM_SIZE.forMaintenance().choose(analysis));
+	}
+
+	@Test
+	public void access_cost_ceiling_excludes_slow_strategies() {
+		StorageAnalysis analysis = new StorageAnalysis(timestamps());
+		CompactionStrategy strategy = new CompactionPolicy(2).choose(analysis);
+		assertEquals(StandardStrategy.RESIDUAL_LINEAR, strategy);
+		assertTrue(strategy.accessCost(analysis) <= 2);
+
+		assertNull(new CompactionPolicy(0).choose(analysis));
+	}
+
+	@Test
+	public void maintenance_leaves_out_sealed_strategies() {
+		LongArrayStore ids = new LongArrayStore(10_000);
+		Random r = new Random(31);
+		long id = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			id += r.nextInt(2000);
+			ids.setLong(i, id);
+		}
+
+		StorageAnalysis analysis = new StorageAnalysis(ids);
+		CompactionPolicy policy = CompactionPolicy.MINIMUM_SIZE;
+		assertEquals(StandardStrategy.ELIAS_FANO, policy.choose(analysis));
+		assertFalse(policy.forMaintenance().choose(analysis).isSealed());
+		assertEquals(policy.forMaintenance(), policy.forMaintenance().forMaintenance());
+	}
+
+	@Test
+	public void maintenance_allows_only_fast_access() {
+		LongArrayStore runs = new LongArrayStore(10_000);
+		for (int i = 0; i < runs.size(); i++) {
+			runs.setLong(i, (i / 1000) * 1_000_000_007L);
+		}
+
+		StorageAnalysis analysis = new StorageAnalysis(runs);
+		CompactionPolicy policy = CompactionPolicy.getDefault();
+		assertEquals(StandardStrategy.RUN_LENGTH, policy.choose(analysis));
+		assertTrue(policy.forMaintenance().choose(analysis).accessCost(analysis) <= 2);
+	}
+
+	@Test
+	public void registered_strategies_are_considered() {
+		CompactionStrategy free = new CompactionStrategy() {
+
+			@Override
+			public long estimateBits(StorageAnalysis analysis) {
+				return 0;
+			}
+
+			@Override
+			public int accessCost(StorageAnalysis analysis) {
+				return 1;
+			}
+
+			@Override
+			public Store build(StorageAnalysis analysis, Store elements) {
+				return new ConstantStore(-1, elements.size());
+			}
+		};
+
+		// Earlier strategies are preferred when they need the same number of bits
+		StorageAnalysis analysis = new StorageAnalysis(new ConstantStore(5, 100));
+		CompactionPolicy policy = new CompactionPolicy(Integer.MAX_VALUE).withStrategies(free);
+		assertEquals(StandardStrategy.CONSTANT, policy.choose(analysis));
+
+		analysis = new StorageAnalysis(timestamps());
+		assertEquals(free, policy.choose(analysis));
+
+		CompactList list = new CompactList();
+		for (long i = 0; i < 1000; i++) {
+			list.addLong(i * i);
+		}
+		list.setCompactionPolicy(policy);
+		list.compact();
+		assertEquals(-1, list.getLong(10));
+	}
+}
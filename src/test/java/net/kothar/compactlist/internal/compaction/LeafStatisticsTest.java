@@ -0,0 +1,125 @@
+package net.kothar.compactlist.internal.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+import net.kothar.compactlist.internal.storage.RunLengthStore;
+import net.kothar.compactlist.internal.storage.Store;
+
+public class LeafStatisticsTest {
+
+	@Test
+	public void statistics_match_values() {
+		Random r = new Random(41);
+		LongArrayStore elements = new LongArrayStore();
+		LeafStatistics statistics = new LeafStatistics(elements);
+
+		for (int i = 0; i < 10_000; i++) {
+			long v = r.nextInt(1000) + (r.nextBoolean() ? i : -i);
+			switch (elements.isEmpty() ? 0 : r.nextInt(4)) {
+			case 0:
+			case 1:
+				// Mostly appends in order, to exercise the ascending flag
+				int index = r.nextInt(10) == 0 ? r.nextInt(elements.size() + 1) : elements.size();
+				if (index == elements.size() && !elements.isEmpty()) {
+					v = Math.max(v, elements.getLong(index - 1));
+				}
+				statistics.adding(elements, index, v);
+				elements.addLong(index, v);
+				break;
+			case 2:
+				index = r.nextInt(elements.size());
+				statistics.replaced(elements, index, elements.setLong(index, v), v);
+				break;
+			case 3:
+				index = r.nextBoolean() ? 0 : elements.size() - 1;
+				statistics.removed(elements.removeLong(index));
+				break;
+			}
+
+			StorageAnalysis analysis = new StorageAnalysis(elements);
+			if (!elements.isEmpty()) {
+				assertEquals(analysis.min, statistics.min(elements));
+				assertEquals(analysis.max, statistics.max(elements));
+			}
+			if (statistics.isAscending(elements)) {
+				assertEquals(true, analysis.ascending);
+			}
+		}
+	}
+
+	@Test
+	public void analysis_resets_modifications() {
+		LongArrayStore elements = new LongArrayStore();
+		LeafStatistics statistics = new LeafStatistics(elements);
+		for (int i = 0; i < 10; i++) {
+			statistics.adding(elements, i, i);
+			elements.addLong(i, i);
+		}
+		assertEquals(10, statistics.modifications());
+
+		statistics.analysed(new StorageAnalysis(elements), elements);
+		assertEquals(0, statistics.modifications());
+		assertEquals(true, statistics.isAscending(elements));
+		assertEquals(9, statistics.max(elements));
+	}
+
+	@Test
+	public void leaf_is_settled_until_enough_values_change() {
+		LongArrayStore elements = new LongArrayStore();
+		LeafStatistics statistics = new LeafStatistics(elements);
+		for (int i = 0; i < 800; i++) {
+			statistics.adding(elements, i, i % 100);
+			elements.addLong(i, i % 100);
+		}
+		assertFalse(statistics.isSettled(elements));
+
+		statistics.analysed(new StorageAnalysis(elements), elements);
+		assertTrue(statistics.isSettled(elements));
+		assertFalse(statistics.isSettled(new LongArrayStore(elements)));
+
+		// Writes within the analysed range
+		for (int i = 0; i < 100; i++) {
+			statistics.replaced(elements, i, elements.setLong(i, 50), 50);
+		}
+		assertTrue(statistics.isSettled(elements));
+		statistics.settled();
+		assertEquals(0, statistics.modifications());
+
+		// Too many writes since the analysis
+		statistics.replaced(elements, 100, elements.setLong(100, 50), 50);
+		assertFalse(statistics.isSettled(elements));
+
+		// A wider range
+		statistics.analysed(new StorageAnalysis(elements), elements);
+		statistics.adding(elements, 0, 1000);
+		elements.addLong(0, 1000);
+		assertFalse(statistics.isSettled(elements));
+	}
+
+	@Test
+	public void run_length_leaf_is_not_settled_after_a_write() {
+		LongArrayStore elements = new LongArrayStore();
+		LeafStatistics statistics = new LeafStatistics(elements);
+		for (int i = 0; i < 1000; i++) {
+			statistics.adding(elements, i, i / 100 * 10);
+			elements.addLong(i, i / 100 * 10);
+		}
+
+		StorageAnalysis analysis = new StorageAnalysis(elements);
+		Store encoded = StandardStrategy.RUN_LENGTH.build(analysis, elements);
+		assertTrue(encoded instanceof RunLengthStore);
+		statistics.analysed(analysis, encoded);
+		assertTrue(statistics.isSettled(encoded));
+
+		// Breaking a run within the analysed range and order changes the encoded size
+		statistics.replaced(encoded, 99, encoded.setLong(99, 5), 5);
+		assertFalse(statistics.isSettled(encoded));
+	}
+}
@@ -0,0 +1,29 @@
+package net.kothar.compactlist.internal.compaction;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.internal.storage.LongArrayStore;
+
+public class StorageAnalysisTest {
+
+	@Test
+	public void mode_is_counted_for_a_small_majority() {
+		LongArrayStore elements = new LongArrayStore(10_000);
+		for (int i = 0; i < elements.size(); i++) {
+			elements.setLong(i, i % 5 < 3 ? 7 : i * 31L);
+		}
+
+		StorageAnalysis analysis = new StorageAnalysis(elements);
+		assertEquals(7, analysis.mode);
+		assertEquals(6000, analysis.modeCount);
+
+		// Without a majority there is no mode
+		for (int i = 0; i < elements.size(); i += 5) {
+			elements.setLong(i, i * 31L);
+		}
+		analysis = new StorageAnalysis(elements);
+		assertEquals(0, analysis.modeCount);
+	}
+}
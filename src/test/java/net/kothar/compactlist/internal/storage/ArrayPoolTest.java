@@ -0,0 +1,112 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.kothar.compactlist.CompactList;
+import net.kothar.compactlist.internal.TreeConfiguration;
+
+public class ArrayPoolTest {
+
+	private ArrayPool pool;
+
+	@Before
+	public void setup() {
+		pool = new ArrayPool(1 << 20);
+		ArrayPool.setShared(pool);
+	}
+
+	@After
+	public void teardown() {
+		ArrayPool.setShared(null);
+	}
+
+	@Test
+	public void released_arrays_are_reused() {
+		LongArrayStore store = new LongArrayStore();
+		store.allocate(1000);
+		Object array = store.getArray();
+		assertEquals(1024, store.arrayLength());
+
+		store.release();
+		assertEquals(1024 * 8, pool.getBytes());
+
+		// Any length in the same bucket gets the array
+		LongArrayStore other = new LongArrayStore();
+		other.allocate(600);
+		assertSame(array, other.getArray());
+		assertEquals(0, pool.getBytes());
+		assertEquals(1, pool.getHits());
+
+		// Arrays are not shared between element types
+		other.release();
+		IntArrayStore ints = new IntArrayStore();
+		ints.allocate(600);
+		assertNotSame(array, ints.getArray());
+	}
+
+	@Test
+	public void shared_arrays_are_pooled_once_released_by_all_stores() {
+		LongArrayStore store = new LongArrayStore();
+		store.allocate(1000);
+		for (long i = 0; i < 1000; i++) {
+			store.addLong(i);
+		}
+
+		Store[] parts = store.split(500);
+		parts[0].release();
+		assertEquals(0, pool.getBytes());
+		assertEquals(500, parts[1].getLong(0));
+
+		parts[1].release();
+		assertEquals(1024 * 8, pool.getBytes());
+	}
+
+	@Test
+	public void pool_is_bounded() {
+		ArrayPool small = new ArrayPool(4096);
+		ArrayPool.setShared(small);
+
+		LongArrayStore first = new LongArrayStore();
+		first.allocate(300);
+		LongArrayStore second = new LongArrayStore();
+		second.allocate(300);
+
+		first.release();
+		second.release();
+		assertEquals(512 * 8, small.getBytes());
+	}
+
+	@Test
+	public void churning_list_reuses_arrays() {
+		CompactList list = new CompactList(TreeConfiguration.DEFAULT.withLeafSizes(1 << 10, 1 << 12));
+		List<Long> expected = new ArrayList<>();
+		Random random = new Random(24);
+		for (int i = 0; i < 200_000; i++) {
+			int index = random.nextInt(expected.size() + 1);
+			if (expected.size() > 10_000 && random.nextBoolean()) {
+				index = Math.min(index, expected.size() - 1);
+				assertEquals(expected.remove(index), list.remove(index));
+			} else {
+				long value = random.nextInt(1000);
+				list.addLong(index, value);
+				expected.add(index, value);
+			}
+			if (i % 20_000 == 0) {
+				list.compact();
+			}
+		}
+		assertEquals(expected, list);
+		assertTrue(pool.getHits() > 0);
+	}
+}
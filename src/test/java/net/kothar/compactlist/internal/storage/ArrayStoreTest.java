@@ -5,9 +5,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Consumer;
 
 import org.junit.Test;
@@ -175,6 +177,108 @@ public class ArrayStoreTest {
 		});
 	}
 
+	@Test
+	public void removal_from_middle_leaves_gap() {
+		testEach(store -> {
+			store.allocate(20);
+			for (long i = 0; i < 10; i++) {
+				store.addLong(i);
+			}
+			int initialCapacity = store.capacity();
+
+			store.removeLong(4);
+			store.removeLong(4);
+			assertEquals("Gap at removal", 4, store.gapStart);
+			assertEquals("Gap length", 2, store.gapLength);
+
+			// Inserting next to the gap fills it
+			store.addLong(4, 40);
+			assertEquals(1, store.gapLength);
+			assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 40L, 6L, 7L, 8L, 9L), store);
+			assertEquals("Capacity remains unchanged", initialCapacity, store.capacity());
+		});
+	}
+
+	@Test
+	public void edits_near_moving_cursor_match_list() {
+		testEach(store -> {
+			Random random = new Random(21);
+			List<Long> expected = new ArrayList<>();
+			for (long i = 0; i < 200; i++) {
+				store.addLong(i % 100);
+				expected.add(i % 100);
+			}
+
+			int cursor = 100;
+			for (int i = 0; i < 2000; i++) {
+				cursor = Math.max(0, Math.min(expected.size() - 1, cursor + random.nextInt(7) - 3));
+				if (random.nextBoolean() && !expected.isEmpty()) {
+					assertEquals(expected.remove(cursor), store.remove(cursor));
+				} else {
+					long value = random.nextInt(100);
+					store.addLong(cursor, value);
+					expected.add(cursor, value);
+				}
+				if (expected.isEmpty()) {
+					store.addLong(0);
+					expected.add(0L);
+				}
+			}
+			assertEquals(expected, store);
+
+			// Splitting keeps the gap with the elements either side of it
+			Store[] parts = store.split(expected.size() / 3);
+			assertEquals(expected.subList(0, expected.size() / 3), parts[0]);
+			assertEquals(expected.subList(expected.size() / 3, expected.size()), parts[1]);
+
+			store.reserve(store.capacity() * 2);
+			assertEquals(0, store.gapLength);
+			assertEquals(expected.subList(0, expected.size() / 3), store);
+		});
+	}
+
+	@Test
+	public void ranges_are_visited_across_gap() {
+		testEach(store -> {
+			List<Long> expected = new ArrayList<>();
+			for (long i = 0; i < 100; i++) {
+				store.addLong(i);
+				expected.add(i);
+			}
+			for (int i = 0; i < 10; i++) {
+				assertEquals(expected.remove(40), store.remove(40));
+			}
+			assertTrue(store.gapLength > 0);
+
+			for (int[] range : new int[][] { { 0, 90 }, { 0, 40 }, { 40, 90 }, { 30, 50 }, { 45, 45 } }) {
+				List<Long> actual = new ArrayList<>();
+				store.forEachLong(range[0], range[1], actual::add);
+				assertEquals(expected.subList(range[0], range[1]), actual);
+			}
+		});
+	}
+
+	@Test
+	public void trim_releases_shared_array() {
+		testEach(store -> {
+			for (long i = 0; i < 1000; i++) {
+				store.addLong(i % 100);
+			}
+			Store[] parts = store.split(10);
+			parts[1].release();
+			assertTrue(store.isRetaining());
+
+			store.trim();
+			assertFalse(store.isRetaining());
+			assertEquals(10, store.arrayLength());
+			assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), store);
+
+			// The trimmed store grows as usual
+			store.addLong(10);
+			assertEquals(11, store.size());
+		});
+	}
+
 	private void testEach(Consumer<ArrayStore<?>> test) {
 		try {
 			for (Class<? extends ArrayStore<?>> c : strategies) {
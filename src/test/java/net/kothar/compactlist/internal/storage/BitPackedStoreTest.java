@@ -0,0 +1,51 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BitPackedStoreTest {
+
+	@Test
+	public void bit_width_matches_range() {
+		assertEquals(0, BitPackedStore.bitWidth(0));
+		assertEquals(1, BitPackedStore.bitWidth(1));
+		assertEquals(9, BitPackedStore.bitWidth(511));
+		assertEquals(33, BitPackedStore.bitWidth(1L << 32));
+		assertEquals(64, BitPackedStore.bitWidth(-1));
+	}
+
+	@Test
+	public void values_can_be_recovered_at_every_width() {
+		for (int width = 1; width < Long.SIZE; width++) {
+			BitPackedStore store = new BitPackedStore(width, -100);
+			long max = -1L >>> (Long.SIZE - width);
+			for (int i = 0; i < 200; i++) {
+				store.addLong(i, -100 + (i * 0x9E3779B97F4A7C15L & max));
+			}
+			for (int i = 0; i < 200; i++) {
+				assertEquals("Width " + width, -100 + (i * 0x9E3779B97F4A7C15L & max), store.getLong(i));
+			}
+			assertTrue(store.inRange(-100 + max));
+			assertFalse(store.inRange(-101));
+			assertFalse(store.inRange(-100 + max + 1));
+		}
+	}
+
+	@Test
+	public void split_preserves_values() {
+		BitPackedStore store = new BitPackedStore(9, 0);
+		for (int i = 0; i < 100; i++) {
+			store.addLong(i, i * 5);
+		}
+
+		Store[] split = store.split(40);
+		assertEquals(40, split[0].size());
+		assertEquals(60, split[1].size());
+		assertEquals(39 * 5, split[0].getLong(39));
+		assertEquals(40 * 5, split[1].getLong(0));
+		assertEquals(99 * 5, split[1].getLong(59));
+	}
+}
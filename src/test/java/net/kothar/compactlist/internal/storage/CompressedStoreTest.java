@@ -0,0 +1,124 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedStoreTest {
+
+	private static CompressedStore compress(List<Long> values) {
+		LongArrayStore elements = new LongArrayStore(values.size());
+		for (int i = 0; i < values.size(); i++) {
+			elements.setLong(i, values.get(i));
+		}
+		return new CompressedStore(elements);
+	}
+
+	@Before
+	public void setup() {
+		CompressedStore.clearCache();
+	}
+
+	@Test
+	public void values_are_decompressed() {
+		Random r = new Random(13);
+		List<Long> values = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			values.add(r.nextInt(8) == 0 ? r.nextLong() : i % 100 - 50L);
+		}
+		values.add(Long.MIN_VALUE);
+		values.add(Long.MAX_VALUE);
+
+		CompressedStore store = compress(values);
+		assertFalse(store.isCached());
+		assertEquals(values, store);
+		assertTrue(store.isCached());
+	}
+
+	@Test
+	public void repetitive_values_are_compressed() {
+		Random r = new Random(17);
+		long[] pattern = new long[100];
+		for (int i = 0; i < pattern.length; i++) {
+			pattern[i] = r.nextLong();
+		}
+
+		List<Long> values = new ArrayList<>();
+		for (int i = 0; i < 50_000; i++) {
+			values.add(pattern[i % pattern.length]);
+		}
+
+		CompressedStore store = compress(values);
+		assertTrue(store.getWidth() < 4);
+		assertEquals(values, store);
+	}
+
+	@Test
+	public void cache_is_bounded() {
+		List<Long> values = new ArrayList<>();
+		for (long i = 0; i < CompressedStore.CACHE_SIZE / 2; i++) {
+			values.add(i);
+		}
+
+		CompressedStore a = compress(values);
+		CompressedStore b = compress(values);
+		CompressedStore c = compress(values);
+		a.getLong(0);
+		b.getLong(0);
+		assertTrue(a.isCached());
+
+		// Reading a third store evicts the least recently used
+		a.getLong(1);
+		c.getLong(0);
+		assertTrue(a.isCached());
+		assertFalse(b.isCached());
+		assertTrue(c.isCached());
+
+		c.release();
+		assertFalse(c.isCached());
+	}
+
+	@Test
+	public void split_stores_share_cache_entry() {
+		List<Long> values = new ArrayList<>();
+		for (long i = 0; i < 1000; i++) {
+			values.add(i * i);
+		}
+
+		CompressedStore store = compress(values);
+		Store[] split = store.split(400);
+		assertEquals(values.subList(0, 400), split[0]);
+		assertTrue(((CompressedStore) split[1]).isCached());
+		assertEquals(values.subList(400, 1000), split[1]);
+
+		assertEquals(values.get(400), (Long) split[1].removeLong(0));
+		assertEquals(values.get(399), (Long) split[0].removeLong(399));
+		assertEquals(values.subList(401, 1000), split[1]);
+		assertFalse(split[1].inRange(0, 5, true));
+		assertFalse(split[1].inRange(0, values.get(401), false));
+	}
+
+	@Test
+	public void reader_keeps_decoded_values() {
+		List<Long> values = new ArrayList<>();
+		for (long i = 0; i < 1000; i++) {
+			values.add(i * i);
+		}
+
+		CompressedStore store = compress(values);
+		store.removeLong(0);
+		Store reader = store.reader();
+		CompressedStore.clearCache();
+
+		// Reading does not go through the cache again
+		assertEquals(values.subList(1, 1000), reader);
+		assertFalse(store.isCached());
+	}
+}
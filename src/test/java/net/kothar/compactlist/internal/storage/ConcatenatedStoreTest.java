@@ -0,0 +1,41 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ConcatenatedStoreTest {
+
+	@Test
+	public void parts_are_read_in_order() {
+		LongArrayStore a = new LongArrayStore();
+		LongArrayStore b = new LongArrayStore();
+		List<Long> expected = new ArrayList<>();
+		for (long i = 0; i < 10; i++) {
+			a.add(i);
+			expected.add(i);
+		}
+		for (long i = 10; i < 15; i++) {
+			b.add(i * 3);
+			expected.add(i * 3);
+		}
+
+		ConcatenatedStore store = new ConcatenatedStore(new ConstantStore(0, 0), a, new ConstantStore(0, 0), b,
+			new ConstantStore(0, 0));
+		assertEquals(15, store.size());
+		assertEquals(expected, store);
+
+		// Reads out of order locate the containing part
+		assertEquals(36, store.getLong(12));
+		assertEquals(3, store.getLong(3));
+		assertEquals(42, store.getLong(14));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void concatenated_stores_are_read_only() {
+		new ConcatenatedStore(new ConstantStore(1, 2)).setLong(0, 2);
+	}
+}
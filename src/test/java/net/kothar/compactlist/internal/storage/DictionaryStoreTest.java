@@ -0,0 +1,59 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DictionaryStoreTest {
+
+	static final long[] KEYS = { -7L << 40, 3L << 40, 5L << 40, 11L << 40 };
+
+	static LongArrayStore values(int count) {
+		LongArrayStore values = new LongArrayStore();
+		for (int i = 0; i < count; i++) {
+			values.addLong(i, KEYS[(i * 7) % KEYS.length]);
+		}
+		return values;
+	}
+
+	@Test
+	public void values_are_stored_as_codes() {
+		LongArrayStore values = values(100);
+		DictionaryStore store = new DictionaryStore(KEYS.clone(), values);
+
+		assertEquals(2, store.getWidth());
+		assertEquals(values, store);
+	}
+
+	@Test
+	public void dictionary_grows_for_new_values() {
+		LongArrayStore values = values(100);
+		DictionaryStore store = new DictionaryStore(KEYS.clone(), values);
+
+		// New values sort before, between and after existing entries, widening the codes
+		store.setLong(10, 4L << 40);
+		store.addLong(0, Long.MIN_VALUE);
+		store.addLong(101, Long.MAX_VALUE);
+		assertEquals(7, store.dictionarySize);
+		assertEquals(3, store.getWidth());
+
+		values.setLong(10, 4L << 40);
+		values.addLong(0, Long.MIN_VALUE);
+		values.addLong(101, Long.MAX_VALUE);
+		assertEquals(values, store);
+	}
+
+	@Test
+	public void dictionary_size_is_limited() {
+		DictionaryStore store = new DictionaryStore(KEYS.clone(), values(10));
+		for (int i = 0; store.dictionarySize < DictionaryStore.MAX_DICTIONARY_SIZE; i++) {
+			assertTrue(store.inRange(i));
+			store.addLong(store.size(), i);
+		}
+
+		assertFalse(store.inRange(-1));
+		assertTrue(store.inRange(KEYS[2]));
+	}
+}
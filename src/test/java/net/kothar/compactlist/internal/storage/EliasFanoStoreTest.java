@@ -0,0 +1,140 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EliasFanoStoreTest {
+
+	private static List<Long> ascending(Random r, int size, int maxGap) {
+		List<Long> values = new ArrayList<>();
+		long v = r.nextInt(1000) - 500;
+		for (int i = 0; i < size; i++) {
+			v += r.nextInt(maxGap);
+			values.add(v);
+		}
+		return values;
+	}
+
+	private static EliasFanoStore encode(List<Long> values) {
+		LongArrayStore elements = new LongArrayStore(values.size());
+		for (int i = 0; i < values.size(); i++) {
+			elements.setLong(i, values.get(i));
+		}
+		return new EliasFanoStore(elements);
+	}
+
+	@Test
+	public void values_are_decoded() {
+		Random r = new Random(3);
+		for (int maxGap : new int[] { 1, 2, 100, 1 << 20 }) {
+			List<Long> values = ascending(r, 5000, maxGap);
+			EliasFanoStore store = encode(values);
+			assertEquals(values, store);
+		}
+	}
+
+	@Test
+	public void skewed_values_are_decoded() {
+		// A few values followed by a large gap
+		List<Long> values = ascending(new Random(13), 10, 2);
+		values.addAll(ascending(new Random(17), 1000, 1000));
+		long gap = values.get(9) + 1_000_000;
+		for (int i = 10; i < values.size(); i++) {
+			values.set(i, values.get(i) + gap);
+		}
+
+		EliasFanoStore store = encode(values);
+		assertEquals(values, store);
+	}
+
+	@Test
+	public void for_each_decodes_ranges() {
+		List<Long> values = ascending(new Random(9), 1000, 300);
+		Store store = encode(values).split(100)[1];
+		values = values.subList(100, 1000);
+
+		int[][] ranges = { { 0, 900 }, { 0, 0 }, { 27, 28 }, { 28, 92 }, { 63, 700 }, { 899, 900 } };
+		for (int[] range : ranges) {
+			List<Long> actual = new ArrayList<>();
+			store.forEachLong(range[0], range[1], actual::add);
+			assertEquals(values.subList(range[0], range[1]), actual);
+		}
+	}
+
+	@Test
+	public void search_finds_values_and_insertion_points() {
+		Random r = new Random(5);
+		List<Long> values = ascending(r, 5000, 50);
+		EliasFanoStore store = encode(values);
+
+		for (long v = values.get(0) - 10; v < values.get(values.size() - 1) + 10; v++) {
+			int expected = Collections.binarySearch(values, v);
+			int index = store.searchLong(v);
+			if (expected >= 0) {
+				assertEquals((Long) v, values.get(index));
+			} else {
+				assertEquals(expected, index);
+			}
+		}
+	}
+
+	@Test
+	public void appending_and_removing_from_ends() {
+		Random r = new Random(7);
+		List<Long> values = ascending(r, 1000, 20);
+		EliasFanoStore store = encode(values);
+
+		long next = values.get(values.size() - 1);
+		for (int i = 0; i < 1000; i++) {
+			if (r.nextBoolean()) {
+				next += r.nextInt(20);
+				assertTrue(store.inRange(store.size(), next, false));
+				store.addLong(store.size(), next);
+				values.add(next);
+			} else if (r.nextBoolean()) {
+				assertEquals(values.remove(0), (Long) store.removeLong(0));
+			} else {
+				assertEquals(values.remove(values.size() - 1), (Long) store.removeLong(store.size() - 1));
+				next = values.get(values.size() - 1);
+			}
+		}
+		assertEquals(values, store);
+
+		assertFalse(store.inRange(store.size(), next - 1, false));
+		assertFalse(store.inRange(0, next, false));
+		assertFalse(store.inRange(next));
+	}
+
+	@Test
+	public void split_stores_share_encoding() {
+		Random r = new Random(11);
+		List<Long> values = ascending(r, 3000, 1000);
+		EliasFanoStore store = encode(values);
+
+		Store[] split = store.split(1234);
+		assertEquals(values.subList(0, 1234), split[0]);
+		assertEquals(values.subList(1234, values.size()), split[1]);
+
+		// Only the last store can append to the shared encoding
+		long last = values.get(values.size() - 1);
+		assertFalse(split[0].inRange(split[0].size(), values.get(1234), false));
+		assertTrue(split[1].inRange(split[1].size(), last + 1, false));
+
+		split[1].removeLong(split[1].size() - 1);
+		split[1].addLong(split[1].size(), last + 1);
+		assertEquals(values.subList(0, 1234), split[0]);
+		assertEquals(last + 1, split[1].getLong(split[1].size() - 1));
+
+		int index = values.get(1500).equals(values.get(1499)) ? 1499 : 1500;
+		assertEquals(index - 1234, split[1].searchLong(values.get(1500)));
+		assertEquals(-(1 + 1234), split[0].searchLong(values.get(1500)));
+	}
+}
@@ -0,0 +1,81 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LinearStoreTest {
+
+	@Test
+	public void values_follow_progression() {
+		LinearStore store = new LinearStore(100, 3, 10);
+
+		assertEquals(10, store.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(100 + i * 3, store.getLong(i));
+		}
+	}
+
+	@Test
+	public void progression_can_be_extended_at_either_end() {
+		LinearStore store = new LinearStore(100, 3, 10);
+
+		assertTrue(store.inRange(10, 130, false));
+		assertTrue(store.inRange(0, 97, false));
+		assertFalse(store.inRange(10, 131, false));
+		assertFalse(store.inRange(5, 115, false));
+
+		store.addLong(10, 130);
+		store.addLong(0, 97);
+		assertEquals(12, store.size());
+		assertEquals(97, store.getLong(0));
+		assertEquals(130, store.getLong(11));
+	}
+
+	@Test
+	public void removal_from_ends_preserves_progression() {
+		LinearStore store = new LinearStore(100, 3, 10);
+
+		assertEquals(100, store.removeLong(0));
+		assertEquals(127, store.removeLong(8));
+		assertEquals(8, store.size());
+		assertEquals(103, store.getLong(0));
+		assertEquals(124, store.getLong(7));
+	}
+
+	@Test
+	public void split_continues_progression() {
+		LinearStore store = new LinearStore(100, 3, 10);
+
+		Store[] split = store.split(4);
+		assertEquals(4, split[0].size());
+		assertEquals(6, split[1].size());
+		assertEquals(109, split[0].getLong(3));
+		assertEquals(112, split[1].getLong(0));
+	}
+
+	@Test
+	public void residuals_are_stored_compactly() {
+		LongArrayStore values = new LongArrayStore();
+		for (int i = 0; i < 1000; i++) {
+			values.addLong(i, 1_000_000_000L + i * 1000L + (i % 7) - 3);
+		}
+
+		ResidualLinearStore store = new ResidualLinearStore(values.getLong(0), 1000, new ByteArrayStore(-3), values);
+		assertEquals(Byte.SIZE, store.getWidth());
+		assertEquals(values, store);
+
+		long next = 1_000_000_000L + 1000 * 1000L + 2;
+		assertTrue(store.inRange(1000, next, false));
+		assertFalse(store.inRange(1000, next + 1000, false));
+		store.addLong(1000, next);
+		assertEquals(next, store.getLong(1000));
+
+		Store[] split = store.split(500);
+		assertEquals(values.getLong(499), split[0].getLong(499));
+		assertEquals(values.getLong(500), split[1].getLong(0));
+		assertEquals(next, split[1].getLong(500));
+	}
+}
@@ -0,0 +1,61 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PatchedStoreTest {
+
+	static LongArrayStore values(int count) {
+		LongArrayStore values = new LongArrayStore();
+		for (int i = 0; i < count; i++) {
+			values.addLong(i, i % 50 == 0 ? -1 : 1000 + (i * 37) % 200);
+		}
+		return values;
+	}
+
+	@Test
+	public void outliers_are_stored_as_exceptions() {
+		LongArrayStore values = values(1000);
+		values.setLong(501, Long.MAX_VALUE);
+		PatchedStore store = new PatchedStore(8, 1000, values);
+
+		assertEquals(8, store.getWidth());
+		assertEquals(21, store.exceptions);
+		assertEquals(values, store);
+	}
+
+	@Test
+	public void writes_move_values_between_packed_and_exceptions() {
+		LongArrayStore values = values(1000);
+		PatchedStore store = new PatchedStore(8, 1000, values);
+		assertEquals(20, store.exceptions);
+
+		store.setLong(0, 1001);
+		store.setLong(1, Long.MIN_VALUE);
+		store.addLong(2, 1002);
+		store.addLong(3, -2);
+		store.removeLong(52);
+		assertEquals(20, store.exceptions);
+
+		values.setLong(0, 1001);
+		values.setLong(1, Long.MIN_VALUE);
+		values.addLong(2, 1002);
+		values.addLong(3, -2);
+		values.removeLong(52);
+		assertEquals(values, store);
+	}
+
+	@Test
+	public void exceptions_are_limited() {
+		PatchedStore store = new PatchedStore(8, 1000, values(1000));
+		while (store.exceptions < store.maxExceptions()) {
+			assertTrue(store.inRange(-5));
+			store.addLong(store.size(), -5);
+		}
+		assertFalse(store.inRange(-5));
+		assertTrue(store.inRange(1005));
+	}
+}
@@ -0,0 +1,66 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RunLengthStoreTest {
+
+	@Test
+	public void runs_are_merged_and_split() {
+		RunLengthStore store = new RunLengthStore();
+		store.addAll(Arrays.asList(1L, 1L, 1L, 2L, 2L, 3L));
+		assertEquals(3, store.runs);
+
+		// Insert inside a run of a different value
+		store.addLong(1, 5L);
+		assertEquals(Arrays.asList(1L, 5L, 1L, 1L, 2L, 2L, 3L), store);
+		assertEquals(5, store.runs);
+
+		// Removing the inserted value joins the neighbouring runs again
+		store.removeLong(1);
+		assertEquals(Arrays.asList(1L, 1L, 1L, 2L, 2L, 3L), store);
+		assertEquals(3, store.runs);
+
+		// Insert at the edge of a run extends it
+		store.addLong(3, 1L);
+		assertEquals(3, store.runs);
+		assertEquals(Arrays.asList(1L, 1L, 1L, 1L, 2L, 2L, 3L), store);
+	}
+
+	@Test
+	public void split_divides_runs() {
+		RunLengthStore store = new RunLengthStore();
+		store.addAll(Arrays.asList(1L, 1L, 1L, 2L, 2L, 3L));
+
+		Store[] split = store.split(2);
+		assertEquals(Arrays.asList(1L, 1L), split[0]);
+		assertEquals(Arrays.asList(1L, 2L, 2L, 3L), split[1]);
+
+		split = split[1].split(1);
+		assertEquals(Arrays.asList(1L), split[0]);
+		assertEquals(Arrays.asList(2L, 2L, 3L), split[1]);
+	}
+
+	@Test
+	public void too_many_runs_are_out_of_range() {
+		RunLengthStore store = new RunLengthStore();
+		for (int i = 0; i < 64; i++) {
+			store.addLong(i, 0);
+		}
+
+		// Each distinct value inside the run adds two more runs
+		for (int i = 0; i < 15; i++) {
+			assertTrue(store.inRange(i * 4 + 1, i + 1, true));
+			store.setLong(i * 4 + 1, i + 1);
+		}
+		assertEquals(31, store.runs);
+		assertFalse(store.inRange(62, 100, true));
+		assertTrue(store.inRange(62, 0, true));
+		assertTrue(store.inRange(64, 0, false));
+	}
+}
@@ -0,0 +1,41 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SparseStoreTest {
+
+	@Test
+	public void constant_store_can_be_extended_with_exceptions() {
+		SparseStore store = new SparseStore(new ConstantStore(7, 100));
+		assertEquals(Collections.nCopies(100, 7L), store);
+
+		store.setLong(10, -1);
+		store.addLong(0, Long.MAX_VALUE);
+		assertEquals(2, store.exceptions);
+		assertEquals(101, store.size());
+		assertEquals(Long.MAX_VALUE, store.getLong(0));
+		assertEquals(-1, store.getLong(11));
+		assertEquals(7, store.getLong(10));
+
+		// Writing the default value removes the exception
+		store.setLong(11, 7);
+		assertEquals(1, store.exceptions);
+	}
+
+	@Test
+	public void exceptions_are_limited() {
+		SparseStore store = new SparseStore(0, 1000);
+		for (int i = 0; store.exceptions < SparseStore.maxExceptions(1000); i++) {
+			assertTrue(store.inRange(i + 1));
+			store.setLong(i * 10, i + 1);
+		}
+		assertFalse(store.inRange(-1));
+		assertTrue(store.inRange(0));
+	}
+}
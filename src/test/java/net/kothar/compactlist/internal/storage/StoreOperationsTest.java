@@ -0,0 +1,73 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.RandomOperations;
+
+/**
+ * Checks that each writable store behaves like a list, for values in the range it is meant to hold
+ */
+public class StoreOperationsTest {
+
+	private static class Fixture {
+
+		final String				name;
+		final Supplier<Store>		store;
+		final ToLongFunction<Random>	values;
+
+		Fixture(String name, Supplier<Store> store, ToLongFunction<Random> values) {
+			this.name = name;
+			this.store = store;
+			this.values = values;
+		}
+	}
+
+	private static final List<Fixture> fixtures = Arrays.asList(
+		new Fixture("BitPackedStore",
+			() -> new BitPackedStore(13, 1000),
+			r -> 1000 + r.nextInt(1 << 13)),
+		new Fixture("RunLengthStore",
+			RunLengthStore::new,
+			r -> r.nextInt(3)),
+		new Fixture("DictionaryStore",
+			() -> new DictionaryStore(DictionaryStoreTest.KEYS.clone(), DictionaryStoreTest.values(50)),
+			r -> (long) r.nextInt(40) << 35),
+		new Fixture("PatchedStore",
+			() -> new PatchedStore(8, 1000, PatchedStoreTest.values(200)),
+			r -> r.nextInt(10) == 0 ? r.nextLong() : 1000 + r.nextInt(256)),
+		new Fixture("SparseStore",
+			() -> new SparseStore(0, 500),
+			r -> r.nextInt(4) == 0 ? r.nextLong() : 0));
+
+	@Test
+	public void random_operations_match_list() {
+		for (Fixture fixture : fixtures) {
+			Store store = fixture.store.get();
+			List<Long> expected = new ArrayList<>(store);
+			new RandomOperations(fixture.name.hashCode(), fixture.values).apply(store, expected, 2000);
+			assertEquals(fixture.name, expected, store);
+
+			int from = expected.size() / 5, to = expected.size() - from;
+			List<Long> range = new ArrayList<>();
+			store.forEachLong(from, to, range::add);
+			assertEquals(fixture.name, expected.subList(from, to), range);
+
+			Store[] split = store.split(expected.size() / 3);
+			assertEquals(fixture.name, expected.subList(0, expected.size() / 3), split[0]);
+			assertEquals(fixture.name, expected.subList(expected.size() / 3, expected.size()), split[1]);
+
+			List<Long> tail = new ArrayList<>();
+			split[1].forEachLong(tail::add);
+			assertEquals(fixture.name, expected.subList(expected.size() / 3, expected.size()), tail);
+		}
+	}
+}
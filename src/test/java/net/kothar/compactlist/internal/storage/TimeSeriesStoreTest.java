@@ -0,0 +1,123 @@
+package net.kothar.compactlist.internal.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.kothar.compactlist.internal.storage.TimeSeriesStore.Encoder;
+import net.kothar.compactlist.internal.storage.TimeSeriesStore.Encoding;
+
+public class TimeSeriesStoreTest {
+
+	private static TimeSeriesStore encode(Encoding encoding, List<Long> values) {
+		LongArrayStore elements = new LongArrayStore(values.size());
+		for (int i = 0; i < values.size(); i++) {
+			elements.setLong(i, values.get(i));
+		}
+		return new TimeSeriesStore(encoding, elements);
+	}
+
+	private static List<Long> timestamps(Random r, int size) {
+		List<Long> values = new ArrayList<>();
+		long t = 1_500_000_000_000L;
+		for (int i = 0; i < size; i++) {
+			t += 1000;
+			if (r.nextInt(20) == 0) {
+				t += r.nextInt(10_000) - 5000;
+			}
+			values.add(t);
+		}
+		return values;
+	}
+
+	private static List<Long> samples(Random r, int size) {
+		List<Long> values = new ArrayList<>();
+		double v = 100;
+		for (int i = 0; i < size; i++) {
+			if (r.nextInt(4) == 0) {
+				v += r.nextBoolean() ? 0.5 : -0.5;
+			}
+			values.add(Double.doubleToLongBits(v));
+		}
+		return values;
+	}
+
+	@Test
+	public void delta_of_delta_encodes_timestamps() {
+		List<Long> values = timestamps(new Random(1), 10_000);
+		TimeSeriesStore store = encode(Encoding.DELTA_OF_DELTA, values);
+		assertEquals(values, store);
+		assertTrue(store.getWidth() < 8);
+	}
+
+	@Test
+	public void xor_encodes_samples() {
+		List<Long> values = samples(new Random(2), 10_000);
+		TimeSeriesStore store = encode(Encoding.XOR, values);
+		assertEquals(values, store);
+		assertTrue(store.getWidth() < 16);
+	}
+
+	@Test
+	public void extreme_values_are_encoded() {
+		Random r = new Random(3);
+		List<Long> values = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			values.add(r.nextBoolean() ? r.nextLong() : r.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE);
+		}
+		for (Encoding encoding : Encoding.values()) {
+			assertEquals(values, encode(encoding, values));
+		}
+	}
+
+	@Test
+	public void counting_encoder_matches_stream() {
+		List<Long> values = samples(new Random(4), 1000);
+		Encoder encoder = new Encoder(Encoding.XOR, false);
+		for (long v : values) {
+			encoder.add(v);
+		}
+
+		TimeSeriesStore store = encode(Encoding.XOR, values);
+		long streamWords = (encoder.bits() - store.checkpointValues.length * TimeSeriesStore.CHECKPOINT_WIDTH + 63) / 64;
+		assertEquals(streamWords, store.stream.length);
+	}
+
+	@Test
+	public void for_each_decodes_ranges() {
+		List<Long> values = samples(new Random(6), 1000);
+		Store store = encode(Encoding.XOR, values).split(100)[1];
+		values = values.subList(100, 1000);
+
+		int[][] ranges = { { 0, 900 }, { 0, 0 }, { 27, 28 }, { 28, 92 }, { 63, 700 }, { 899, 900 } };
+		for (int[] range : ranges) {
+			List<Long> actual = new ArrayList<>();
+			store.forEachLong(range[0], range[1], actual::add);
+			assertEquals(values.subList(range[0], range[1]), actual);
+		}
+	}
+
+	@Test
+	public void split_and_remove_from_ends() {
+		List<Long> values = timestamps(new Random(5), 1000);
+		TimeSeriesStore store = encode(Encoding.DELTA_OF_DELTA, values);
+
+		Store[] split = store.split(300);
+		assertEquals(values.subList(0, 300), split[0]);
+		assertEquals(values.subList(300, 1000), split[1]);
+
+		assertEquals(values.get(300), (Long) split[1].removeLong(0));
+		assertEquals(values.get(999), (Long) split[1].removeLong(split[1].size() - 1));
+		assertEquals(values.subList(301, 999), split[1]);
+
+		assertTrue(split[0].inRange(10, values.get(10), true));
+		assertFalse(split[0].inRange(10, values.get(11), true));
+		assertFalse(split[0].inRange(300, values.get(300), false));
+	}
+}